@@ -25,6 +25,11 @@ public class Main {
     public static void main(String[] args) throws IOException {
         Path projectFilePath = null;
         Path outputPath = null;
+        int threadCount = 1;
+        Long memoryBudget = null;
+        boolean resume = false;
+        long writeBehindBufferSize = 0;
+        long seed = 0;
         for (String arg : args) {
             if(arg.startsWith("--project-file=")) {
                 projectFilePath = Paths.get(arg.substring("--project-file=".length()));
@@ -32,6 +37,21 @@ public class Main {
             else if(arg.startsWith("--output-path=")) {
                 outputPath = Paths.get(arg.substring("--output-path=".length()));
             }
+            else if(arg.startsWith("--threads=")) {
+                threadCount = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else if(arg.startsWith("--memory-budget=")) {
+                memoryBudget = Long.parseLong(arg.substring("--memory-budget=".length())) * 1024 * 1024;
+            }
+            else if(arg.equals("--resume")) {
+                resume = true;
+            }
+            else if(arg.startsWith("--write-behind=")) {
+                writeBehindBufferSize = Long.parseLong(arg.substring("--write-behind=".length())) * 1024 * 1024;
+            }
+            else if(arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            }
         }
         if(projectFilePath == null || !Files.exists(projectFilePath))
             throw new IllegalArgumentException("Project file does not exist: " + projectFilePath);
@@ -43,9 +63,16 @@ public class Main {
         System.out.println("Output will be written to " + outputPath);
         MCATRun run = new MCATRun(project);
         run.setOutputPath(outputPath);
+        run.setThreadCount(threadCount);
+        if(memoryBudget != null)
+            run.setMemoryBudget(memoryBudget);
+        run.setResume(resume);
+        run.setWriteBehindBufferSize(writeBehindBufferSize);
+        run.setSeed(seed);
         run.reportValidity(report);
         if(!report.isValid())
             throw new RuntimeException("Project did not pass validity check!");
-        run.run(status -> System.out.println(status.getProgress() + "/" + status.getMaxProgress() + ": " + status.getCurrentTask()), () -> false);
+        run.run(status -> System.out.println(status.getProgress() + "/" + status.getMaxProgress() + ": " + status.getCurrentTask() +
+                (status.getMetrics() != null ? " (" + status.getMetrics().toShortString() + ")" : "")), () -> false);
     }
 }
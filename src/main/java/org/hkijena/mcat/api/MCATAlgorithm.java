@@ -12,6 +12,12 @@
  ******************************************************************************/
 package org.hkijena.mcat.api;
 
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 /**
  * Base class for an algorithm node
  * Please use the provided properties to access data and parameters to later allow easy extension to hyperparameters
@@ -28,6 +34,77 @@ public abstract class MCATAlgorithm implements MCATValidatable, Runnable {
 
     public abstract String getName();
 
+    /**
+     * Returns the kind of algorithm that is used to summarize the {@link MCATAlgorithmMetrics}
+     *
+     * @return the category
+     */
+    public String getCategory() {
+        return getName();
+    }
+
+    /**
+     * Estimates how much heap memory this algorithm needs at most while running.
+     * Used by the {@link MCATAlgorithmGraphExecutor} to limit how many memory-intensive algorithms run at the same time.
+     *
+     * @return estimated peak memory in bytes or 0 if the algorithm needs only little memory
+     */
+    public long estimateMemoryFootprint() {
+        return 0;
+    }
+
+    /**
+     * Returns the slots this algorithm writes its results into
+     *
+     * @return the output slots
+     */
+    public List<MCATDataSlot> getOutputSlots() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Adds settings that change the results, but are not part of the parameters, to the fingerprint
+     * that is used by the {@link MCATResultCache} to decide if results can be reused
+     *
+     * @param entries the fingerprint entries
+     */
+    public void addFingerprintEntries(List<String> entries) {
+    }
+
+    /**
+     * Saves results that are not stored in output slots, so they can be restored when the results are loaded
+     * from a previous run
+     *
+     * @param state the target JSON object
+     */
+    public void saveResultState(ObjectNode state) {
+    }
+
+    /**
+     * Restores the results saved by saveResultState()
+     *
+     * @param state the JSON object
+     */
+    public void loadResultState(JsonNode state) {
+    }
+
+    /**
+     * Called instead of run() after the results were restored by the {@link MCATResultCache}.
+     * Writes additional files that are not part of the restored results.
+     */
+    public void flushRestoredResults() {
+    }
+
+    /**
+     * Releases the data of all output slots that can be loaded again from their files.
+     * Called by the {@link MCATAlgorithmGraphExecutor} after all successors have finished.
+     */
+    public void releaseOutputs() {
+        for (MCATDataSlot slot : getOutputSlots()) {
+            slot.release();
+        }
+    }
+
     public MCATRun getRun() {
         return run;
     }
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.jgrapht.graph.DefaultEdge;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the nodes of an {@link MCATAlgorithmGraph} on a pool of worker threads.
+ * A node is started as soon as all its predecessors have finished. If multiple nodes are ready, the one that comes
+ * first in the topological order of the graph is started first, so a single worker reproduces the sequential order.
+ * Progress is reported and cancellation is checked on the calling thread only.
+ * Algorithms that report a memory footprint are only started while the sum of the footprints of all running
+ * algorithms stays within the memory budget. Otherwise they wait until enough running algorithms have finished.
+ * Skipped algorithms are not run, but count as finished as soon as all their predecessors have finished.
+ * The outputs of an algorithm are released from memory as soon as all its successors have finished, so only the
+ * data of algorithms that still have pending successors is kept in memory.
+ * The resource usage of each algorithm that was run is recorded as {@link MCATAlgorithmMetrics}.
+ */
+public class MCATAlgorithmGraphExecutor {
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final MCATAlgorithmGraph graph;
+    private final int threadCount;
+    private long memoryBudget = Long.MAX_VALUE;
+    private Set<MCATAlgorithm> skippedAlgorithms = Collections.emptySet();
+    private Consumer<MCATAlgorithm> onAlgorithmFinished = algorithm -> {
+    };
+    private final List<MCATAlgorithmMetrics> metrics = Collections.synchronizedList(new ArrayList<>());
+
+    public MCATAlgorithmGraphExecutor(MCATAlgorithmGraph graph, int threadCount) {
+        if (threadCount < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1!");
+        this.graph = graph;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Runs all nodes of the graph and blocks until they are finished.
+     * If a node fails or the run is cancelled, no further nodes are started. Nodes that are already running are
+     * allowed to finish before the exception is thrown.
+     * A node whose footprint alone exceeds the memory budget is started once no other node with a footprint is running.
+     *
+     * @param onProgress  receives the progress. Only called from the calling thread.
+     * @param isCancelled polled by the calling thread
+     */
+    public void run(Consumer<MCATRun.Status> onProgress, Supplier<Boolean> isCancelled) {
+        List<MCATAlgorithm> order = graph.traverse();
+        Map<MCATAlgorithm, Integer> orderIndices = new HashMap<>();
+        Map<MCATAlgorithm, Integer> remainingPredecessors = new HashMap<>();
+        Map<MCATAlgorithm, Integer> remainingSuccessors = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            MCATAlgorithm algorithm = order.get(i);
+            orderIndices.put(algorithm, i);
+            remainingPredecessors.put(algorithm, graph.getGraph().inDegreeOf(algorithm));
+            remainingSuccessors.put(algorithm, graph.getGraph().outDegreeOf(algorithm));
+        }
+
+        PriorityQueue<MCATAlgorithm> ready = new PriorityQueue<>(Comparator.comparing(orderIndices::get));
+        for (MCATAlgorithm algorithm : order) {
+            if (remainingPredecessors.get(algorithm) == 0)
+                ready.add(algorithm);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder().setNameFormat("mcat-worker-%d").setDaemon(true).build());
+        CompletionService<MCATAlgorithm> completionService = new ExecutorCompletionService<>(executorService);
+        Map<Future<MCATAlgorithm>, MCATAlgorithm> runningAlgorithms = new HashMap<>();
+        Map<MCATAlgorithm, Long> memoryFootprints = new HashMap<>();
+        Map<MCATAlgorithm, MCATAlgorithmMetrics> runningMetrics = new HashMap<>();
+        Set<MCATAlgorithm> postponedAlgorithms = new HashSet<>();
+        RuntimeException failure = null;
+        long reservedMemory = 0;
+        int finished = 0;
+
+        try {
+            while (finished < order.size()) {
+                if (failure == null && isCancelled.get())
+                    failure = new RuntimeException("Execution was cancelled");
+                if (failure == null) {
+                    // Once a node has to wait for memory, later nodes with a footprint wait as well
+                    // so that they cannot keep the waiting node from starting
+                    List<MCATAlgorithm> postponed = new ArrayList<>();
+                    boolean memoryExhausted = false;
+                    while (runningAlgorithms.size() < threadCount && !ready.isEmpty()) {
+                        MCATAlgorithm algorithm = ready.poll();
+                        if (skippedAlgorithms.contains(algorithm)) {
+                            ++finished;
+                            onProgress.accept(new MCATRun.Status(finished, order.size(), algorithm.getName() + " (cached)"));
+                            releaseSuccessors(algorithm, remainingPredecessors, ready);
+                            releaseOutputs(algorithm, remainingSuccessors);
+                            continue;
+                        }
+                        long footprint = memoryFootprints.computeIfAbsent(algorithm, MCATAlgorithm::estimateMemoryFootprint);
+                        if (footprint > 0 && (memoryExhausted || (reservedMemory > 0 && reservedMemory + footprint > memoryBudget))) {
+                            memoryExhausted = true;
+                            postponed.add(algorithm);
+                            if (postponedAlgorithms.add(algorithm)) {
+                                System.out.println("Postponing " + algorithm.getName() + " until memory is available (needs " +
+                                        toMegabytes(footprint) + " MB, " + toMegabytes(reservedMemory) + " MB of " +
+                                        toMegabytes(memoryBudget) + " MB in use)");
+                            }
+                            continue;
+                        }
+                        reservedMemory += footprint;
+                        onProgress.accept(new MCATRun.Status(finished, order.size(), algorithm.getName()));
+                        MCATAlgorithmMetrics algorithmMetrics = new MCATAlgorithmMetrics(algorithm);
+                        runningMetrics.put(algorithm, algorithmMetrics);
+                        runningAlgorithms.put(completionService.submit(() -> {
+                            algorithmMetrics.start();
+                            try {
+                                algorithm.run();
+                            } finally {
+                                algorithmMetrics.stop();
+                            }
+                            onAlgorithmFinished.accept(algorithm);
+                        }, algorithm), algorithm);
+                    }
+                    ready.addAll(postponed);
+                }
+                if (runningAlgorithms.isEmpty())
+                    break;
+
+                Future<MCATAlgorithm> future = completionService.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                for (MCATAlgorithmMetrics algorithmMetrics : runningMetrics.values()) {
+                    algorithmMetrics.updatePeakHeap();
+                }
+                if (future == null)
+                    continue;
+                MCATAlgorithm algorithm = runningAlgorithms.remove(future);
+                MCATAlgorithmMetrics algorithmMetrics = runningMetrics.remove(algorithm);
+                metrics.add(algorithmMetrics);
+                reservedMemory -= memoryFootprints.get(algorithm);
+
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = toRuntimeException(e.getCause());
+                    continue;
+                }
+
+                ++finished;
+                onProgress.accept(new MCATRun.Status(finished, order.size(), algorithm.getName() + " done", algorithmMetrics));
+                releaseSuccessors(algorithm, remainingPredecessors, ready);
+                releaseOutputs(algorithm, remainingSuccessors);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    private void releaseSuccessors(MCATAlgorithm algorithm, Map<MCATAlgorithm, Integer> remainingPredecessors, PriorityQueue<MCATAlgorithm> ready) {
+        for (DefaultEdge edge : graph.getGraph().outgoingEdgesOf(algorithm)) {
+            MCATAlgorithm successor = graph.getGraph().getEdgeTarget(edge);
+            int remaining = remainingPredecessors.get(successor) - 1;
+            remainingPredecessors.put(successor, remaining);
+            if (remaining == 0)
+                ready.add(successor);
+        }
+    }
+
+    /**
+     * Releases the outputs of all predecessors that have no pending successors anymore.
+     * The outputs of the algorithm itself are released if it has no successors.
+     */
+    private void releaseOutputs(MCATAlgorithm algorithm, Map<MCATAlgorithm, Integer> remainingSuccessors) {
+        if (remainingSuccessors.get(algorithm) == 0)
+            algorithm.releaseOutputs();
+        for (DefaultEdge edge : graph.getGraph().incomingEdgesOf(algorithm)) {
+            MCATAlgorithm predecessor = graph.getGraph().getEdgeSource(edge);
+            int remaining = remainingSuccessors.get(predecessor) - 1;
+            remainingSuccessors.put(predecessor, remaining);
+            if (remaining == 0)
+                predecessor.releaseOutputs();
+        }
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / 1024 / 1024;
+    }
+
+    private static RuntimeException toRuntimeException(Throwable throwable) {
+        if (throwable instanceof RuntimeException)
+            return (RuntimeException) throwable;
+        if (throwable instanceof Error)
+            throw (Error) throwable;
+        return new RuntimeException(throwable);
+    }
+
+    public MCATAlgorithmGraph getGraph() {
+        return graph;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory that may be reserved by running algorithms according to their estimated footprint
+     *
+     * @param memoryBudget the budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the resource usage of all algorithms that were run, in the order in which they finished
+     *
+     * @return the metrics
+     */
+    public List<MCATAlgorithmMetrics> getMetrics() {
+        synchronized (metrics) {
+            return new ArrayList<>(metrics);
+        }
+    }
+
+    public Set<MCATAlgorithm> getSkippedAlgorithms() {
+        return skippedAlgorithms;
+    }
+
+    /**
+     * Sets algorithms whose results are already available. They are not run.
+     *
+     * @param skippedAlgorithms the skipped algorithms
+     */
+    public void setSkippedAlgorithms(Set<MCATAlgorithm> skippedAlgorithms) {
+        this.skippedAlgorithms = skippedAlgorithms;
+    }
+
+    public Consumer<MCATAlgorithm> getOnAlgorithmFinished() {
+        return onAlgorithmFinished;
+    }
+
+    /**
+     * Sets a function that is called after an algorithm has finished successfully.
+     * It is called on the worker thread that ran the algorithm, before its successors are started.
+     *
+     * @param onAlgorithmFinished the function
+     */
+    public void setOnAlgorithmFinished(Consumer<MCATAlgorithm> onAlgorithmFinished) {
+        this.onAlgorithmFinished = onAlgorithmFinished;
+    }
+}
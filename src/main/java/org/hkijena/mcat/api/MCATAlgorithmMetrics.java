@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.fasterxml.jackson.annotation.JsonGetter;
+
+/**
+ * Resource usage of one algorithm run.
+ * CPU time and allocations are measured on the worker thread that ran the algorithm and on the helper threads that
+ * were started for the algorithm, see {@link #startHelperThread()}. The peak heap is the highest heap usage of the
+ * whole JVM that was observed while the algorithm was running, so it includes algorithms running at the same time.
+ */
+public class MCATAlgorithmMetrics {
+
+    private static final ThreadLocal<MCATAlgorithmMetrics> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<long[]> HELPER_START = new ThreadLocal<>();
+
+    private final String algorithmName;
+    private final String category;
+    private long startTimeMillis;
+    private long wallTimeNanos;
+    private long cpuTimeNanos = -1;
+    private long allocatedBytes = -1;
+    private long peakHeapBytes;
+    private long writtenBytes;
+    private long helperCpuTimeNanos;
+    private long helperAllocatedBytes;
+
+    private long startNanos;
+    private long startCpuTimeNanos;
+    private long startAllocatedBytes;
+
+    public MCATAlgorithmMetrics(MCATAlgorithm algorithm) {
+        this.algorithmName = algorithm.getName();
+        this.category = algorithm.getCategory();
+    }
+
+    /**
+     * Starts the measurement on the current thread
+     */
+    public void start() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        startTimeMillis = System.currentTimeMillis();
+        startCpuTimeNanos = threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1;
+        startAllocatedBytes = getCurrentThreadAllocatedBytes(threadMXBean);
+        updatePeakHeap();
+        CURRENT.set(this);
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Stops the measurement. Must be called from the thread that called start().
+     */
+    public void stop() {
+        wallTimeNanos = System.nanoTime() - startNanos;
+        CURRENT.remove();
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (startCpuTimeNanos >= 0)
+            cpuTimeNanos = threadMXBean.getCurrentThreadCpuTime() - startCpuTimeNanos;
+        long endAllocatedBytes = getCurrentThreadAllocatedBytes(threadMXBean);
+        if (startAllocatedBytes >= 0 && endAllocatedBytes >= 0)
+            allocatedBytes = endAllocatedBytes - startAllocatedBytes;
+        updatePeakHeap();
+    }
+
+    /**
+     * Attributes the CPU time and allocations of the current thread to this algorithm until stopHelperThread() is
+     * called. Used by the threads of pools that are started by the algorithm.
+     */
+    public void startHelperThread() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        HELPER_START.set(new long[]{threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1,
+                getCurrentThreadAllocatedBytes(threadMXBean)});
+        CURRENT.set(this);
+    }
+
+    /**
+     * Stops attributing the current thread to this algorithm. Must be called from the thread that called startHelperThread().
+     */
+    public void stopHelperThread() {
+        long[] start = HELPER_START.get();
+        HELPER_START.remove();
+        CURRENT.remove();
+        if (start == null)
+            return;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long cpuTime = start[0] >= 0 ? threadMXBean.getCurrentThreadCpuTime() - start[0] : 0;
+        long endAllocatedBytes = getCurrentThreadAllocatedBytes(threadMXBean);
+        long allocated = start[1] >= 0 && endAllocatedBytes >= 0 ? endAllocatedBytes - start[1] : 0;
+        addHelperUsage(cpuTime, allocated);
+    }
+
+    private synchronized void addHelperUsage(long cpuTimeNanos, long allocatedBytes) {
+        helperCpuTimeNanos += cpuTimeNanos;
+        helperAllocatedBytes += allocatedBytes;
+    }
+
+    /**
+     * Samples the current heap usage
+     */
+    public synchronized void updatePeakHeap() {
+        peakHeapBytes = Math.max(peakHeapBytes, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    private static long getCurrentThreadAllocatedBytes(ThreadMXBean threadMXBean) {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled())
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Adds written bytes to the algorithm that is measured on the current thread.
+     * Does nothing if no algorithm is measured.
+     *
+     * @param bytes the number of bytes
+     */
+    public static void recordWrittenBytes(long bytes) {
+        MCATAlgorithmMetrics metrics = CURRENT.get();
+        if (metrics != null)
+            metrics.addWrittenBytes(bytes);
+    }
+
+    /**
+     * Returns the metrics of the algorithm that is measured on the current thread
+     *
+     * @return the metrics or null if no algorithm is measured
+     */
+    public static MCATAlgorithmMetrics getCurrent() {
+        return CURRENT.get();
+    }
+
+    public synchronized void addWrittenBytes(long bytes) {
+        writtenBytes += bytes;
+    }
+
+    @JsonGetter("algorithm")
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    @JsonGetter("category")
+    public String getCategory() {
+        return category;
+    }
+
+    @JsonGetter("start-time-millis")
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    @JsonGetter("wall-time-millis")
+    public long getWallTimeMillis() {
+        return wallTimeNanos / 1000000;
+    }
+
+    /**
+     * @return CPU time of the worker thread and the helper threads or -1 if not supported
+     */
+    @JsonGetter("cpu-time-millis")
+    public synchronized long getCpuTimeMillis() {
+        return cpuTimeNanos < 0 ? -1 : (cpuTimeNanos + helperCpuTimeNanos) / 1000000;
+    }
+
+    /**
+     * @return bytes allocated by the worker thread and the helper threads or -1 if not supported
+     */
+    @JsonGetter("allocated-bytes")
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes < 0 ? -1 : allocatedBytes + helperAllocatedBytes;
+    }
+
+    @JsonGetter("peak-heap-bytes")
+    public synchronized long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    @JsonGetter("written-bytes")
+    public synchronized long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return a short human-readable summary
+     */
+    public String toShortString() {
+        return String.format("%.1f s wall, %.1f s CPU, %d MB allocated, %d MB peak heap, %d MB written",
+                wallTimeNanos / 1e9,
+                Math.max(0, getCpuTimeMillis()) / 1e3,
+                Math.max(0, getAllocatedBytes()) / 1024 / 1024,
+                getPeakHeapBytes() / 1024 / 1024,
+                getWrittenBytes() / 1024 / 1024);
+    }
+}
@@ -25,4 +25,14 @@ public interface MCATData {
      *
      */
     void saveTo(Path folder, Path fileName);
+
+    /**
+     * Estimates how much memory the data occupies.
+     * Used to limit the amount of data that waits in the {@link MCATWriteBehindQueue}.
+     *
+     * @return size in bytes or 0 if the data is small
+     */
+    default long estimateSize() {
+        return 0;
+    }
 }
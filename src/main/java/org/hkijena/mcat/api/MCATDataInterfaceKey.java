@@ -17,6 +17,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.hkijena.mcat.api.parameters.MCATParameterCollection;
 
@@ -85,6 +86,16 @@ public class MCATDataInterfaceKey {
         return getDataInterfaceName() + " -> @(" + String.join(",", dataSetNames) + ") # " + parameters;
     }
 
+    /**
+     * Returns a string representation that does not depend on the iteration order of the data sets and parameters
+     *
+     * @return canonical string representation
+     */
+    public String toCanonicalString() {
+        return getDataInterfaceName() + " -> @(" + dataSetNames.stream().sorted().collect(Collectors.joining(",")) + ") # " +
+                parameters.stream().map(p -> p.getClass().getSimpleName() + "(" + p + ")").sorted().collect(Collectors.joining(","));
+    }
+
     public <T extends MCATParameterCollection> T getParameterOfType(Class<? extends MCATParameterCollection> parametersClass) {
         return (T) parameters.stream().filter(p -> parametersClass.isAssignableFrom(p.getClass())).findFirst().orElse(null);
     }
@@ -13,9 +13,14 @@
 package org.hkijena.mcat.api;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
 
 import org.hkijena.mcat.api.registries.MCATDataTypeRegistry;
+import org.hkijena.mcat.extension.dataproviders.api.FileDataProvider;
 import org.hkijena.mcat.utils.JsonUtils;
 import org.hkijena.mcat.utils.StringUtils;
 
@@ -37,6 +42,8 @@ public class MCATDataSlot {
     private MCATData data;
     private MCATDataProvider dataProvider;
     private Path fileName;
+    private MCATWriteBehindQueue writeBehindQueue;
+    private CompletableFuture<Void> pendingWrite = CompletableFuture.completedFuture(null);
 
     /**
      * The path where the slot stores its data
@@ -68,7 +75,7 @@ public class MCATDataSlot {
      * @param <T>   target class
      * @return data already stored within this slot or result of getCurrentProvider().get()
      */
-    public <T extends MCATData> T getData(Class<T> klass) {
+    public synchronized <T extends MCATData> T getData(Class<T> klass) {
         // Automatically load data if available
         if (data == null && dataProvider != null) {
             if (!dataProvider.isValid()) {
@@ -79,14 +86,14 @@ public class MCATDataSlot {
         return (T) data;
     }
 
-    public void setData(MCATData data) {
+    public synchronized void setData(MCATData data) {
         this.data = data;
     }
 
     /**
      * Sets the data to the result of getCurrentProvider().get()
      */
-    public void resetFromCurrentProvider() {
+    public synchronized void resetFromCurrentProvider() {
         this.data = getCurrentProvider().get();
     }
 
@@ -109,7 +116,7 @@ public class MCATDataSlot {
         this.dataProvider = dataProvider;
     }
 
-    public boolean hasData() {
+    public synchronized boolean hasData() {
         return data != null;
     }
 
@@ -129,11 +136,145 @@ public class MCATDataSlot {
      * Stores the data to the storageFilePath
      */
     public void flush() {
+        MCATData currentData;
+        synchronized (this) {
+            currentData = data;
+        }
+        flush(currentData, fileName);
+    }
+
+    /**
+     * Stores the provided data to the storageFilePath instead of the data stored within this slot.
+     * Used by algorithms that share this slot with other algorithms running at the same time.
+     *
+     * If a {@link MCATWriteBehindQueue} is set, the data is written in the background and must not be modified anymore.
+     *
+     * @param data     the data
+     * @param fileName the file name within the storageFilePath
+     */
+    public void flush(MCATData data, Path fileName) {
         if(storageFilePath == null || fileName == null) {
             System.err.println("Skipping to flush() data slot " + name + " containing " + acceptedDataType + ": No storage location or file name defined!");
             return;
         }
-        data.saveTo(storageFilePath, getFileName());
+        if (writeBehindQueue != null) {
+            MCATAlgorithmMetrics metrics = MCATAlgorithmMetrics.getCurrent();
+            // Submit outside of the lock, as the queue might block until other writes are finished
+            CompletableFuture<Void> write = writeBehindQueue.submit(data, storageFilePath, fileName, () -> {
+                if (metrics != null)
+                    metrics.addWrittenBytes(getWrittenBytes(fileName));
+            });
+            synchronized (this) {
+                pendingWrite = CompletableFuture.allOf(pendingWrite, write);
+            }
+        } else {
+            synchronized (this) {
+                data.saveTo(storageFilePath, fileName);
+            }
+            MCATAlgorithmMetrics.recordWrittenBytes(getWrittenBytes(fileName));
+        }
+    }
+
+    /**
+     * Returns a future that completes when all data passed to flush() was written
+     *
+     * @return the future. Completes exceptionally if writing failed.
+     */
+    public synchronized CompletableFuture<Void> getPendingWrite() {
+        return pendingWrite;
+    }
+
+    public MCATWriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Sets the queue used by flush() to write data in the background.
+     * Set to null to write the data directly.
+     *
+     * @param writeBehindQueue the queue
+     */
+    public void setWriteBehindQueue(MCATWriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    /**
+     * Returns the size of the file written by flush().
+     * Some data types write multiple files that start with the file name. Their sizes are summed up.
+     */
+    private long getWrittenBytes(Path fileName) {
+        Path file = storageFilePath.resolve(fileName);
+        try {
+            if (Files.isRegularFile(file))
+                return Files.size(file);
+            if (!Files.isDirectory(file.getParent()))
+                return 0;
+            String prefix = file.getFileName().toString();
+            long result = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent(), path -> path.getFileName().toString().startsWith(prefix))) {
+                for (Path path : stream) {
+                    if (Files.isRegularFile(path))
+                        result += Files.size(path);
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns true if the data written by flush() can be loaded again
+     *
+     * @return if there is a storage location and a file-based {@link MCATDataProvider} for the accepted data type
+     */
+    public boolean isLoadableFromStorage() {
+        return storageFilePath != null && fileName != null && getStorageProviderClass() != null;
+    }
+
+    /**
+     * Replaces the data by a provider that loads the file written by flush() when the data is requested again
+     */
+    public synchronized void loadFromStorage() {
+        Class<? extends FileDataProvider> providerClass = getStorageProviderClass();
+        if (providerClass == null || storageFilePath == null || fileName == null)
+            throw new RuntimeException("Data slot " + name + " containing " + acceptedDataType + " cannot be loaded from storage!");
+        try {
+            FileDataProvider provider = providerClass.newInstance();
+            provider.setFilePath(storageFilePath.resolve(fileName));
+            dataProvider = provider;
+            data = null;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Drops the data held in memory if it was already written by flush().
+     * The data is loaded again from the file if it is requested.
+     * If the data is still being written, it is released after writing has finished.
+     *
+     * @return if the data was released
+     */
+    public synchronized boolean release() {
+        if (data == null || !isLoadableFromStorage())
+            return false;
+        if (!pendingWrite.isDone()) {
+            pendingWrite.thenRun(this::release);
+            return false;
+        }
+        if (pendingWrite.isCompletedExceptionally() || !Files.isRegularFile(storageFilePath.resolve(fileName)))
+            return false;
+        loadFromStorage();
+        return true;
+    }
+
+    private Class<? extends FileDataProvider> getStorageProviderClass() {
+        return MCATDataTypeRegistry.getInstance().getProvidersFor(acceptedDataType).stream()
+                .filter(FileDataProvider.class::isAssignableFrom)
+                .min(Comparator.comparing(Class::getName))
+                .map(klass -> (Class<? extends FileDataProvider>) klass)
+                .orElse(null);
     }
 
     public String getName() {
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+/**
+ * Contains the available distances between time series and cluster centers of the built-in k-means engines
+ */
+public enum MCATDistanceMeasure {
+    Euclidean,
+    Cosine,
+    Correlation,
+    DTW;
+
+
+    @Override
+    public String toString() {
+        switch (this) {
+            case Euclidean:
+                return "Euclidean";
+            case Cosine:
+                return "Cosine (1 - cosine similarity)";
+            case Correlation:
+                return "Correlation (1 - Pearson correlation)";
+            case DTW:
+                return "Dynamic time warping";
+            default:
+                throw new RuntimeException();
+        }
+    }
+}
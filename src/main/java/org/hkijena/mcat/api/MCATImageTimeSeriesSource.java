@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Time series of all pixels of multiple data sets that are read directly from the slices of the images.
+ * Unlike {@link MCATTimeSeriesMatrix}, the values are not copied, so no additional memory is needed for 32-bit images.
+ * Other images are converted slice by slice to 32-bit.
+ * Reading a row touches one value per slice, so this is slower than the packed matrix if all rows are read repeatedly.
+ */
+public class MCATImageTimeSeriesSource implements MCATTimeSeriesSource {
+
+    private final int columnCount;
+    private final int rowCount;
+    private final List<String> dataSetNames;
+    private final Map<String, Integer> dataSetIndices = new HashMap<>();
+    private final int[] firstRows;
+    private final int[] widths;
+    private final int[] heights;
+    private final float[][][] slices;
+
+    /**
+     * @param images      the images per data set. The data sets are stored in the iteration order of the map.
+     * @param columnCount the number of slices that are read
+     */
+    public MCATImageTimeSeriesSource(Map<String, ImagePlus> images, int columnCount) {
+        this.columnCount = columnCount;
+        this.dataSetNames = Collections.unmodifiableList(new ArrayList<>(images.keySet()));
+        this.firstRows = new int[images.size()];
+        this.widths = new int[images.size()];
+        this.heights = new int[images.size()];
+        this.slices = new float[images.size()][columnCount][];
+        long rows = 0;
+        int index = 0;
+        for (Map.Entry<String, ImagePlus> entry : images.entrySet()) {
+            ImagePlus image = entry.getValue();
+            ImageStack stack = image.getStack();
+            if (stack.getSize() < columnCount)
+                throw new IllegalArgumentException("Image of " + entry.getKey() + " has less than " + columnCount + " slices!");
+            dataSetIndices.put(entry.getKey(), index);
+            firstRows[index] = (int) rows;
+            widths[index] = image.getWidth();
+            heights[index] = image.getHeight();
+            for (int column = 0; column < columnCount; column++) {
+                Object pixels = stack.getPixels(column + 1);
+                if (pixels instanceof float[]) {
+                    slices[index][column] = (float[]) pixels;
+                } else {
+                    ImageProcessor processor = stack.getProcessor(column + 1);
+                    float[] converted = new float[widths[index] * heights[index]];
+                    for (int i = 0; i < converted.length; i++) {
+                        converted[i] = processor.getf(i);
+                    }
+                    slices[index][column] = converted;
+                }
+            }
+            rows += (long) widths[index] * heights[index];
+            if (rows > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many time series: " + rows);
+            ++index;
+        }
+        this.rowCount = (int) rows;
+    }
+
+    /**
+     * Returns the index of the data set that contains a row
+     */
+    private int getDataSetIndex(int row) {
+        int index = Arrays.binarySearch(firstRows, row);
+        if (index < 0)
+            return -index - 2;
+        // Skip empty data sets that start at the same row
+        while (index + 1 < firstRows.length && firstRows[index + 1] == row) {
+            ++index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the pixel of a row within the slices of its data set
+     */
+    private int getPixelIndex(int dataSet, int row) {
+        int local = row - firstRows[dataSet];
+        int height = heights[dataSet];
+        return (local % height) * widths[dataSet] + local / height;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public void copyRow(int row, double[] target) {
+        int dataSet = getDataSetIndex(row);
+        int pixel = getPixelIndex(dataSet, row);
+        float[][] dataSetSlices = slices[dataSet];
+        for (int column = 0; column < columnCount; column++) {
+            target[column] = dataSetSlices[column][pixel];
+        }
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] point) {
+        int dataSet = getDataSetIndex(row);
+        int pixel = getPixelIndex(dataSet, row);
+        float[][] dataSetSlices = slices[dataSet];
+        double sum = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double difference = dataSetSlices[column][pixel] - point[column];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public void addRow(int row, double[] target, int offset) {
+        int dataSet = getDataSetIndex(row);
+        int pixel = getPixelIndex(dataSet, row);
+        float[][] dataSetSlices = slices[dataSet];
+        for (int column = 0; column < columnCount; column++) {
+            target[offset + column] += dataSetSlices[column][pixel];
+        }
+    }
+
+    @Override
+    public List<String> getDataSetNames() {
+        return dataSetNames;
+    }
+
+    @Override
+    public int getFirstRow(String dataSetName) {
+        return firstRows[dataSetIndices.get(dataSetName)];
+    }
+
+    @Override
+    public int getWidth(String dataSetName) {
+        return widths[dataSetIndices.get(dataSetName)];
+    }
+
+    @Override
+    public int getHeight(String dataSetName) {
+        return heights[dataSetIndices.get(dataSetName)];
+    }
+}
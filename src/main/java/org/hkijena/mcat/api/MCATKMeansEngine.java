@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+/**
+ * Contains the available implementations of k-means clustering
+ */
+public enum MCATKMeansEngine {
+    CommonsMath,
+    Lloyd,
+    Hamerly,
+    MiniBatch;
+
+
+    @Override
+    public String toString() {
+        switch (this) {
+            case CommonsMath:
+                return "Apache Commons Math";
+            case Lloyd:
+                return "Lloyd (built-in)";
+            case Hamerly:
+                return "Lloyd with triangle inequality (built-in)";
+            case MiniBatch:
+                return "Mini-batch (built-in)";
+            default:
+                throw new RuntimeException();
+        }
+    }
+}
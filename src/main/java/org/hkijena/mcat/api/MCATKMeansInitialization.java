@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+/**
+ * Contains the available methods for choosing the initial cluster centers of the built-in k-means engines
+ */
+public enum MCATKMeansInitialization {
+    KMeansPlusPlus,
+    KMeansParallel;
+
+
+    @Override
+    public String toString() {
+        switch (this) {
+            case KMeansPlusPlus:
+                return "k-means++";
+            case KMeansParallel:
+                return "k-means|| (parallel)";
+            default:
+                throw new RuntimeException();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Time series of all pixels of multiple data sets that are read from memory-mapped files.
+ * The values stay on disk and are paged in by the operating system, so they do not occupy heap memory.
+ * <p>
+ * Each file contains one data set. It starts with a header of four little-endian 32-bit integers
+ * (magic number, width, height, number of time points), followed by one row per pixel in the order
+ * x * height + y. Each row contains the time points as little-endian 32-bit floats.
+ * Files are mapped in chunks of whole rows, as a single mapping cannot exceed 2 GB.
+ */
+public class MCATMappedTimeSeriesMatrix implements MCATTimeSeriesSource {
+
+    /**
+     * "MCTS" in ASCII
+     */
+    public static final int MAGIC_NUMBER = 0x4D435453;
+    public static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    /**
+     * Size of the buffer used for writing
+     */
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private final int columnCount;
+    private final int rowCount;
+    private final List<String> dataSetNames;
+    private final Map<String, Integer> dataSetIndices = new HashMap<>();
+    private final int[] firstRows;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] fileColumnCounts;
+    private final int[] chunkRowCounts;
+    private final FloatBuffer[][] chunks;
+
+    /**
+     * Maps the files of multiple data sets
+     *
+     * @param files       the file per data set. The data sets are stored in the iteration order of the map.
+     * @param columnCount the number of time points that are read from each row
+     */
+    public MCATMappedTimeSeriesMatrix(Map<String, Path> files, int columnCount) {
+        this.columnCount = columnCount;
+        this.dataSetNames = Collections.unmodifiableList(new ArrayList<>(files.keySet()));
+        this.firstRows = new int[files.size()];
+        this.widths = new int[files.size()];
+        this.heights = new int[files.size()];
+        this.fileColumnCounts = new int[files.size()];
+        this.chunkRowCounts = new int[files.size()];
+        this.chunks = new FloatBuffer[files.size()][];
+        long rows = 0;
+        int index = 0;
+        for (Map.Entry<String, Path> entry : files.entrySet()) {
+            dataSetIndices.put(entry.getKey(), index);
+            firstRows[index] = (int) rows;
+            map(index, entry.getKey(), entry.getValue());
+            rows += (long) widths[index] * heights[index];
+            if (rows > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many time series: " + rows);
+            ++index;
+        }
+        this.rowCount = (int) rows;
+    }
+
+    private void map(int index, String dataSetName, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0)
+                    throw new IOException("Unexpected end of file");
+            }
+            header.flip();
+            if (header.getInt() != MAGIC_NUMBER)
+                throw new IOException("Not a time series matrix");
+            int width = header.getInt();
+            int height = header.getInt();
+            int fileColumnCount = header.getInt();
+            if (fileColumnCount < columnCount)
+                throw new IllegalArgumentException("Time series matrix of " + dataSetName + " has less than " + columnCount + " time points!");
+            long fileRowCount = (long) width * height;
+            long rowBytes = (long) fileColumnCount * Float.BYTES;
+            if (channel.size() < HEADER_BYTES + fileRowCount * rowBytes)
+                throw new IOException("File is truncated");
+
+            int chunkRowCount = (int) Math.max(1, Math.min(fileRowCount, Integer.MAX_VALUE / rowBytes));
+            int chunkCount = (int) ((fileRowCount + chunkRowCount - 1) / chunkRowCount);
+            FloatBuffer[] fileChunks = new FloatBuffer[chunkCount];
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                long firstRow = (long) chunk * chunkRowCount;
+                long chunkRows = Math.min(chunkRowCount, fileRowCount - firstRow);
+                fileChunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + firstRow * rowBytes, chunkRows * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+
+            widths[index] = width;
+            heights[index] = height;
+            fileColumnCounts[index] = fileColumnCount;
+            chunkRowCounts[index] = chunkRowCount;
+            chunks[index] = fileChunks;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to map time series matrix " + file + " of " + dataSetName, e);
+        }
+    }
+
+    /**
+     * Writes the time series of all pixels of an image into a file that can be mapped by this class
+     *
+     * @param file  the file
+     * @param image the image. Each slice is one time point.
+     */
+    public static void write(Path file, ImagePlus image) {
+        ImageStack stack = image.getStack();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columnCount = stack.getSize();
+        float[][] slices = new float[columnCount][];
+        for (int column = 0; column < columnCount; column++) {
+            Object pixels = stack.getPixels(column + 1);
+            if (pixels instanceof float[]) {
+                slices[column] = (float[]) pixels;
+            } else {
+                ImageProcessor processor = stack.getProcessor(column + 1);
+                slices[column] = new float[width * height];
+                for (int i = 0; i < slices[column].length; i++) {
+                    slices[column][i] = processor.getf(i);
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_BYTES, HEADER_BYTES + columnCount * Float.BYTES))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC_NUMBER).putInt(width).putInt(height).putInt(columnCount);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    if (buffer.remaining() < columnCount * Float.BYTES)
+                        writeFully(channel, buffer);
+                    int pixel = y * width + x;
+                    for (int column = 0; column < columnCount; column++) {
+                        buffer.putFloat(slices[column][pixel]);
+                    }
+                }
+            }
+            writeFully(channel, buffer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the index of the data set that contains a row
+     */
+    private int getDataSetIndex(int row) {
+        int index = Arrays.binarySearch(firstRows, row);
+        if (index < 0)
+            return -index - 2;
+        // Skip empty data sets that start at the same row
+        while (index + 1 < firstRows.length && firstRows[index + 1] == row) {
+            ++index;
+        }
+        return index;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public void copyRow(int row, double[] target) {
+        int dataSet = getDataSetIndex(row);
+        int local = row - firstRows[dataSet];
+        FloatBuffer chunk = chunks[dataSet][local / chunkRowCounts[dataSet]];
+        int offset = (local % chunkRowCounts[dataSet]) * fileColumnCounts[dataSet];
+        for (int column = 0; column < columnCount; column++) {
+            target[column] = chunk.get(offset + column);
+        }
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] point) {
+        int dataSet = getDataSetIndex(row);
+        int local = row - firstRows[dataSet];
+        FloatBuffer chunk = chunks[dataSet][local / chunkRowCounts[dataSet]];
+        int offset = (local % chunkRowCounts[dataSet]) * fileColumnCounts[dataSet];
+        double sum = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double difference = chunk.get(offset + column) - point[column];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public void addRow(int row, double[] target, int offset) {
+        int dataSet = getDataSetIndex(row);
+        int local = row - firstRows[dataSet];
+        FloatBuffer chunk = chunks[dataSet][local / chunkRowCounts[dataSet]];
+        int rowOffset = (local % chunkRowCounts[dataSet]) * fileColumnCounts[dataSet];
+        for (int column = 0; column < columnCount; column++) {
+            target[offset + column] += chunk.get(rowOffset + column);
+        }
+    }
+
+    @Override
+    public List<String> getDataSetNames() {
+        return dataSetNames;
+    }
+
+    @Override
+    public int getFirstRow(String dataSetName) {
+        return firstRows[dataSetIndices.get(dataSetName)];
+    }
+
+    @Override
+    public int getWidth(String dataSetName) {
+        return widths[dataSetIndices.get(dataSetName)];
+    }
+
+    @Override
+    public int getHeight(String dataSetName) {
+        return heights[dataSetIndices.get(dataSetName)];
+    }
+}
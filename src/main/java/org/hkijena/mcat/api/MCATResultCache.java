@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.hkijena.mcat.extension.dataproviders.api.FileDataProvider;
+import org.hkijena.mcat.utils.JsonUtils;
+import org.jgrapht.Graphs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Remembers which results of an {@link MCATRun} are already stored in its output folder.
+ * Each algorithm is identified by a fingerprint that is calculated from its name, its parameters, the size and
+ * modification time of the input files it depends on and the fingerprints of its predecessors.
+ * The input files are not read, so fingerprints are cheap to calculate for every run.
+ * After an algorithm has finished, a manifest named after the fingerprint is written into the cache folder.
+ * It lists the written files and the state that is needed to continue with the following algorithms.
+ * An algorithm can be restored if its manifest exists and all listed files are still present with the same size.
+ * Only algorithms whose outputs can be loaded from their files are cached, which are the preprocessing and
+ * clustering algorithms.
+ */
+public class MCATResultCache {
+
+    /**
+     * Increase if the fingerprint or the stored results change
+     */
+    public static final int FORMAT_VERSION = 3;
+
+    private final Path outputPath;
+    private final Path cachePath;
+    private final MCATAlgorithmGraph graph;
+    private final Map<MCATAlgorithm, MCATDataInterfaceKey> algorithmKeys;
+    private final Map<String, MCATDataInterface> inputDataInterfaces;
+    private final Map<MCATAlgorithm, String> fingerprints = new HashMap<>();
+    private final List<CompletableFuture<Void>> pendingManifests = new ArrayList<>();
+
+    /**
+     * @param outputPath          the output folder of the run
+     * @param graph               the algorithm graph
+     * @param algorithmKeys       the key of the data interface written by each algorithm
+     * @param inputDataInterfaces the input data interface of each data set
+     */
+    public MCATResultCache(Path outputPath, MCATAlgorithmGraph graph, Map<MCATAlgorithm, MCATDataInterfaceKey> algorithmKeys,
+                           Map<String, MCATDataInterface> inputDataInterfaces) {
+        this.outputPath = outputPath;
+        this.cachePath = outputPath.resolve("cache");
+        this.graph = graph;
+        this.algorithmKeys = algorithmKeys;
+        this.inputDataInterfaces = inputDataInterfaces;
+    }
+
+    /**
+     * Calculates the fingerprints of all cacheable algorithms.
+     * Must be called before the algorithms are run.
+     */
+    public void calculateFingerprints() {
+        for (MCATAlgorithm algorithm : graph.traverse()) {
+            String fingerprint = calculateFingerprint(algorithm);
+            if (fingerprint != null)
+                fingerprints.put(algorithm, fingerprint);
+        }
+    }
+
+    private String calculateFingerprint(MCATAlgorithm algorithm) {
+        MCATDataInterfaceKey key = algorithmKeys.get(algorithm);
+        if (key == null || algorithm.getOutputSlots().isEmpty())
+            return null;
+        for (MCATDataSlot slot : algorithm.getOutputSlots()) {
+            if (!slot.isLoadableFromStorage())
+                return null;
+        }
+
+        List<String> entries = new ArrayList<>();
+        entries.add("version=" + FORMAT_VERSION);
+        entries.add("algorithm=" + algorithm.getName());
+        entries.add("key=" + key.toCanonicalString());
+        algorithm.addFingerprintEntries(entries);
+
+        List<String> inputs = new ArrayList<>();
+        for (String dataSetName : key.getDataSetNames()) {
+            MCATDataInterface dataInterface = inputDataInterfaces.get(dataSetName);
+            if (dataInterface == null)
+                return null;
+            for (Map.Entry<String, MCATDataSlot> entry : dataInterface.getSlots().entrySet()) {
+                MCATDataProvider provider = entry.getValue().getCurrentProvider();
+                if (provider == null) {
+                    inputs.add(dataSetName + "/" + entry.getKey() + "=none");
+                } else if (provider instanceof FileDataProvider && ((FileDataProvider) provider).getFilePath() != null) {
+                    inputs.add(dataSetName + "/" + entry.getKey() + "=" + getFileVersion(((FileDataProvider) provider).getFilePath()));
+                } else {
+                    return null;
+                }
+            }
+        }
+        Collections.sort(inputs);
+        entries.addAll(inputs);
+
+        List<String> predecessors = new ArrayList<>();
+        for (MCATAlgorithm predecessor : Graphs.predecessorListOf(graph.getGraph(), algorithm)) {
+            String fingerprint = fingerprints.get(predecessor);
+            if (fingerprint == null)
+                return null;
+            predecessors.add(fingerprint);
+        }
+        Collections.sort(predecessors);
+        entries.addAll(predecessors);
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String entry : entries) {
+            hasher.putUnencodedChars(entry).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Identifies the version of an input file by its size and modification time
+     */
+    private static String getFileVersion(Path file) {
+        try {
+            return Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of an algorithm
+     *
+     * @param algorithm the algorithm
+     * @return the fingerprint or null if the algorithm is not cached
+     */
+    public String getFingerprint(MCATAlgorithm algorithm) {
+        return fingerprints.get(algorithm);
+    }
+
+    /**
+     * Restores the results of an algorithm from its manifest.
+     * The output slots are set up to load their data from the stored files when it is requested.
+     *
+     * @param algorithm the algorithm
+     * @return if the results were restored. If false, nothing was changed.
+     */
+    public boolean restore(MCATAlgorithm algorithm) {
+        String fingerprint = fingerprints.get(algorithm);
+        if (fingerprint == null)
+            return false;
+        Path manifestFile = cachePath.resolve(fingerprint + ".json");
+        if (!Files.isRegularFile(manifestFile))
+            return false;
+        try {
+            JsonNode manifest = JsonUtils.getObjectMapper().readTree(manifestFile.toFile());
+            if (!fingerprint.equals(manifest.path("fingerprint").asText()))
+                return false;
+            for (Iterator<Map.Entry<String, JsonNode>> it = manifest.path("files").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> entry = it.next();
+                Path file = outputPath.resolve(entry.getKey());
+                if (!Files.isRegularFile(file) || Files.size(file) != entry.getValue().asLong())
+                    return false;
+            }
+            for (MCATDataSlot slot : algorithm.getOutputSlots()) {
+                slot.loadFromStorage();
+            }
+            algorithm.loadResultState(manifest.path("state"));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not read cached results from " + manifestFile + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the manifest of a finished algorithm.
+     * If its outputs are still being written in the background, the manifest is written after they were
+     * written successfully.
+     * Does nothing if the algorithm is not cached.
+     *
+     * @param algorithm the algorithm
+     */
+    public void store(MCATAlgorithm algorithm) {
+        String fingerprint = fingerprints.get(algorithm);
+        if (fingerprint == null)
+            return;
+        ObjectNode manifest = JsonUtils.getObjectMapper().createObjectNode();
+        manifest.put("fingerprint", fingerprint);
+        manifest.put("algorithm", algorithm.getName());
+        manifest.put("key", algorithmKeys.get(algorithm).toCanonicalString());
+        ObjectNode files = manifest.putObject("files");
+        algorithm.saveResultState(manifest.putObject("state"));
+
+        List<MCATDataSlot> slots = algorithm.getOutputSlots();
+        CompletableFuture<Void> pendingWrites = CompletableFuture.allOf(slots.stream()
+                .map(MCATDataSlot::getPendingWrite).toArray(CompletableFuture[]::new));
+        CompletableFuture<Void> future = pendingWrites.thenRun(() -> {
+            try {
+                for (MCATDataSlot slot : slots) {
+                    Path file = slot.getStorageFilePath().resolve(slot.getFileName());
+                    String relativePath = outputPath.relativize(file).toString().replace('\\', '/');
+                    files.put(relativePath, Files.size(file));
+                }
+            } catch (IOException e) {
+                System.err.println("Not caching results of " + algorithm.getName() + ": " + e.getMessage());
+                return;
+            }
+            writeJson(cachePath.resolve(fingerprint + ".json"), manifest);
+        });
+        synchronized (pendingManifests) {
+            pendingManifests.add(future);
+        }
+    }
+
+    /**
+     * Waits until all manifests were written.
+     * Manifests of algorithms whose outputs could not be written are skipped.
+     */
+    public void awaitManifests() {
+        List<CompletableFuture<Void>> futures;
+        synchronized (pendingManifests) {
+            futures = new ArrayList<>(pendingManifests);
+            pendingManifests.clear();
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                // Failed writes are reported by the write-behind queue
+            }
+        }
+    }
+
+    private static void writeJson(Path file, JsonNode node) {
+        try {
+            Files.createDirectories(file.getParent());
+            JsonUtils.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), node);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Path getOutputPath() {
+        return outputPath;
+    }
+}
@@ -28,6 +28,7 @@ import java.util.stream.Collectors;
 
 import org.hkijena.mcat.api.algorithms.MCATClusteredPlotGenerationAlgorithm;
 import org.hkijena.mcat.api.algorithms.MCATClusteringAlgorithm;
+import org.hkijena.mcat.api.algorithms.MCATKSelectionAlgorithm;
 import org.hkijena.mcat.api.algorithms.MCATPostprocessedPlotGenerationAlgorithm;
 import org.hkijena.mcat.api.algorithms.MCATPostprocessingAlgorithm;
 import org.hkijena.mcat.api.algorithms.MCATPreprocessingAlgorithm;
@@ -37,6 +38,7 @@ import org.hkijena.mcat.api.datainterfaces.MCATClusteringInput;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringInputDataSetEntry;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringOutput;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringOutputDataSetEntry;
+import org.hkijena.mcat.api.datainterfaces.MCATKSelectionOutput;
 import org.hkijena.mcat.api.datainterfaces.MCATPostprocessedPlotGenerationOutput;
 import org.hkijena.mcat.api.datainterfaces.MCATPostprocessingOutput;
 import org.hkijena.mcat.api.datainterfaces.MCATPreprocessingInput;
@@ -51,9 +53,11 @@ import org.hkijena.mcat.api.parameters.MCATPreprocessingParameters;
 import org.hkijena.mcat.utils.JsonUtils;
 import org.hkijena.mcat.utils.StringUtils;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.eventbus.Subscribe;
+import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.io.DOTExporter;
 import org.jgrapht.io.ExportException;
@@ -61,6 +65,18 @@ import org.jgrapht.io.IntegerComponentNameProvider;
 import org.jgrapht.io.StringComponentNameProvider;
 
 public class MCATRun implements MCATValidatable {
+
+    /**
+     * Fraction of the maximum heap that running algorithms may reserve by default.
+     * The rest is left for data that is kept between algorithms.
+     */
+    public static final double DEFAULT_MEMORY_BUDGET_FRACTION = 0.75;
+
+    /**
+     * Number of threads that write results if the write-behind buffer is enabled
+     */
+    public static final int WRITE_BEHIND_THREAD_COUNT = 2;
+
     private MCATProject project;
     private MCATAlgorithmGraph graph;
 
@@ -68,9 +84,16 @@ public class MCATRun implements MCATValidatable {
     private BiMap<MCATDataInterfaceKey, MCATDataInterface> uniqueDataInterfaces = HashBiMap.create();
     private BiMap<MCATDataInterfaceKey, MCATPreprocessingAlgorithm> preprocessingAlgorithmMap = HashBiMap.create();
     private BiMap<MCATDataInterfaceKey, MCATClusteringAlgorithm> clusteringAlgorithmMap = HashBiMap.create();
+    private BiMap<MCATDataInterfaceKey, MCATKSelectionAlgorithm> kSelectionAlgorithmMap = HashBiMap.create();
     private Set<MCATDataInterfaceKey> savedDataInterfaces = new HashSet<>();
     private boolean isReady = false;
     private Path outputPath;
+    private int threadCount = 1;
+    private long memoryBudget = (long) (Runtime.getRuntime().maxMemory() * DEFAULT_MEMORY_BUDGET_FRACTION);
+    private boolean resume = false;
+    private long writeBehindBufferSize = 0;
+    private long seed = 0;
+    private MCATWriteBehindQueue writeBehindQueue;
 
     public MCATRun(MCATProject project) {
         this.project = project;
@@ -88,13 +111,17 @@ public class MCATRun implements MCATValidatable {
         }
 
         // Iterate through unique preprocessing parameters
-        Set<MCATPreprocessingParameters> uniquePreprocessingParameters =
-                parametersTable.getRows().stream().map(MCATParametersTableRow::getPreprocessingParameters).collect(Collectors.toSet());
+        // Rows that only differ in the additional files they save share the same preprocessing
+        Set<MCATPreprocessingParameters> uniquePreprocessingParameters = parametersTable.getRows().stream()
+                .map(row -> row.getPreprocessingParameters().toComputeParameters()).collect(Collectors.toSet());
         for (MCATPreprocessingParameters preprocessingParameters : uniquePreprocessingParameters) {
             System.out.println("Visiting preprocessing parameters: " + preprocessingParameters.toShortenedString());
             initializePreprocessing(preprocessingParameters);
             System.out.println("Finished visiting preprocessing parameters: " + preprocessingParameters.toShortenedString());
         }
+        connectWarmStartedClustering();
+        enableTimeSeriesMatrices();
+        requestPreprocessingInputOutputs();
 
         // Install some functionality to lock the parameters (which completely ruins some assumptions)
         for (MCATParametersTableRow row : parametersTable.getRows()) {
@@ -154,7 +181,7 @@ public class MCATRun implements MCATValidatable {
         // Find all unique clustering parameters with prepending preprocessing
         Set<MCATClusteringParameters> uniqueClusteringParameters = new HashSet<>();
         for (MCATParametersTableRow row : parametersTable.getRows()) {
-            if (row.getPreprocessingParameters().equals(preprocessingParameters)) {
+            if (row.getPreprocessingParameters().toComputeParameters().equals(preprocessingParameters)) {
                 uniqueClusteringParameters.add(row.getClusteringParameters());
             }
         }
@@ -268,7 +295,7 @@ public class MCATRun implements MCATValidatable {
         // Find all unique postprocessing parameters with prepending preprocessing
         Set<MCATPostprocessingParameters> uniquePostProcessingParameters = new HashSet<>();
         for (MCATParametersTableRow row : parametersTable.getRows()) {
-            if (row.getPreprocessingParameters().equals(preprocessingParameters) &&
+            if (row.getPreprocessingParameters().toComputeParameters().equals(preprocessingParameters) &&
                     row.getClusteringParameters().equals(clusteringParameters)) {
                 uniquePostProcessingParameters.add(row.getPostprocessingParameters());
             }
@@ -329,6 +356,16 @@ public class MCATRun implements MCATValidatable {
                 graph.connect(preprocessingAlgorithm, clusteringAlgorithm);
             }
 
+            if (clusteringParameters.getkSelectionMaxK() > 0) {
+                MCATKSelectionAlgorithm kSelectionAlgorithm = getOrCreateKSelectionAlgorithm(clusteringInputInterfaceKey,
+                        preprocessingParameters,
+                        clusteringParameters,
+                        clusteringInputInterface);
+                for (MCATPreprocessingAlgorithm preprocessingAlgorithm : preprocessingAlgorithmList) {
+                    graph.connect(preprocessingAlgorithm, kSelectionAlgorithm);
+                }
+            }
+
             // Postprocessing
             MCATPostprocessingOutput postprocessingDataInterface = new MCATPostprocessingOutput(clusteringInputInterface.getGroupSubject(), clusteringInputInterface.getGroupTreatment());
             MCATDataInterfaceKey postprocessingDataInterfaceKey = new MCATDataInterfaceKey("postprocessing-output");
@@ -380,6 +417,101 @@ public class MCATRun implements MCATValidatable {
         return existing;
     }
 
+    /**
+     * Returns the k selection of a clustering input. Clusterings that only differ in k share the same k selection.
+     */
+    private MCATKSelectionAlgorithm getOrCreateKSelectionAlgorithm(MCATDataInterfaceKey clusteringInputInterfaceKey, MCATPreprocessingParameters preprocessingParameters, MCATClusteringParameters clusteringParameters, MCATClusteringInput clusteringInputInterface) {
+        MCATClusteringParameters kSelectionParameters = new MCATClusteringParameters(clusteringParameters);
+        kSelectionParameters.setkMeansK(clusteringParameters.getkSelectionMinK());
+        kSelectionParameters.setkMeansWarmStartRestarts(0);
+
+        MCATDataInterfaceKey key = new MCATDataInterfaceKey("k-selection-output");
+        key.addDataSets(clusteringInputInterfaceKey.getDataSetNames());
+        key.addParameter(preprocessingParameters);
+        key.addParameter(kSelectionParameters);
+        MCATKSelectionAlgorithm existing = kSelectionAlgorithmMap.getOrDefault(key, null);
+        if(existing == null) {
+            System.out.println("New k selection algorithm @ " + key + " input=" + preprocessingParameters.toShortenedString() + "_" + kSelectionParameters.toShortenedString());
+            MCATKSelectionOutput kSelectionOutput = (MCATKSelectionOutput) getOrCreateDataInterface(key,
+                    new MCATKSelectionOutput(clusteringInputInterface.getGroupSubject(), clusteringInputInterface.getGroupTreatment()));
+            savedDataInterfaces.add(key);
+            existing = new MCATKSelectionAlgorithm(this,
+                    preprocessingParameters,
+                    kSelectionParameters,
+                    clusteringInputInterface,
+                    kSelectionOutput);
+            kSelectionAlgorithmMap.put(key, existing);
+            graph.insertNode(existing);
+        }
+        return existing;
+    }
+
+    /**
+     * Lets each clustering with warm start depend on the clustering of the same data with the next smaller k and
+     * otherwise equal parameters, so the steps of a sweep over k are run in increasing order and each step can start
+     * from the cluster centers of the previous one
+     */
+    private void connectWarmStartedClustering() {
+        for (MCATClusteringAlgorithm algorithm : clusteringAlgorithmMap.values()) {
+            MCATClusteringParameters clusteringParameters = algorithm.getClusteringParameters();
+            if (clusteringParameters.getkMeansWarmStartRestarts() <= 0)
+                continue;
+            MCATClusteringAlgorithm predecessor = null;
+            for (MCATClusteringAlgorithm candidate : clusteringAlgorithmMap.values()) {
+                if (candidate.getClusteringInput() != algorithm.getClusteringInput() ||
+                        !candidate.getPreprocessingParameters().equals(algorithm.getPreprocessingParameters()))
+                    continue;
+                int candidateK = candidate.getClusteringParameters().getkMeansK();
+                if (candidateK >= clusteringParameters.getkMeansK() ||
+                        (predecessor != null && candidateK <= predecessor.getClusteringParameters().getkMeansK()))
+                    continue;
+                MCATClusteringParameters withSameK = new MCATClusteringParameters(candidate.getClusteringParameters());
+                withSameK.setkMeansK(clusteringParameters.getkMeansK());
+                if (withSameK.equals(clusteringParameters))
+                    predecessor = candidate;
+            }
+            if (predecessor != null) {
+                graph.connect(predecessor, algorithm);
+                algorithm.setWarmStartPredecessor(predecessor);
+            }
+        }
+    }
+
+    /**
+     * Lets a preprocessing write the time series matrix only if a following clustering or k selection reads it
+     * for out-of-core clustering
+     */
+    private void enableTimeSeriesMatrices() {
+        for (MCATPreprocessingAlgorithm algorithm : preprocessingAlgorithmMap.values()) {
+            for (MCATAlgorithm successor : Graphs.successorListOf(graph.getGraph(), algorithm)) {
+                if ((successor instanceof MCATClusteringAlgorithm && ((MCATClusteringAlgorithm) successor).getClusteringParameters().isOutOfCore()) ||
+                        (successor instanceof MCATKSelectionAlgorithm && ((MCATKSelectionAlgorithm) successor).getClusteringParameters().isOutOfCore()))
+                    algorithm.setSaveTimeSeriesMatrix(true);
+            }
+        }
+    }
+
+    /**
+     * The raw image and the ROI are saved by the preprocessing algorithms if any row with the same
+     * preprocessing requests them. The rows themselves are not changed.
+     */
+    private void requestPreprocessingInputOutputs() {
+        for (MCATParametersTableRow row : parametersTable.getRows()) {
+            MCATPreprocessingParameters preprocessingParameters = row.getPreprocessingParameters();
+            if (!preprocessingParameters.isSaveRawImage() && !preprocessingParameters.isSaveRoi())
+                continue;
+            MCATPreprocessingParameters computeParameters = preprocessingParameters.toComputeParameters();
+            for (MCATPreprocessingAlgorithm algorithm : preprocessingAlgorithmMap.values()) {
+                if (!algorithm.getPreprocessingParameters().equals(computeParameters))
+                    continue;
+                if (preprocessingParameters.isSaveRawImage())
+                    algorithm.setSaveRawImage(true);
+                if (preprocessingParameters.isSaveRoi())
+                    algorithm.setSaveRoi(true);
+            }
+        }
+    }
+
     private void initializeClusteredPlotGeneration(MCATPreprocessingParameters preprocessingParameters,
                                                    MCATClusteringParameters clusteringParameters,
                                                    List<MCATClusteringAlgorithm> allClusteringAlgorithms) {
@@ -455,6 +587,95 @@ public class MCATRun implements MCATValidatable {
         this.outputPath = outputPath;
     }
 
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of worker threads that run algorithm nodes concurrently.
+     * With one thread, the nodes are run one after another in topological order.
+     * The fused preprocessing engine also uses this number of threads for the rows of each image.
+     *
+     * @param threadCount the number of threads. Must be at least 1.
+     */
+    public void setThreadCount(int threadCount) {
+        if (isReady)
+            throw new RuntimeException("This run's parameters are already locked!");
+        if (threadCount < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1!");
+        this.threadCount = threadCount;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets how much heap memory the running algorithms may need at the same time according to their estimates.
+     * Algorithms that do not fit into the budget wait until other algorithms have finished.
+     *
+     * @param memoryBudget the budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (isReady)
+            throw new RuntimeException("This run's parameters are already locked!");
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("The memory budget must be positive!");
+        this.memoryBudget = memoryBudget;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * If enabled, results that were already calculated by an earlier run into the same output path are reused
+     * if the parameters and input files did not change.
+     * Every run records its results, so the earlier run does not need this option.
+     * Only preprocessing and clustering results are reused. Postprocessing and plots are always calculated again.
+     *
+     * @param resume if results should be reused
+     */
+    public void setResume(boolean resume) {
+        if (isReady)
+            throw new RuntimeException("This run's parameters are already locked!");
+        this.resume = resume;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed that all random numbers used by the algorithms are derived from.
+     * Runs with the same seed and parameters produce the same results.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        if (isReady)
+            throw new RuntimeException("This run's parameters are already locked!");
+        this.seed = seed;
+    }
+
+    public long getWriteBehindBufferSize() {
+        return writeBehindBufferSize;
+    }
+
+    /**
+     * Enables writing results in the background while the next algorithms are running.
+     * Algorithms wait if the data that is not written yet exceeds the buffer size.
+     *
+     * @param writeBehindBufferSize the buffer size in bytes or 0 to write results directly
+     */
+    public void setWriteBehindBufferSize(long writeBehindBufferSize) {
+        if (isReady)
+            throw new RuntimeException("This run's parameters are already locked!");
+        if (writeBehindBufferSize < 0)
+            throw new IllegalArgumentException("The write-behind buffer size must not be negative!");
+        this.writeBehindBufferSize = writeBehindBufferSize;
+    }
+
     /**
      * Finds the parameter keys in the parameter table that contain information
      *
@@ -499,8 +720,11 @@ public class MCATRun implements MCATValidatable {
         for (MCATDataInterfaceKey key : savedDataInterfaces) {
             setDataInterfaceStoragePath(key, uniqueDataInterfaces.get(key));
         }
+        if (writeBehindBufferSize > 0)
+            writeBehindQueue = new MCATWriteBehindQueue(WRITE_BEHIND_THREAD_COUNT, writeBehindBufferSize);
         for (MCATDataInterface dataInterface : uniqueDataInterfaces.values()) {
             for (MCATDataSlot dataSlot : dataInterface.getSlots().values()) {
+                dataSlot.setWriteBehindQueue(writeBehindQueue);
                 if(dataSlot.getStorageFilePath() != null) {
                     if(!Files.isDirectory(dataSlot.getStorageFilePath())) {
                         try {
@@ -566,6 +790,10 @@ public class MCATRun implements MCATValidatable {
            // Derivative matrix preprocessingOutput/derivativeMatrices/<subject>_anatomyCh_<x>-signalCh-<x>_down-<x>_der.tf
            preprocessingOutput.getDerivativeMatrix().setStorageFilePath(outputPath.resolve("preprocessingOutput").resolve("derivativeMatrices"));
            preprocessingOutput.getDerivativeMatrix().setFileName(Paths.get(identifier + "_derivativeMatrix.csv"));
+
+           // Time series matrix preprocessingOutput/timeSeriesMatrices/<subject>_anatomyCh_<x>-signalCh-<x>_down-<x>_timeSeriesMatrix.f32
+           preprocessingOutput.getTimeSeriesMatrix().setStorageFilePath(outputPath.resolve("preprocessingOutput").resolve("timeSeriesMatrices"));
+           preprocessingOutput.getTimeSeriesMatrix().setFileName(Paths.get(identifier + "_timeSeriesMatrix.f32"));
        }
        else if(dataInterface instanceof MCATClusteringOutput) {
            MCATClusteringOutput clusteringOutput = (MCATClusteringOutput) dataInterface;
@@ -592,6 +820,14 @@ public class MCATRun implements MCATValidatable {
            clusteringOutput.getClusterCenters().setStorageFilePath(outputPath.resolve("clusteringOutput").resolve("clusterCenters"));
            clusteringOutput.getClusterCenters().setFileName(Paths.get(group + "_" + identifier + "_clusterCenters.csv"));
        }
+       else if(dataInterface instanceof MCATKSelectionOutput) {
+           MCATKSelectionOutput kSelectionOutput = (MCATKSelectionOutput) dataInterface;
+           String group = getGroupIdentifier(kSelectionOutput.getGroupTreatment(), kSelectionOutput.getGroupSubject());
+
+           // K selection clusteringOutput/kSelection/<treatment>_anatomyCh_<x>-signalCh-<x>_down-<x>_grouping-<x>_k-<min k>_kSelect-<min k>-<max k>_kSelection<.csv/png/svg>
+           kSelectionOutput.getKSelection().setStorageFilePath(outputPath.resolve("clusteringOutput").resolve("kSelection"));
+           kSelectionOutput.getKSelection().setFileName(Paths.get(group + "_" + getClusteringIdentifier(key) + "_kSelection"));
+       }
        else if(dataInterface instanceof MCATClusteredPlotGenerationOutput) {
            MCATClusteredPlotGenerationOutput plotGenerationOutput = (MCATClusteredPlotGenerationOutput) dataInterface;
 
@@ -646,6 +882,9 @@ public class MCATRun implements MCATValidatable {
         if(preprocessingParameters.getMaxTime() != MCATPreprocessingParameters.MAX_TIME_DEFAULT) {
             identifier += "_" + "endT" + "-" + preprocessingParameters.getMaxTime();
         }
+        if(preprocessingParameters.getPreprocessingEngine() != MCATPreprocessingEngine.ImageJ) {
+            identifier += "_" + "engine" + "-" + preprocessingParameters.getPreprocessingEngine().name();
+        }
         return  identifier;
     }
 
@@ -657,12 +896,45 @@ public class MCATRun implements MCATValidatable {
                 "down-" + preprocessingParameters.getDownsamplingFactor() + "_" +
                 "grouping-" + clusteringParameters.getClusteringHierarchy().name() + "_" +
                 "k-" + clusteringParameters.getkMeansK();
+        if(clusteringParameters.getkMeansRestarts() != MCATClusteringParameters.KMEANS_RESTARTS_DEFAULT) {
+            identifier += "_" + "restarts" + "-" + clusteringParameters.getkMeansRestarts();
+        }
+        if(clusteringParameters.getkMeansEngine() != MCATKMeansEngine.CommonsMath) {
+            identifier += "_" + "kmeans" + "-" + clusteringParameters.getkMeansEngine().name();
+        }
+        if(clusteringParameters.getkMeansBatchSize() != MCATClusteringParameters.KMEANS_BATCH_SIZE_DEFAULT) {
+            identifier += "_" + "batch" + "-" + clusteringParameters.getkMeansBatchSize();
+        }
+        if(clusteringParameters.getkMeansInitialization() != MCATKMeansInitialization.KMeansPlusPlus) {
+            identifier += "_" + "init" + "-" + clusteringParameters.getkMeansInitialization().name();
+        }
+        if(clusteringParameters.getkMeansDistanceMeasure() != MCATDistanceMeasure.Euclidean) {
+            identifier += "_" + "distance" + "-" + clusteringParameters.getkMeansDistanceMeasure().name();
+        }
+        if(clusteringParameters.getkMeansDTWWindow() != MCATClusteringParameters.KMEANS_DTW_WINDOW_DEFAULT) {
+            identifier += "_" + "dtwWindow" + "-" + clusteringParameters.getkMeansDTWWindow();
+        }
+        if(clusteringParameters.getkMeansCoresetSize() != 0) {
+            identifier += "_" + "coreset" + "-" + clusteringParameters.getkMeansCoresetSize();
+        }
+        if(clusteringParameters.getPcaComponents() != 0) {
+            identifier += "_" + "pca" + "-" + clusteringParameters.getPcaComponents();
+        }
+        if(clusteringParameters.getkMeansWarmStartRestarts() != 0) {
+            identifier += "_" + "warm" + "-" + clusteringParameters.getkMeansWarmStartRestarts();
+        }
+        if(clusteringParameters.getkSelectionMaxK() != 0) {
+            identifier += "_" + "kSelect" + "-" + clusteringParameters.getkSelectionMinK() + "-" + clusteringParameters.getkSelectionMaxK();
+        }
         if(preprocessingParameters.getMinTime() != MCATPreprocessingParameters.MIN_TIME_DEFAULT) {
             identifier += "_" + "startT" + "-" + preprocessingParameters.getMinTime();
         }
         if(preprocessingParameters.getMaxTime() != MCATPreprocessingParameters.MAX_TIME_DEFAULT) {
             identifier += "_" + "endT" + "-" + preprocessingParameters.getMaxTime();
         }
+        if(preprocessingParameters.getPreprocessingEngine() != MCATPreprocessingEngine.ImageJ) {
+            identifier += "_" + "engine" + "-" + preprocessingParameters.getPreprocessingEngine().name();
+        }
         return  identifier;
     }
 
@@ -687,18 +959,92 @@ public class MCATRun implements MCATValidatable {
             e.printStackTrace();
         }
         prepare();
-        int counter = 0;
-        for (MCATAlgorithm algorithm : graph.traverse()) {
-            if (isCancelled.get())
-                throw new RuntimeException("Execution was cancelled");
-            onProgress.accept(new Status(counter, graph.size(), algorithm.getName()));
-            algorithm.run();
-            ++counter;
-            onProgress.accept(new Status(counter, graph.size(), algorithm.getName() + " done"));
+        // The results are always recorded, so later runs can reuse them
+        MCATResultCache resultCache = createResultCache();
+        resultCache.calculateFingerprints();
+        Set<MCATAlgorithm> skippedAlgorithms = new HashSet<>();
+        if (resume) {
+            // Only reuse results if everything they were calculated from is reused as well
+            for (MCATAlgorithm algorithm : graph.traverse()) {
+                if (skippedAlgorithms.containsAll(Graphs.predecessorListOf(graph.getGraph(), algorithm)) && resultCache.restore(algorithm)) {
+                    skippedAlgorithms.add(algorithm);
+                    algorithm.flushRestoredResults();
+                }
+            }
+            System.out.println("Reusing the results of " + skippedAlgorithms.size() + " of " + graph.getGraph().vertexSet().size() + " algorithms");
+        }
+        MCATAlgorithmGraphExecutor executor = new MCATAlgorithmGraphExecutor(graph, threadCount);
+        executor.setMemoryBudget(memoryBudget);
+        executor.setSkippedAlgorithms(skippedAlgorithms);
+        executor.setOnAlgorithmFinished(resultCache::store);
+        long startTime = System.currentTimeMillis();
+        RuntimeException failure = null;
+        try {
+            executor.run(onProgress, isCancelled);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // The run is only finished after all results were written
+        if (writeBehindQueue != null) {
+            try {
+                writeBehindQueue.shutdown();
+            } catch (RuntimeException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
         }
+        resultCache.awaitManifests();
+        writeMetrics(executor.getMetrics(), System.currentTimeMillis() - startTime);
+        if (failure != null)
+            throw failure;
         System.out.println("Finished Run!");
     }
 
+    /**
+     * Writes the resource usage of all algorithms and a summary per algorithm category into run-metrics.json
+     */
+    private void writeMetrics(List<MCATAlgorithmMetrics> metrics, long wallTimeMillis) {
+        ObjectNode root = JsonUtils.getObjectMapper().createObjectNode();
+        root.put("wall-time-millis", wallTimeMillis);
+        root.put("threads", threadCount);
+        ObjectNode summary = root.putObject("summary");
+        for (MCATAlgorithmMetrics entry : metrics) {
+            ObjectNode categorySummary = summary.has(entry.getCategory()) ? (ObjectNode) summary.get(entry.getCategory()) :
+                    summary.putObject(entry.getCategory());
+            categorySummary.put("count", categorySummary.path("count").asLong() + 1);
+            categorySummary.put("wall-time-millis", categorySummary.path("wall-time-millis").asLong() + entry.getWallTimeMillis());
+            categorySummary.put("cpu-time-millis", categorySummary.path("cpu-time-millis").asLong() + Math.max(0, entry.getCpuTimeMillis()));
+            categorySummary.put("allocated-bytes", categorySummary.path("allocated-bytes").asLong() + Math.max(0, entry.getAllocatedBytes()));
+            categorySummary.put("peak-heap-bytes", Math.max(categorySummary.path("peak-heap-bytes").asLong(), entry.getPeakHeapBytes()));
+            categorySummary.put("written-bytes", categorySummary.path("written-bytes").asLong() + entry.getWrittenBytes());
+        }
+        root.set("algorithms", JsonUtils.getObjectMapper().valueToTree(metrics));
+        try {
+            JsonUtils.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue(outputPath.resolve("run-metrics.json").toFile(), root);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        summary.fields().forEachRemaining(entry -> System.out.println("Metrics " + entry.getKey() + ": " +
+                entry.getValue().get("count").asLong() + " algorithms, " +
+                entry.getValue().get("wall-time-millis").asLong() / 1000 + " s wall time, " +
+                entry.getValue().get("cpu-time-millis").asLong() / 1000 + " s CPU time"));
+    }
+
+    private MCATResultCache createResultCache() {
+        Map<MCATAlgorithm, MCATDataInterfaceKey> algorithmKeys = new HashMap<>();
+        algorithmKeys.putAll(preprocessingAlgorithmMap.inverse());
+        algorithmKeys.putAll(clusteringAlgorithmMap.inverse());
+        Map<String, MCATDataInterface> inputDataInterfaces = new HashMap<>();
+        for (Map.Entry<MCATDataInterfaceKey, MCATDataInterface> entry : uniqueDataInterfaces.entrySet()) {
+            if ("preprocessing-input".equals(entry.getKey().getDataInterfaceName()) && entry.getKey().getDataSetNames().size() == 1) {
+                inputDataInterfaces.put(entry.getKey().getDataSetNames().iterator().next(), entry.getValue());
+            }
+        }
+        return new MCATResultCache(outputPath, graph, algorithmKeys, inputDataInterfaces);
+    }
+
     public MCATProject getProject() {
         return project;
     }
@@ -716,6 +1062,7 @@ public class MCATRun implements MCATValidatable {
         private int progress;
         private int maxProgress;
         private String currentTask;
+        private MCATAlgorithmMetrics metrics;
 
         public Status(int progress, int maxProgress, String currentTask) {
             this.progress = progress;
@@ -723,6 +1070,11 @@ public class MCATRun implements MCATValidatable {
             this.currentTask = currentTask;
         }
 
+        public Status(int progress, int maxProgress, String currentTask, MCATAlgorithmMetrics metrics) {
+            this(progress, maxProgress, currentTask);
+            this.metrics = metrics;
+        }
+
         public int getProgress() {
             return progress;
         }
@@ -734,5 +1086,12 @@ public class MCATRun implements MCATValidatable {
         public String getCurrentTask() {
             return currentTask;
         }
+
+        /**
+         * @return the resource usage of the algorithm that just finished or null
+         */
+        public MCATAlgorithmMetrics getMetrics() {
+            return metrics;
+        }
     }
 }
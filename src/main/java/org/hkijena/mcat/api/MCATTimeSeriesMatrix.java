@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.ml.clustering.DoublePoint;
+import org.hkijena.mcat.api.clustering.MCATKMeansUtils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Immutable matrix that contains the time series of all pixels of multiple data sets.
+ * Each row is the time series of one pixel. The values are stored packed in float arrays of whole rows, so the matrix
+ * can hold more values than a single array.
+ * The rows of a data set are consecutive. Within a data set, the pixel (x, y) is stored in row x * height + y.
+ */
+public class MCATTimeSeriesMatrix implements MCATTimeSeriesSource {
+
+    /**
+     * Maximum number of values per array
+     */
+    private static final int MAX_CHUNK_VALUES = 1 << 28;
+
+    private final float[][] chunks;
+    private final int chunkRowCount;
+    private final int rowCount;
+    private final int columnCount;
+    private final List<String> dataSetNames;
+    private final Map<String, int[]> dataSetDimensions = new HashMap<>();
+    private final Map<String, Integer> dataSetFirstRows = new HashMap<>();
+    private List<DoublePoint> points;
+
+    /**
+     * Copies the first slices of the images into a new matrix
+     *
+     * @param images      the images per data set. The data sets are stored in the iteration order of the map.
+     * @param columnCount the number of slices that are copied
+     */
+    public MCATTimeSeriesMatrix(Map<String, ImagePlus> images, int columnCount) {
+        this(columnCount, getDimensions(images, columnCount));
+
+        for (Map.Entry<String, ImagePlus> entry : images.entrySet()) {
+            ImageStack stack = entry.getValue().getStack();
+            int width = entry.getValue().getWidth();
+            int height = entry.getValue().getHeight();
+            int firstRow = dataSetFirstRows.get(entry.getKey());
+            for (int column = 0; column < columnCount; column++) {
+                Object slice = stack.getPixels(column + 1);
+                // The rows of a data set are consecutive, so the index is advanced instead of calculated per pixel
+                int chunk = firstRow / chunkRowCount;
+                int index = (firstRow % chunkRowCount) * columnCount + column;
+                if (slice instanceof float[]) {
+                    float[] pixels = (float[]) slice;
+                    for (int x = 0; x < width; x++) {
+                        for (int y = 0; y < height; y++) {
+                            if (index >= chunks[chunk].length) {
+                                ++chunk;
+                                index = column;
+                            }
+                            chunks[chunk][index] = pixels[y * width + x];
+                            index += columnCount;
+                        }
+                    }
+                } else {
+                    ImageProcessor processor = stack.getProcessor(column + 1);
+                    for (int x = 0; x < width; x++) {
+                        for (int y = 0; y < height; y++) {
+                            if (index >= chunks[chunk].length) {
+                                ++chunk;
+                                index = column;
+                            }
+                            chunks[chunk][index] = processor.getf(x, y);
+                            index += columnCount;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocates an empty matrix
+     *
+     * @param columnCount the number of columns
+     * @param dimensions  the width and height of each data set in the iteration order of the map
+     */
+    private MCATTimeSeriesMatrix(int columnCount, Map<String, int[]> dimensions) {
+        this.columnCount = columnCount;
+        this.dataSetNames = Collections.unmodifiableList(new ArrayList<>(dimensions.keySet()));
+        long rows = 0;
+        for (Map.Entry<String, int[]> entry : dimensions.entrySet()) {
+            dataSetFirstRows.put(entry.getKey(), (int) rows);
+            dataSetDimensions.put(entry.getKey(), entry.getValue());
+            rows += (long) entry.getValue()[0] * entry.getValue()[1];
+            if (rows > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many time series for a time series matrix: " + rows);
+        }
+        this.rowCount = (int) rows;
+        this.chunkRowCount = Math.max(1, MAX_CHUNK_VALUES / Math.max(1, columnCount));
+        this.chunks = new float[(rowCount + chunkRowCount - 1) / chunkRowCount][];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            chunks[chunk] = new float[Math.min(chunkRowCount, rowCount - chunk * chunkRowCount) * columnCount];
+        }
+    }
+
+    private static Map<String, int[]> getDimensions(Map<String, ImagePlus> images, int columnCount) {
+        Map<String, int[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ImagePlus> entry : images.entrySet()) {
+            ImagePlus image = entry.getValue();
+            if (image.getStack().getSize() < columnCount)
+                throw new IllegalArgumentException("Image of " + entry.getKey() + " has less than " + columnCount + " slices!");
+            result.put(entry.getKey(), new int[]{image.getWidth(), image.getHeight()});
+        }
+        return result;
+    }
+
+    /**
+     * Copies the first columns of time series that are not stored as images (e.g. loaded derivative matrices).
+     * Each data set has a width of 1 and a height equal to its number of rows.
+     *
+     * @param rows        the time series per data set. The data sets are stored in the iteration order of the map.
+     * @param columnCount the number of columns that are copied
+     * @return the matrix
+     */
+    public static MCATTimeSeriesMatrix fromRows(Map<String, double[][]> rows, int columnCount) {
+        Map<String, int[]> dimensions = new LinkedHashMap<>();
+        for (Map.Entry<String, double[][]> entry : rows.entrySet()) {
+            dimensions.put(entry.getKey(), new int[]{1, entry.getValue().length});
+        }
+        MCATTimeSeriesMatrix result = new MCATTimeSeriesMatrix(columnCount, dimensions);
+        for (Map.Entry<String, double[][]> entry : rows.entrySet()) {
+            int firstRow = result.getFirstRow(entry.getKey());
+            double[][] dataSetRows = entry.getValue();
+            for (int row = 0; row < dataSetRows.length; row++) {
+                if (dataSetRows[row].length < columnCount)
+                    throw new IllegalArgumentException("Row " + row + " of " + entry.getKey() + " has less than " + columnCount + " values!");
+                float[] chunk = result.chunks[(firstRow + row) / result.chunkRowCount];
+                int offset = result.getOffset(firstRow + row);
+                for (int column = 0; column < columnCount; column++) {
+                    chunk[offset + column] = (float) dataSetRows[row][column];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a matrix with the data sets of a source whose rows are calculated from the rows of the source.
+     * The rows are processed in parallel blocks if the caller runs in a {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param source         the time series
+     * @param columnCount    the number of columns of the new matrix
+     * @param transformation calculates a row of the new matrix from a row of the source
+     * @return the matrix
+     */
+    public static MCATTimeSeriesMatrix transform(MCATTimeSeriesSource source, int columnCount, RowTransformation transformation) {
+        Map<String, int[]> dimensions = new LinkedHashMap<>();
+        for (String dataSetName : source.getDataSetNames()) {
+            dimensions.put(dataSetName, new int[]{source.getWidth(dataSetName), source.getHeight(dataSetName)});
+        }
+        MCATTimeSeriesMatrix result = new MCATTimeSeriesMatrix(columnCount, dimensions);
+        MCATKMeansUtils.forEachBlock(MCATKMeansUtils.getBlockCount(result.rowCount), block -> {
+            double[] sourceRow = new double[source.getColumnCount()];
+            double[] row = new double[columnCount];
+            for (int i = MCATKMeansUtils.getBlockStart(block); i < MCATKMeansUtils.getBlockEnd(block, result.rowCount); i++) {
+                source.copyRow(i, sourceRow);
+                transformation.transform(sourceRow, row);
+                float[] chunk = result.chunks[i / result.chunkRowCount];
+                int offset = result.getOffset(i);
+                for (int column = 0; column < columnCount; column++) {
+                    chunk[offset + column] = (float) row[column];
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public float get(int row, int column) {
+        return chunks[row / chunkRowCount][getOffset(row) + column];
+    }
+
+    /**
+     * @param row the row
+     * @return index of the first value of the row within its chunk
+     */
+    private int getOffset(int row) {
+        return (row % chunkRowCount) * columnCount;
+    }
+
+    /**
+     * Copies a row into an array
+     *
+     * @param row    the row
+     * @param target array with at least getColumnCount() entries
+     */
+    @Override
+    public void copyRow(int row, double[] target) {
+        float[] chunk = chunks[row / chunkRowCount];
+        int offset = getOffset(row);
+        for (int column = 0; column < columnCount; column++) {
+            target[column] = chunk[offset + column];
+        }
+    }
+
+    /**
+     * Calculates the squared Euclidean distance between a row and a point
+     *
+     * @param row   the row
+     * @param point array with getColumnCount() entries
+     * @return the squared distance
+     */
+    @Override
+    public double squaredDistance(int row, double[] point) {
+        float[] chunk = chunks[row / chunkRowCount];
+        int offset = getOffset(row);
+        double result = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double difference = chunk[offset + column] - point[column];
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a row to a part of an array
+     *
+     * @param row    the row
+     * @param target the array
+     * @param offset the index in the array where the first value is added
+     */
+    @Override
+    public void addRow(int row, double[] target, int offset) {
+        float[] chunk = chunks[row / chunkRowCount];
+        int rowOffset = getOffset(row);
+        for (int column = 0; column < columnCount; column++) {
+            target[offset + column] += chunk[rowOffset + column];
+        }
+    }
+
+    /**
+     * Returns all rows as points for the Apache Commons Math clustering algorithms.
+     * The points are created on first use and shared by all callers. They must not be modified.
+     *
+     * @return unmodifiable list of points
+     */
+    public synchronized List<DoublePoint> getPoints() {
+        if (points == null) {
+            List<DoublePoint> result = new ArrayList<>(rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                double[] point = new double[columnCount];
+                copyRow(row, point);
+                result.add(new DoublePoint(point));
+            }
+            points = Collections.unmodifiableList(result);
+        }
+        return points;
+    }
+
+    /**
+     * @return the data sets in the order of their rows
+     */
+    @Override
+    public List<String> getDataSetNames() {
+        return dataSetNames;
+    }
+
+    @Override
+    public int getFirstRow(String dataSetName) {
+        return dataSetFirstRows.get(dataSetName);
+    }
+
+    @Override
+    public int getWidth(String dataSetName) {
+        return dataSetDimensions.get(dataSetName)[0];
+    }
+
+    @Override
+    public int getHeight(String dataSetName) {
+        return dataSetDimensions.get(dataSetName)[1];
+    }
+
+    /**
+     * Calculates a row of a new matrix from a row of another matrix.
+     * Called concurrently for different rows.
+     */
+    public interface RowTransformation {
+        /**
+         * @param source the row of the source
+         * @param target receives the new row
+         */
+        void transform(double[] source, double[] target);
+    }
+}
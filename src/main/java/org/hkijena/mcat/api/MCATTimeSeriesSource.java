@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.util.List;
+
+/**
+ * Time series of all pixels of multiple data sets, accessed by row.
+ * Each row is the time series of one pixel. The rows of a data set are consecutive.
+ * Within a data set, the pixel (x, y) is stored in row x * height + y.
+ * Implementations must allow concurrent reads.
+ */
+public interface MCATTimeSeriesSource {
+
+    int getRowCount();
+
+    int getColumnCount();
+
+    /**
+     * Copies a row into an array
+     *
+     * @param row    the row
+     * @param target array with at least getColumnCount() entries
+     */
+    void copyRow(int row, double[] target);
+
+    /**
+     * Calculates the squared Euclidean distance between a row and a point
+     *
+     * @param row   the row
+     * @param point array with getColumnCount() entries
+     * @return the squared distance
+     */
+    double squaredDistance(int row, double[] point);
+
+    /**
+     * Adds a row to a part of an array
+     *
+     * @param row    the row
+     * @param target the array
+     * @param offset the index in the array where the first value is added
+     */
+    void addRow(int row, double[] target, int offset);
+
+    /**
+     * Returns the weight of a row. Rows with a weight represent multiple time series, e.g. in a coreset.
+     * Only clusterers that support weights may be used on sources with weights other than 1.
+     *
+     * @param row the row
+     * @return the weight
+     */
+    default double getWeight(int row) {
+        return 1;
+    }
+
+    /**
+     * @return the data sets in the order of their rows
+     */
+    List<String> getDataSetNames();
+
+    int getFirstRow(String dataSetName);
+
+    int getWidth(String dataSetName);
+
+    int getHeight(String dataSetName);
+}
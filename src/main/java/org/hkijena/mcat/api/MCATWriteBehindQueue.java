@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes data on background threads, so algorithms can continue while their results are saved.
+ * The estimated size of all data that waits to be written is limited. If adding data would exceed the limit,
+ * the submitting thread waits until enough data was written.
+ * Data must not be modified after it was submitted.
+ * Writes to the same file are done one after another in the order in which they were submitted.
+ */
+public class MCATWriteBehindQueue {
+
+    private final ExecutorService executorService;
+    private final long maxQueuedBytes;
+    private final List<CompletableFuture<Void>> pendingWrites = new ArrayList<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final Map<Path, CompletableFuture<Void>> lastWrites = new HashMap<>();
+    private long queuedBytes = 0;
+
+    /**
+     * @param threadCount    the number of threads that write data
+     * @param maxQueuedBytes the maximum estimated size of data that waits to be written
+     */
+    public MCATWriteBehindQueue(int threadCount, long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.executorService = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder().setNameFormat("mcat-writer-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Queues writing the data.
+     * Blocks while the queue is full. Data that is larger than the whole queue is accepted once the queue is empty.
+     *
+     * @param data      the data
+     * @param folder    the folder
+     * @param fileName  the file name
+     * @param onWritten called on the writing thread after the data was written successfully
+     * @return a future that completes when the data was written
+     */
+    public CompletableFuture<Void> submit(MCATData data, Path folder, Path fileName, Runnable onWritten) {
+        long size = Math.max(0, data.estimateSize());
+        synchronized (this) {
+            try {
+                while (queuedBytes > 0 && queuedBytes + size > maxQueuedBytes) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            queuedBytes += size;
+        }
+        Path target = folder.resolve(fileName).toAbsolutePath().normalize();
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            CompletableFuture<Void> previousWrite = lastWrites.getOrDefault(target, CompletableFuture.completedFuture(null));
+            future = previousWrite.handle((result, throwable) -> null).thenRunAsync(() -> {
+                data.saveTo(folder, fileName);
+                onWritten.run();
+            }, executorService);
+            lastWrites.put(target, future);
+            pendingWrites.add(future);
+        }
+        return future.whenComplete((result, throwable) -> {
+            synchronized (this) {
+                queuedBytes -= size;
+                pendingWrites.remove(future);
+                lastWrites.remove(target, future);
+                if (throwable != null) {
+                    System.err.println("Could not write " + folder.resolve(fileName) + ": " + throwable.getMessage());
+                    failures.add(throwable);
+                }
+                notifyAll();
+            }
+        });
+    }
+
+    /**
+     * Waits until all queued data was written and stops the writing threads.
+     *
+     * @throws RuntimeException if writing any data failed
+     */
+    public void shutdown() {
+        try {
+            synchronized (this) {
+                while (!pendingWrites.isEmpty()) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            executorService.shutdown();
+        }
+        synchronized (this) {
+            if (!failures.isEmpty()) {
+                RuntimeException exception = new RuntimeException(failures.size() + " file(s) could not be written", failures.get(0));
+                for (int i = 1; i < failures.size(); i++) {
+                    exception.addSuppressed(failures.get(i));
+                }
+                throw exception;
+            }
+        }
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+}
@@ -13,8 +13,11 @@
 package org.hkijena.mcat.api.algorithms;
 
 import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 
 import org.hkijena.mcat.api.MCATAlgorithm;
+import org.hkijena.mcat.api.MCATDataSlot;
 import org.hkijena.mcat.api.MCATRun;
 import org.hkijena.mcat.api.MCATValidityReport;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteredPlotGenerationInput;
@@ -61,6 +64,16 @@ public class MCATClusteredPlotGenerationAlgorithm extends MCATAlgorithm {
         return "generate-clustered-plots";
     }
 
+    @Override
+    public String getCategory() {
+        return "plots";
+    }
+
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        return Collections.singletonList(getOutput().getTimeDerivativePlot());
+    }
+
     @Override
     public void reportValidity(MCATValidityReport report) {
 
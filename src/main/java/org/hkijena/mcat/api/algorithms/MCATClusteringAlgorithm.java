@@ -20,19 +20,27 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.IntStream;
 
-import org.apache.commons.math3.ml.clustering.CentroidCluster;
 import org.apache.commons.math3.ml.clustering.DoublePoint;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
-import org.apache.commons.math3.ml.distance.EuclideanDistance;
+import org.apache.commons.math3.random.Well19937c;
 import org.hkijena.mcat.api.MCATAlgorithm;
 import org.hkijena.mcat.api.MCATCentroidCluster;
+import org.hkijena.mcat.api.MCATDataSlot;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATKMeansEngine;
 import org.hkijena.mcat.api.MCATRun;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
 import org.hkijena.mcat.api.MCATValidityReport;
+import org.hkijena.mcat.api.clustering.MCATCompensatedSum;
+import org.hkijena.mcat.api.clustering.MCATCoreset;
+import org.hkijena.mcat.api.clustering.MCATDistanceKernel;
+import org.hkijena.mcat.api.clustering.MCATKMeansClusterer;
+import org.hkijena.mcat.api.clustering.MCATKMeansRestarts;
+import org.hkijena.mcat.api.clustering.MCATKMeansResult;
+import org.hkijena.mcat.api.clustering.MCATKMeansUtils;
+import org.hkijena.mcat.api.clustering.MCATKMeansWarmStartInitializer;
+import org.hkijena.mcat.api.clustering.MCATPCAProjection;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringInput;
-import org.hkijena.mcat.api.datainterfaces.MCATClusteringInputDataSetEntry;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringOutput;
 import org.hkijena.mcat.api.datainterfaces.MCATClusteringOutputDataSetEntry;
 import org.hkijena.mcat.api.datainterfaces.MCATPreprocessingOutput;
@@ -40,12 +48,11 @@ import org.hkijena.mcat.api.parameters.MCATClusteringParameters;
 import org.hkijena.mcat.api.parameters.MCATPreprocessingParameters;
 import org.hkijena.mcat.extension.datatypes.ClusterAbundanceData;
 import org.hkijena.mcat.extension.datatypes.ClusterCentersData;
-import org.hkijena.mcat.extension.datatypes.HyperstackData;
+import org.hkijena.mcat.extension.datatypes.ClusterLabelsData;
 
-import ij.IJ;
-import ij.ImagePlus;
-import ij.ImageStack;
-import ij.plugin.SubstackMaker;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class MCATClusteringAlgorithm extends MCATAlgorithm {
 
@@ -72,14 +79,21 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
             "#1E1E1E", "#D7D7D7", "#9C9C9C", "#828282"
     };
 
+    /**
+     * Maximum number of k-means iterations per restart
+     */
+    private static final int MAX_ITERATIONS = 50;
+
     private MCATPreprocessingParameters preprocessingParameters;
     private MCATClusteringParameters clusteringParameters;
     private MCATClusteringInput clusteringInput;
     private MCATClusteringOutput clusteringOutput;
 
     private int minLength, k;
-    private HashMap<String, ImagePlus> clustered = new HashMap<>();
-    private List<DoublePoint> points = new ArrayList<>();
+    private HashMap<String, ClusterLabelsData> clustered = new HashMap<>();
+    private MCATTimeSeriesSource matrix;
+    private MCATPCAProjection projection;
+    private MCATClusteringAlgorithm warmStartPredecessor;
 
     public MCATClusteringAlgorithm(MCATRun run,
                                    MCATPreprocessingParameters preprocessingParameters,
@@ -91,6 +105,7 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
         this.clusteringParameters = clusteringParameters;
         this.clusteringInput = clusteringInput;
         this.clusteringOutput = clusteringOutput;
+        clusteringInput.addTimeSeriesMatrixConsumer();
     }
 
 
@@ -101,61 +116,63 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
     }
 
     private void loadImages() {
+        if (getClusteringParameters().isOutOfCore()) {
+            System.out.println("\tMapping time series matrices...");
+            matrix = getClusteringInput().getMappedTimeSeriesMatrix(minLength);
+            if (matrix != null)
+                return;
+            System.err.println("\tTime series matrices are not available. Falling back to in-memory clustering.");
+        }
         System.out.println("\tLoading images...");
-        List<String> keys = new ArrayList<>(clusteringInput.getDataSetEntries().keySet());
-//        Collections.sort(keys);
-        
-        String[] names = new String[keys.size()];
-        ImagePlus[] imps = new ImagePlus[keys.size()];
-        
-        for (int i = 0; i < keys.size(); i++) {
-            MCATClusteringInputDataSetEntry samp = clusteringInput.getDataSetEntries().get(keys.get(i));
-            System.out.println("\t\tSubject: " + samp.getDataSetName());
-            names[i] = samp.getDataSetName();
-
-            ImagePlus imp = samp.getPreprocessedDataInterface().getPreprocessedImage().getData(HyperstackData.class).getImage();
-            ImageStack is = imp.getStack();
-
-            int width = imp.getWidth();
-            int height = imp.getHeight();
-            
-            float[] tmp;
-
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    tmp = is.getVoxels(x, y, 0, 1, 1, minLength, new float[minLength]);
-                    double[] pixels = new double[tmp.length];
-                    for (int j = 0; j < tmp.length; j++) {
-                        pixels[j] = tmp[j];
-                    }
-
-                    if(x == 150 && y == 150) {
-                    	String print = "";
-                    	for (int j = 0; j < tmp.length; j++) {
-                    		print = print + tmp[j] + "; ";
-                    	}
-                    } 
-
-                    points.add(new DoublePoint(pixels));
-                }
-            }
-
-            imp.setTitle(samp.getDataSetName());
-            imps[i] = new SubstackMaker().makeSubstack(imp, "1-" + minLength);
-            imps[i].setTitle(samp.getDataSetName());
+        if (getClusteringParameters().getkMeansEngine() == MCATKMeansEngine.MiniBatch) {
+            // Batches are read directly from the preprocessed images, so the pooled time series are never copied
+            matrix = getClusteringInput().getImageTimeSeriesSource(minLength);
+        } else {
+            matrix = getClusteringInput().getTimeSeriesMatrix(minLength);
+        }
+    }
 
-            samp.getPreprocessedDataInterface().getPreprocessedImage().setData(new HyperstackData(imps[i]));
+    /**
+     * Replaces the time series by their projection onto the principal components if enabled
+     */
+    private void projectTimeSeries() {
+        int componentCount = getClusteringParameters().getPcaComponents();
+        if (componentCount <= 0 || componentCount >= matrix.getColumnCount())
+            return;
+        if (getClusteringParameters().getkMeansDistanceMeasure() == MCATDistanceMeasure.DTW) {
+            System.err.println("\tDynamic time warping requires the time axis. Clustering without PCA projection.");
+            return;
         }
+        System.out.println("\tProjecting time series onto " + componentCount + " principal components...");
+        int threads = getClusteringParameters().getkMeansThreads();
+        projection = MCATKMeansUtils.callInPool(threads, () -> MCATPCAProjection.fit(matrix, componentCount,
+                MCATPCAProjection.DEFAULT_SAMPLE_SIZE, new Well19937c(getRun().getSeed())));
+        System.out.println(String.format("\tThe components explain %.1f%% of the variance", 100 * projection.getExplainedVariance()));
+        MCATTimeSeriesSource timeSeries = matrix;
+        matrix = MCATKMeansUtils.callInPool(threads, () -> projection.project(timeSeries));
     }
 
     private void runKMeans() {
 
-        System.out.println("\tPerforming k-means clustering with k = " + k + "...");
-        
-        
-        int iterations = 100;
-        int minSSE = Integer.MAX_VALUE;
-        List<MCATCentroidCluster<DoublePoint>> finalCentroids = new ArrayList<>();
+        MCATKMeansClusterer clusterer;
+        int restartCount;
+        double[][] warmStartCenters = getWarmStartCenters();
+        if (warmStartCenters != null) {
+            clusterer = MCATKMeansRestarts.createClusterer(getClusteringParameters(), MAX_ITERATIONS,
+                    new MCATKMeansWarmStartInitializer(warmStartCenters), matrix);
+            restartCount = getClusteringParameters().getkMeansWarmStartRestarts();
+        } else {
+            clusterer = MCATKMeansRestarts.createClusterer(getClusteringParameters(), MAX_ITERATIONS,
+                    MCATKMeansRestarts.createInitializer(getClusteringParameters().getkMeansInitialization()), matrix);
+            restartCount = getClusteringParameters().getkMeansRestarts();
+        }
+        if (clusterer.getDistanceMeasure() != getClusteringParameters().getkMeansDistanceMeasure()) {
+            System.err.println("\tThe k-means engine " + getClusteringParameters().getkMeansEngine() + " does not support the distance measure " +
+                    getClusteringParameters().getkMeansDistanceMeasure() + ". Using the " + clusterer.getDistanceMeasure() + " distance.");
+        }
+
+        System.out.println("\tPerforming k-means clustering with k = " + k + ", " + restartCount +
+                " restarts and " + getClusteringParameters().getkMeansThreads() + " threads...");
         
         List<Integer> currentColors = new ArrayList<Integer>();
         for (int i = 0; i < k; i++) {
@@ -164,123 +181,178 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
 		}
         getClusteringOutput().setColors(currentColors);
         
-        for (int j = 0; j < iterations; j++) {
-        	
-        	int sse = 0;
-        	KMeansPlusPlusClusterer<DoublePoint> kmpp = new KMeansPlusPlusClusterer<DoublePoint>(k, 50, new EuclideanDistance());
-
-            List<CentroidCluster<DoublePoint>> tmpCentroidCluster = kmpp.cluster(points);
-            
-            List<MCATCentroidCluster<DoublePoint>> centroids = new ArrayList<MCATCentroidCluster<DoublePoint>>();
-            for (CentroidCluster<DoublePoint> centroidCluster : tmpCentroidCluster) {
-                centroids.add(new MCATCentroidCluster<>(centroidCluster.getCenter()));
+        MCATTimeSeriesSource clusteringSource = createCoreset(clusterer);
+        MCATKMeansRestarts restarts = new MCATKMeansRestarts(
+                clusterer,
+                restartCount,
+                getClusteringParameters().getkMeansThreads(),
+                getRun().getSeed());
+        MCATKMeansResult result = restarts.run(clusteringSource, k);
+        if (projection != null) {
+            // Cluster centers are stored on the time axis
+            double[][] timeSeriesCenters = new double[k][];
+            for (int i = 0; i < k; i++) {
+                timeSeriesCenters[i] = projection.reconstruct(result.getCenters()[i]);
             }
-
-            Set<String> keys = getClusteringInput().getDataSetEntries().keySet();
-            for (String key : keys) {
-                MCATClusteringInputDataSetEntry inputEntry = getClusteringInput().getDataSetEntries().get(key);
-                
-                ImagePlus imp = inputEntry.getPreprocessedDataInterface().getPreprocessedImage().getData(HyperstackData.class).getImage();
-
-                ImageStack is = imp.getStack();
-                int w = imp.getWidth();
-                int h = imp.getHeight();
-                
-                for (int x = 0; x < w; x++) {
-                    for (int y = 0; y < h; y++) {
-
-                        float[] tmp = is.getVoxels(x, y, 0, 1, 1, minLength, new float[minLength]);
-                        double[] pixels = new double[tmp.length];
-                        IntStream.range(0, tmp.length).forEach(index -> pixels[index] = tmp[index]);
-
-                        double minDist = Double.MAX_VALUE;
-
-                        for (int i = 0; i < centroids.size(); i++) {
-
-                            double[] center = centroids.get(i).getCenter().getPoint();
-                            double dist = new EuclideanDistance().compute(center, pixels);
-                            if (dist < minDist) {
-                                minDist = dist;
-                            }
-                        } 
-                        sse += minDist;
-                    }
-                }
-            }
-            
-            if(sse < minSSE) {
-            	minSSE = sse;
-            	finalCentroids = centroids;
-            }
-            
-//            System.out.println(j + " SSE: " + sse + "; minSSE: " + minSSE);
+            result = new MCATKMeansResult(timeSeriesCenters, result.getCost());
         }
+        List<MCATCentroidCluster<DoublePoint>> finalCentroids = result.toCentroidClusters();
         
         finalCentroids.sort(Comparator.comparingDouble(MCATCentroidCluster::getCumSum));
 
         getClusteringOutput().getClusterCenters().setData(new ClusterCentersData(finalCentroids));
 
-        Set<String> keys = getClusteringInput().getDataSetEntries().keySet();
-   
-
-        for (String key : keys) {
-            MCATClusteringInputDataSetEntry inputEntry = getClusteringInput().getDataSetEntries().get(key);
-            MCATClusteringOutputDataSetEntry outputEntry = getClusteringOutput().getDataSetEntries().get(key);
+        double[][] centers = new double[finalCentroids.size()][];
+        for (int i = 0; i < finalCentroids.size(); i++) {
+            centers[i] = finalCentroids.get(i).getCenter().getPoint();
+            if (projection != null)
+                centers[i] = projection.project(centers[i]);
+        }
 
-            outputEntry.getClusterAbundance().setData(new ClusterAbundanceData(finalCentroids, new int[finalCentroids.size()]));
+        List<String> keys = new ArrayList<>(getClusteringInput().getDataSetEntries().keySet());
+        ClusterLabelsData[] labels = new ClusterLabelsData[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            labels[i] = ClusterLabelsData.create(getClusteringInput().getDataSetEntries().get(key).getDataSetName() + "_clusteredImage",
+                    matrix.getWidth(key), matrix.getHeight(key), currentColors);
+        }
+        double[] cost = new double[1];
+        int[][] abundances = assignPixels(keys, clusterer.createDistanceKernel(centers), labels, cost);
+        if (clusteringSource != matrix) {
+            System.out.println(String.format("\tCost of the coreset: %.6g, cost of all time series: %.6g (%+.2f%%)",
+                    result.getCost(), cost[0], 100 * (result.getCost() - cost[0]) / cost[0]));
+        }
 
-            ImagePlus imp = inputEntry.getPreprocessedDataInterface().getPreprocessedImage().getData(HyperstackData.class).getImage();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            MCATClusteringOutputDataSetEntry outputEntry = getClusteringOutput().getDataSetEntries().get(key);
 
-            ImageStack is = imp.getStack();
-            int w = imp.getWidth();
-            int h = imp.getHeight();
-            int[] clusteredPixels = new int[w * h];
+            outputEntry.getClusterAbundance().setData(new ClusterAbundanceData(finalCentroids, abundances[i]));
+            for (int cluster = 0; cluster < finalCentroids.size(); cluster++) {
+                finalCentroids.get(cluster).addMembers(abundances[i][cluster]);
+            }
+            outputEntry.getClusterAbundance().flush();
 
-            for (int x = 0; x < w; x++) {
-                for (int y = 0; y < h; y++) {
+            clustered.put(outputEntry.getDataSetName(), labels[i]);
+        }
+    }
 
-                    float[] tmp = is.getVoxels(x, y, 0, 1, 1, minLength, new float[minLength]);
-                    double[] pixels = new double[tmp.length];
-                    IntStream.range(0, tmp.length).forEach(index -> pixels[index] = tmp[index]);
+    /**
+     * Returns the cluster centers of the clustering with fewer clusters this clustering starts from
+     *
+     * @return the centers in the space of the clustered time series or null if the clustering starts from scratch
+     */
+    private double[][] getWarmStartCenters() {
+        if (warmStartPredecessor == null)
+            return null;
+        if (getClusteringParameters().getkMeansEngine() == MCATKMeansEngine.CommonsMath) {
+            System.err.println("\tThe k-means engine " + MCATKMeansEngine.CommonsMath + " does not support warm starts. Starting from scratch.");
+            return null;
+        }
+        List<MCATCentroidCluster<DoublePoint>> centroids = warmStartPredecessor.getClusteringOutput().getClusterCenters()
+                .getData(ClusterCentersData.class).getCentroids();
+        int timePoints = projection != null ? projection.getMean().length : matrix.getColumnCount();
+        double[][] result = new double[centroids.size()][];
+        for (int i = 0; i < centroids.size(); i++) {
+            double[] center = centroids.get(i).getCenter().getPoint();
+            if (center.length != timePoints) {
+                System.err.println("\tThe cluster centers of k = " + centroids.size() + " have " + center.length + " instead of " +
+                        timePoints + " time points. Starting from scratch.");
+                return null;
+            }
+            result[i] = projection != null ? projection.project(center) : center;
+        }
+        System.out.println("\tStarting from the cluster centers of k = " + centroids.size());
+        return result;
+    }
 
-                    double minDist = Double.MAX_VALUE;
-                    int closestCluster = -1;
+    /**
+     * Builds the coreset the restarts are run on
+     *
+     * @param clusterer the clusterer of the restarts
+     * @return the coreset or all time series if no coreset is used
+     */
+    private MCATTimeSeriesSource createCoreset(MCATKMeansClusterer clusterer) {
+        int coresetSize = getClusteringParameters().getkMeansCoresetSize();
+        if (coresetSize <= 0 || coresetSize >= matrix.getRowCount())
+            return matrix;
+        if (!clusterer.supportsWeights()) {
+            System.err.println("\tThe k-means engine " + getClusteringParameters().getkMeansEngine() +
+                    " does not support coresets. Clustering all time series.");
+            return matrix;
+        }
+        MCATCoreset coreset = MCATKMeansUtils.callInPool(getClusteringParameters().getkMeansThreads(),
+                () -> MCATCoreset.build(matrix, coresetSize, getRun().getSeed()));
+        if (coreset.getRowCount() < k)
+            return matrix;
+        System.out.println("\tClustering a coreset of " + coreset.getRowCount() + " of " + matrix.getRowCount() + " time series...");
+        return coreset;
+    }
 
-                    for (int i = 0; i < finalCentroids.size(); i++) {
+    /**
+     * Assigns each pixel of each data set to its closest center.
+     * The blocks of rows of all data sets are processed in parallel with the number of k-means threads.
+     * Each block counts its own abundances, which are summed up afterwards.
+     *
+     * @param keys   the data sets
+     * @param kernel calculates the distances to the centers
+     * @param labels receives the index of the closest center of each pixel of each data set
+     * @param cost   receives the sum of the distances of all pixels to their closest center
+     * @return the abundance of each center per data set
+     */
+    private int[][] assignPixels(List<String> keys, MCATDistanceKernel kernel, ClusterLabelsData[] labels, double[] cost) {
+        double[][] centers = kernel.getCenters();
+        // Blocks of data set i are numbered from firstBlocks[i] to firstBlocks[i + 1] - 1
+        int[] firstBlocks = new int[keys.size() + 1];
+        for (int i = 0; i < keys.size(); i++) {
+            int rowCount = matrix.getWidth(keys.get(i)) * matrix.getHeight(keys.get(i));
+            firstBlocks[i + 1] = firstBlocks[i] + MCATKMeansUtils.getBlockCount(rowCount);
+        }
 
-                        double[] center = finalCentroids.get(i).getCenter().getPoint();
-                        double dist = new EuclideanDistance().compute(center, pixels);
-                        if (dist < minDist) {
-                            minDist = dist;
-                            closestCluster = i;
-                        }
+        int[][] blockAbundances = new int[firstBlocks[keys.size()]][centers.length];
+        double[] blockCosts = new double[blockAbundances.length];
+        MCATKMeansUtils.runInPool(getClusteringParameters().getkMeansThreads(), () ->
+                MCATKMeansUtils.forEachBlock(blockAbundances.length, task -> {
+                    int dataSet = Arrays.binarySearch(firstBlocks, task);
+                    if (dataSet < 0)
+                        dataSet = -dataSet - 2;
+                    // Skip data sets without blocks
+                    while (firstBlocks[dataSet + 1] == task) {
+                        ++dataSet;
                     }
-
-                    if (closestCluster == -1) {
-                        System.err.println("No closest cluster found for this pixel position (x=" + x + "; y=" + y + ")");
+                    String key = keys.get(dataSet);
+                    int width = matrix.getWidth(key);
+                    int height = matrix.getHeight(key);
+                    int firstRow = matrix.getFirstRow(key);
+                    int block = task - firstBlocks[dataSet];
+                    ClusterLabelsData dataSetLabels = labels[dataSet];
+                    int[] abundance = blockAbundances[task];
+                    int blockStart = MCATKMeansUtils.getBlockStart(block);
+                    int blockEnd = MCATKMeansUtils.getBlockEnd(block, width * height);
+                    int[] closestCenters = new int[blockEnd - blockStart];
+                    double[] distances = new double[blockEnd - blockStart];
+                    kernel.assign(matrix, firstRow + blockStart, firstRow + blockEnd, closestCenters, distances);
+                    MCATCompensatedSum blockCost = new MCATCompensatedSum();
+                    for (int row = blockStart; row < blockEnd; row++) {
+                        int closest = closestCenters[row - blockStart];
+                        ++abundance[closest];
+                        blockCost.add(distances[row - blockStart]);
+                        // Rows are stored in the order x * height + y
+                        dataSetLabels.setLabel(row / height, row % height, closest);
                     }
+                    blockCosts[task] = blockCost.getSum();
+                }));
 
-                    outputEntry.getClusterAbundance().getData(ClusterAbundanceData.class).incrementAbundance(closestCluster);
-                    finalCentroids.get(closestCluster).addMember();
-//                    int colIndex = Math.round(colors.length / k) * closestCluster;
-                    
-                    /*
-                     * for colorblind-friendly coloring of spatial cluster distribution 
-                     */
-//                    String[] colors2 = new String[]{"#dedc49", "#c35831", "#18171c", "#61bce0", "#7d7d7d"};   
-//                    colIndex = closestCluster;
-                    
-                    clusteredPixels[y * w + x] = currentColors.get(closestCluster);
+        cost[0] += MCATKMeansUtils.sum(blockCosts);
+        int[][] result = new int[keys.size()][centers.length];
+        for (int i = 0; i < keys.size(); i++) {
+            for (int block = firstBlocks[i]; block < firstBlocks[i + 1]; block++) {
+                for (int cluster = 0; cluster < centers.length; cluster++) {
+                    result[i][cluster] += blockAbundances[block][cluster];
                 }
             }
-
-            outputEntry.getClusterAbundance().flush();
-
-            ImagePlus clusteredImage = IJ.createImage(imp.getTitle() + "_clusteredImage", "RGB white", w, h, 1);
-            clusteredImage.getProcessor().setPixels(clusteredPixels);
-
-            clustered.put(outputEntry.getDataSetName(), clusteredImage);
         }
+        return result;
     }
 
     /*
@@ -302,9 +374,9 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
         getClusteringOutput().getClusterCenters().flush();
 
         // Clustered images per dataset
-        for (Map.Entry<String, ImagePlus> entry : clustered.entrySet()) {
+        for (Map.Entry<String, ClusterLabelsData> entry : clustered.entrySet()) {
             MCATClusteringOutputDataSetEntry dataSetEntry = getClusteringOutput().getDataSetEntries().get(entry.getKey());
-            dataSetEntry.getClusterImages().setData(new HyperstackData(entry.getValue()));
+            dataSetEntry.getClusterImages().setData(entry.getValue());
             dataSetEntry.getClusterImages().flush();
         }
     }
@@ -324,9 +396,17 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
         getClusteringOutput().setMinLength(minLength); 
         minLength = minLength - 1; //subtract one because of differences in indexing and slice number measurement
 
-        loadImages();
+        try {
+            loadImages();
 
-        runKMeans();
+            projectTimeSeries();
+
+            runKMeans();
+        } finally {
+            matrix = null;
+            projection = null;
+            getClusteringInput().releaseTimeSeriesMatrixConsumer();
+        }
 
         saveData();
 
@@ -337,11 +417,68 @@ public class MCATClusteringAlgorithm extends MCATAlgorithm {
         return "clustering";
     }
 
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        List<MCATDataSlot> result = new ArrayList<>();
+        result.add(getClusteringOutput().getClusterCenters());
+        List<String> keys = new ArrayList<>(getClusteringOutput().getDataSetEntries().keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            MCATClusteringOutputDataSetEntry entry = getClusteringOutput().getDataSetEntries().get(key);
+            result.add(entry.getClusterAbundance());
+            result.add(entry.getClusterImages());
+        }
+        return result;
+    }
+
+    @Override
+    public void saveResultState(ObjectNode state) {
+        state.put("min-length", getClusteringOutput().getMinLength());
+        ArrayNode colorsNode = state.putArray("colors");
+        for (Integer color : getClusteringOutput().getColors()) {
+            colorsNode.add(color);
+        }
+    }
+
+    @Override
+    public void loadResultState(JsonNode state) {
+        // Results are restored instead of being calculated
+        getClusteringInput().releaseTimeSeriesMatrixConsumer();
+        getClusteringOutput().setMinLength(state.get("min-length").asInt());
+        List<Integer> currentColors = new ArrayList<>();
+        for (JsonNode color : state.get("colors")) {
+            currentColors.add(color.asInt());
+        }
+        getClusteringOutput().setColors(currentColors);
+    }
+
+    /**
+     * Adds the seed of the run, as it determines the initial cluster centers
+     */
+    @Override
+    public void addFingerprintEntries(List<String> entries) {
+        entries.add("seed=" + getRun().getSeed());
+    }
+
     @Override
     public void reportValidity(MCATValidityReport report) {
 
     }
 
+    public MCATClusteringAlgorithm getWarmStartPredecessor() {
+        return warmStartPredecessor;
+    }
+
+    /**
+     * Sets the clustering with fewer clusters whose cluster centers are the initial centers of this clustering.
+     * The predecessor must run before this algorithm.
+     *
+     * @param warmStartPredecessor the clustering or null to start from scratch
+     */
+    public void setWarmStartPredecessor(MCATClusteringAlgorithm warmStartPredecessor) {
+        this.warmStartPredecessor = warmStartPredecessor;
+    }
+
     public MCATClusteringInput getClusteringInput() {
         return clusteringInput;
     }
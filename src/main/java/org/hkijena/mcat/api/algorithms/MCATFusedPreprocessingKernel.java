@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.algorithms;
+
+import java.awt.Rectangle;
+
+import org.hkijena.mcat.api.clustering.MCATKMeansUtils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+
+/**
+ * Performs the preprocessing steps after registration in one pass over the rows of the image:
+ * z-transformation, setting pixels outside the ROI to zero, cropping to the ROI bounds, temporal downsampling
+ * and conversion to the time derivative.
+ * Only the result and one plane per row are allocated. The rows are processed in parallel with the given number of threads.
+ * Each row is calculated independently from the others, so the result does not depend on the number of threads.
+ * <p>
+ * The z-transformation uses the mean and standard deviation of the current slice like the ImageJ engine.
+ * Temporal downsampling resizes the plane of each row along the time axis with bilinear interpolation and averaging
+ * by {@link ImageProcessor#resize(int, int, boolean)}, like {@link ij.plugin.Resizer} does for the planes of a stack.
+ * Values are always calculated as 32-bit floating point numbers, so the results can differ from the ImageJ engine by
+ * rounding errors. MCATFusedPreprocessingKernelTest compares both engines.
+ */
+public class MCATFusedPreprocessingKernel {
+
+    private final int downsamplingFactor;
+    private final Roi roi;
+    private final int threads;
+
+    /**
+     * @param downsamplingFactor factor by which the number of frames is reduced
+     * @param roi                the ROI. Can be null.
+     * @param threads            number of threads
+     */
+    public MCATFusedPreprocessingKernel(int downsamplingFactor, Roi roi, int threads) {
+        if (downsamplingFactor < 1)
+            throw new IllegalArgumentException("Downsampling factor must be specified and > 1!");
+        this.downsamplingFactor = downsamplingFactor;
+        this.roi = roi;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of frames after downsampling, before the time derivative is calculated
+     *
+     * @param imp single-channel image with one slice per frame
+     * @return number of frames
+     */
+    public int getDownsampledFrameCount(ImagePlus imp) {
+        return imp.getStackSize() / downsamplingFactor;
+    }
+
+    /**
+     * Applies the preprocessing
+     *
+     * @param imp single-channel image with one slice per frame. It is not modified.
+     * @return 32-bit image of the time derivative with one slice less than the downsampled frames
+     */
+    public ImagePlus apply(ImagePlus imp) {
+        int width = imp.getWidth();
+        int height = imp.getHeight();
+        int depth = imp.getStackSize();
+        int frames = getDownsampledFrameCount(imp);
+        if (frames < 2)
+            throw new IllegalArgumentException("At least two frames are required after downsampling, but the image has only " +
+                    depth + " frames!");
+
+        ImageStatistics statistics = imp.getStatistics();
+        double mean = statistics.mean;
+        double stdDev = statistics.stdDev;
+
+        Rectangle imageBounds = new Rectangle(0, 0, width, height);
+        Rectangle bounds = roi != null ? roi.getBounds().intersection(imageBounds) : imageBounds;
+        Rectangle roiBounds = roi != null ? roi.getBounds() : null;
+        ImageProcessor mask = roi != null ? roi.getMask() : null;
+
+        ImageStack stack = imp.getStack();
+        float[][] source = new float[depth][];
+        for (int i = 0; i < source.length; i++) {
+            Object pixels = stack.getPixels(i + 1);
+            source[i] = pixels instanceof float[] ? (float[]) pixels : (float[]) stack.getProcessor(i + 1).convertToFloat().getPixels();
+        }
+
+        int targetWidth = bounds.width;
+        float[][] target = new float[frames - 1][targetWidth * bounds.height];
+
+        MCATKMeansUtils.runInPool(threads, () -> MCATKMeansUtils.forEachBlock(bounds.height, row -> {
+            int y = bounds.y + row;
+            int sourceOffset = y * width + bounds.x;
+
+            // Plane of this row over time, as used by the ImageJ Resizer
+            float[] plane = new float[targetWidth * depth];
+            for (int column = 0; column < targetWidth; column++) {
+                if (mask != null && mask.get(bounds.x + column - roiBounds.x, y - roiBounds.y) == 0)
+                    continue;
+                for (int z = 0; z < depth; z++) {
+                    plane[z * targetWidth + column] = (float) ((source[z][sourceOffset + column] - mean) / stdDev);
+                }
+            }
+            ImageProcessor processor = new FloatProcessor(targetWidth, depth, plane);
+            processor.setInterpolationMethod(ImageProcessor.BILINEAR);
+            float[] series = (float[]) processor.resize(targetWidth, frames, true).getPixels();
+
+            int targetOffset = row * targetWidth;
+            for (int frame = 0; frame < frames - 1; frame++) {
+                for (int column = 0; column < targetWidth; column++) {
+                    target[frame][targetOffset + column] = series[(frame + 1) * targetWidth + column] - series[frame * targetWidth + column];
+                }
+            }
+        }));
+
+        ImageStack result = new ImageStack(targetWidth, bounds.height);
+        for (float[] pixels : target) {
+            result.addSlice(null, pixels);
+        }
+        ImagePlus resultImage = new ImagePlus("Result of " + imp.getTitle(), result);
+        resultImage.setCalibration(imp.getCalibration().copy());
+        return resultImage;
+    }
+
+    public int getDownsamplingFactor() {
+        return downsamplingFactor;
+    }
+
+    public Roi getRoi() {
+        return roi;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+}
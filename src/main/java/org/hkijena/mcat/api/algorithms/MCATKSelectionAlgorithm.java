@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.algorithms;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.hkijena.mcat.api.MCATAlgorithm;
+import org.hkijena.mcat.api.MCATDataSlot;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATRun;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+import org.hkijena.mcat.api.MCATValidityReport;
+import org.hkijena.mcat.api.clustering.MCATKMeansClusterer;
+import org.hkijena.mcat.api.clustering.MCATKMeansRestarts;
+import org.hkijena.mcat.api.clustering.MCATKMeansUtils;
+import org.hkijena.mcat.api.clustering.MCATKSelection;
+import org.hkijena.mcat.api.clustering.MCATKSelectionResult;
+import org.hkijena.mcat.api.clustering.MCATPCAProjection;
+import org.hkijena.mcat.api.datainterfaces.MCATClusteringInput;
+import org.hkijena.mcat.api.datainterfaces.MCATKSelectionOutput;
+import org.hkijena.mcat.api.datainterfaces.MCATPreprocessingOutput;
+import org.hkijena.mcat.api.parameters.MCATClusteringParameters;
+import org.hkijena.mcat.api.parameters.MCATPreprocessingParameters;
+import org.hkijena.mcat.extension.datatypes.KSelectionData;
+
+/**
+ * Clusters the time series of a clustering group once per k of the k selection range and scores each clustering
+ * with the SSE, the silhouette and the gap statistic. See {@link MCATKSelection}.
+ * The time series matrix is shared with the clustering algorithms of the same group.
+ */
+public class MCATKSelectionAlgorithm extends MCATAlgorithm {
+
+    /**
+     * Maximum number of k-means iterations per restart
+     */
+    private static final int MAX_ITERATIONS = 50;
+
+    private MCATPreprocessingParameters preprocessingParameters;
+    private MCATClusteringParameters clusteringParameters;
+    private MCATClusteringInput clusteringInput;
+    private MCATKSelectionOutput kSelectionOutput;
+
+    public MCATKSelectionAlgorithm(MCATRun run,
+                                   MCATPreprocessingParameters preprocessingParameters,
+                                   MCATClusteringParameters clusteringParameters,
+                                   MCATClusteringInput clusteringInput,
+                                   MCATKSelectionOutput kSelectionOutput) {
+        super(run);
+        this.preprocessingParameters = preprocessingParameters;
+        this.clusteringParameters = clusteringParameters;
+        this.clusteringInput = clusteringInput;
+        this.kSelectionOutput = kSelectionOutput;
+        clusteringInput.addTimeSeriesMatrixConsumer();
+    }
+
+    private MCATTimeSeriesSource loadTimeSeries(int minLength) {
+        if (getClusteringParameters().isOutOfCore()) {
+            System.out.println("\tMapping time series matrices...");
+            MCATTimeSeriesSource matrix = getClusteringInput().getMappedTimeSeriesMatrix(minLength);
+            if (matrix != null)
+                return matrix;
+            System.err.println("\tTime series matrices are not available. Falling back to in-memory clustering.");
+        }
+        System.out.println("\tLoading images...");
+        return getClusteringInput().getTimeSeriesMatrix(minLength);
+    }
+
+    /**
+     * Projects the time series onto their principal components if enabled, so the scores match the clustering
+     */
+    private MCATTimeSeriesSource projectTimeSeries(MCATTimeSeriesSource matrix) {
+        int componentCount = getClusteringParameters().getPcaComponents();
+        if (componentCount <= 0 || componentCount >= matrix.getColumnCount())
+            return matrix;
+        if (getClusteringParameters().getkMeansDistanceMeasure() == MCATDistanceMeasure.DTW) {
+            System.err.println("\tDynamic time warping requires the time axis. Clustering without PCA projection.");
+            return matrix;
+        }
+        System.out.println("\tProjecting time series onto " + componentCount + " principal components...");
+        int threads = getClusteringParameters().getkMeansThreads();
+        MCATPCAProjection projection = MCATKMeansUtils.callInPool(threads, () -> MCATPCAProjection.fit(matrix, componentCount,
+                MCATPCAProjection.DEFAULT_SAMPLE_SIZE, new Well19937c(getRun().getSeed())));
+        return MCATKMeansUtils.callInPool(threads, () -> projection.project(matrix));
+    }
+
+    @Override
+    public void run() {
+
+        System.out.println("Starting " + getName());
+
+        int minLength = getClusteringParameters().getMinLength();
+        for (MCATPreprocessingOutput preprocessingOutput : getClusteringInput().getAllPreprocessingOutputs()) {
+            minLength = Math.min(preprocessingOutput.getNSlices(), minLength);
+        }
+        minLength = Math.min(getPreprocessingParameters().getMaxTime(), minLength);
+        minLength = minLength - 1; //subtract one because of differences in indexing and slice number measurement
+
+        MCATKSelectionResult result;
+        try {
+            MCATTimeSeriesSource matrix = projectTimeSeries(loadTimeSeries(minLength));
+            int minK = getClusteringParameters().getkSelectionMinK();
+            int maxK = Math.min(getClusteringParameters().getkSelectionMaxK(), matrix.getRowCount());
+            System.out.println("\tPerforming k-means clustering with k = " + minK + " to " + maxK + ", " +
+                    getClusteringParameters().getkMeansRestarts() + " restarts and " + getClusteringParameters().getkMeansThreads() + " threads...");
+            MCATKMeansClusterer clusterer = MCATKMeansRestarts.createClusterer(getClusteringParameters(), MAX_ITERATIONS,
+                    MCATKMeansRestarts.createInitializer(getClusteringParameters().getkMeansInitialization()), matrix);
+            MCATKSelection selection = new MCATKSelection(clusterer,
+                    getClusteringParameters().getkMeansRestarts(),
+                    getRun().getSeed());
+            result = MCATKMeansUtils.callInPool(getClusteringParameters().getkMeansThreads(), () -> selection.run(matrix, minK, maxK));
+        } finally {
+            getClusteringInput().releaseTimeSeriesMatrixConsumer();
+        }
+        System.out.println("\tBest k according to the gap statistic: " + result.getGapK() +
+                ", according to the silhouette: " + result.getSilhouetteK());
+
+        getKSelectionOutput().getKSelection().setData(new KSelectionData(result));
+        getKSelectionOutput().getKSelection().flush();
+    }
+
+    @Override
+    public String getName() {
+        return "k-selection";
+    }
+
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        return Collections.singletonList(getKSelectionOutput().getKSelection());
+    }
+
+    /**
+     * Adds the seed of the run, as it determines the initial cluster centers and the reference data sets
+     */
+    @Override
+    public void addFingerprintEntries(List<String> entries) {
+        entries.add("seed=" + getRun().getSeed());
+    }
+
+    @Override
+    public void reportValidity(MCATValidityReport report) {
+        if (getClusteringParameters().getkSelectionMaxK() < getClusteringParameters().getkSelectionMinK()) {
+            report.reportIsInvalid("Invalid k selection range!",
+                    "The minimum k of the k selection must be less or equal to the maximum k.",
+                    "Please ensure that the minimum k is less or equal to the maximum k.",
+                    this);
+        }
+    }
+
+    public MCATClusteringInput getClusteringInput() {
+        return clusteringInput;
+    }
+
+    public MCATKSelectionOutput getKSelectionOutput() {
+        return kSelectionOutput;
+    }
+
+    public MCATPreprocessingParameters getPreprocessingParameters() {
+        return preprocessingParameters;
+    }
+
+    public MCATClusteringParameters getClusteringParameters() {
+        return clusteringParameters;
+    }
+}
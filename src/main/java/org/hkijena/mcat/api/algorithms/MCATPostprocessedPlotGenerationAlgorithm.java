@@ -13,9 +13,12 @@
 package org.hkijena.mcat.api.algorithms;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.hkijena.mcat.api.MCATAlgorithm;
+import org.hkijena.mcat.api.MCATDataSlot;
 import org.hkijena.mcat.api.MCATDataInterfaceKey;
 import org.hkijena.mcat.api.MCATRun;
 import org.hkijena.mcat.api.MCATValidityReport;
@@ -83,6 +86,16 @@ public class MCATPostprocessedPlotGenerationAlgorithm extends MCATAlgorithm {
         return "generate-postprocessed-plots";
     }
 
+    @Override
+    public String getCategory() {
+        return "plots";
+    }
+
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        return Collections.singletonList(getPlotGenerationOutput().getAucPlotData());
+    }
+
     @Override
     public void reportValidity(MCATValidityReport report) {
 
@@ -13,6 +13,7 @@
 package org.hkijena.mcat.api.algorithms;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -20,6 +21,7 @@ import org.apache.commons.math3.ml.clustering.DoublePoint;
 import org.hkijena.mcat.api.MCATAlgorithm;
 import org.hkijena.mcat.api.MCATCentroidCluster;
 import org.hkijena.mcat.api.MCATDataInterfaceKey;
+import org.hkijena.mcat.api.MCATDataSlot;
 import org.hkijena.mcat.api.MCATPostprocessingMethod;
 import org.hkijena.mcat.api.MCATRun;
 import org.hkijena.mcat.api.MCATValidityReport;
@@ -238,6 +240,11 @@ public class MCATPostprocessingAlgorithm extends MCATAlgorithm {
         return "postprocessing";
     }
 
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        return Collections.singletonList(getPostprocessingOutput().getAuc());
+    }
+
     @Override
     public void reportValidity(MCATValidityReport report) {
 
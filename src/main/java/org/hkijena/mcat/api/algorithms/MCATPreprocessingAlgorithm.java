@@ -17,29 +17,55 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.hkijena.mcat.api.MCATAlgorithm;
+import org.hkijena.mcat.api.MCATDataProvider;
 import org.hkijena.mcat.api.MCATDataSlot;
+import org.hkijena.mcat.api.MCATPreprocessingEngine;
 import org.hkijena.mcat.api.MCATRun;
 import org.hkijena.mcat.api.MCATValidityReport;
 import org.hkijena.mcat.api.datainterfaces.MCATPreprocessingInput;
 import org.hkijena.mcat.api.datainterfaces.MCATPreprocessingOutput;
 import org.hkijena.mcat.api.parameters.MCATPreprocessingParameters;
+import org.hkijena.mcat.extension.dataproviders.api.FileDataProvider;
+import org.hkijena.mcat.extension.dataproviders.api.HyperstackFromTifDataProvider;
 import org.hkijena.mcat.extension.datatypes.DerivativeMatrixData;
 import org.hkijena.mcat.extension.datatypes.HyperstackData;
 import org.hkijena.mcat.extension.datatypes.ROIData;
+import org.hkijena.mcat.extension.datatypes.TimeSeriesMatrixData;
+import org.hkijena.mcat.utils.ImageJUtils;
+import org.hkijena.mcat.utils.TiffHyperstackReader;
 
 import de.embl.cmci.registration.MultiStackReg_;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.Roi;
+import ij.io.FileInfo;
 import ij.plugin.Duplicator;
 import ij.plugin.ImageCalculator;
 import ij.process.ImageStatistics;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
 
+    /**
+     * Estimated bytes of memory per byte of raw file if the TIFF header cannot be read
+     */
+    private static final long UNKNOWN_HEADER_FILE_SIZE_FACTOR = 6;
+
+    /**
+     * Approximate size of the object header of each row in the derivative matrix
+     */
+    private static final long ARRAY_HEADER_BYTES = 16;
+
+    private static final String INVALID_TIME_RANGE_MESSAGE = "Illegal value for Start time frame and/or End time frame! Will not exclude time frames from stack.";
+
     private final MCATPreprocessingParameters preprocessingParameters;
     private MCATPreprocessingInput preprocessingInput;
     private MCATPreprocessingOutput preprocessingOutput;
@@ -50,6 +76,7 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
     private Roi roi = null;
     private String roiName = "noROI";
     private int startFrame = -1, endFrame = -1;
+    private boolean saveTimeSeriesMatrix = false;
 
     public MCATPreprocessingAlgorithm(MCATRun run,
                                       MCATPreprocessingParameters preprocessingParameters,
@@ -63,14 +90,39 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
 
     private ImagePlus cropTimeFrames(ImagePlus imp) {
     	System.out.println("\tCropping stack to time range " + startFrame + " - " + endFrame + "...");
-    	if(startFrame < 1 | startFrame >= imp.getNFrames() | startFrame > endFrame | endFrame < 1 | endFrame >= imp.getNFrames() | endFrame < startFrame)
-        	throw new IllegalArgumentException("Illegal value for Start time frame and/or End time frame! Will not exclude time frames from stack.");
+    	if(!isValidTimeRange(imp.getNFrames()))
+        	throw new IllegalArgumentException(INVALID_TIME_RANGE_MESSAGE);
 
     	ImagePlus imp2 = new Duplicator().run(imp, 1, imp.getNChannels(), 1, 1, startFrame, endFrame);
   
     	return imp2;
     }
     
+    private boolean isValidTimeRange(int nFrames) {
+        return !(startFrame < 1 | startFrame >= nFrames | startFrame > endFrame | endFrame < 1 | endFrame >= nFrames | endFrame < startFrame);
+    }
+
+    /**
+     * Reads only the anatomy channel, the channel of interest and the selected time range from the raw image file
+     */
+    private ImagePlus[] readChannels(TiffHyperstackReader reader) {
+        int firstFrame = 1, lastFrame = reader.getFrames();
+        if(startFrame != MCATPreprocessingParameters.MIN_TIME_DEFAULT | endFrame != MCATPreprocessingParameters.MAX_TIME_DEFAULT) {
+            if (isValidTimeRange(reader.getFrames())) {
+                System.out.println("\tReading time range " + startFrame + " - " + endFrame + "...");
+                firstFrame = startFrame;
+                lastFrame = endFrame;
+            } else {
+                System.err.println(INVALID_TIME_RANGE_MESSAGE);
+            }
+        }
+        int[] channelIndices = IntStream.of(channelAnatomy, channelOfInterest)
+                .filter(channel -> channel > 0 && channel <= reader.getChannels())
+                .distinct()
+                .toArray();
+        return reader.read(channelIndices, firstFrame, lastFrame);
+    }
+
     private ImagePlus registerImages(String transformFile, ImagePlus... imps) {
         System.out.println("\tRegistering channels...");
         MultiStackReg_ msr = new MultiStackReg_();
@@ -103,7 +155,7 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
         return imps[imps.length - 1];
     }
 
-    private ImagePlus ztransform(ImagePlus imp) {
+    static ImagePlus ztransform(ImagePlus imp) {
         System.out.println("\tPerforming z-transformation...");
         ImageStatistics is = imp.getStatistics();
         IJ.run(imp, "Subtract...", "value=" + is.mean + " stack");
@@ -112,7 +164,7 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
         return imp;
     }
 
-    private ImagePlus setOuterPixels(ImagePlus imp) {
+    static ImagePlus setOuterPixels(ImagePlus imp, Roi roi) {
         System.out.println("\tSetting pixels outside ROI to zero...");
         if (roi == null) {
             System.out.println("WARNING: no ROI specified, background will not be set to zero!");
@@ -129,8 +181,7 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
         return imp;
     }
 
-    private ImagePlus downsample(ImagePlus imp) {
-        downFactor = getPreprocessingParameters().getDownsamplingFactor();
+    static ImagePlus downsample(ImagePlus imp, int downFactor) {
         System.out.println("\tPerforming downsampling by factor " + downFactor + "...");
         if (downFactor < 1)
             throw new IllegalArgumentException("Downsampling factor must be specified and > 1!");
@@ -138,14 +189,25 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
             int newFrames = imp.getNFrames() / downFactor;
             imp = new ij.plugin.Resizer().zScale(imp, newFrames, 1);
         }
-        
-        int slices = imp.getNSlices();
-        getPreprocessingOutput().setNSlices(slices);
 
         return imp;
     }
 
-    private ImagePlus toTimeDerivativeImage(ImagePlus imp) {
+    private ImagePlus fusedPreprocess(ImagePlus imp) {
+        downFactor = getPreprocessingParameters().getDownsamplingFactor();
+        System.out.println("\tPerforming z-transformation, ROI masking, downsampling by factor " + downFactor +
+                " and time derivative in one pass...");
+        if (roi == null)
+            System.out.println("WARNING: no ROI specified, background will not be set to zero!");
+        MCATFusedPreprocessingKernel kernel = new MCATFusedPreprocessingKernel(downFactor, roi, getRun().getThreadCount());
+        getPreprocessingOutput().setNSlices(kernel.getDownsampledFrameCount(imp));
+        ImagePlus result = kernel.apply(imp);
+        imp.close();
+
+        return result;
+    }
+
+    static ImagePlus toTimeDerivativeImage(ImagePlus imp) {
         ImagePlus dup = imp.duplicate();
         dup.getStack().deleteLastSlice();
         ImagePlus dup2 = imp.duplicate();
@@ -195,49 +257,76 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
         getPreprocessingOutput().getPreprocessedImage().flush();
     }
 
+    private void saveTimeSeriesMatrix(ImagePlus imp) {
+        System.out.println("\tWriting time series matrix...");
+        getPreprocessingOutput().getTimeSeriesMatrix().setData(new TimeSeriesMatrixData(imp));
+        getPreprocessingOutput().getTimeSeriesMatrix().flush();
+    }
+
     @Override
     public void run() {
     	
-        getPreprocessingInput().getRawImage().resetFromCurrentProvider();
-        ImagePlus imp = getPreprocessingInput().getRawImage().getData(HyperstackData.class).getImage();
+        // The input slots are shared by all preprocessing nodes of a data set, which might run concurrently.
+        // Load the data into local instances instead of storing them in the slots
+        MCATDataSlot rawImage = getPreprocessingInput().getRawImage();
+        MCATDataProvider rawImageProvider = rawImage.getCurrentProvider();
+        TiffHyperstackReader reader = rawImageProvider instanceof HyperstackFromTifDataProvider ?
+                ((HyperstackFromTifDataProvider) rawImageProvider).createSelectiveReader() : null;
+        HyperstackData rawImageData = reader == null ? (HyperstackData) rawImageProvider.get() : null;
         
-        saveRaw = getPreprocessingParameters().isSaveRawImage();
-        saveRoi = getPreprocessingParameters().isSaveRoi();
         channelAnatomy = getPreprocessingParameters().getAnatomicChannel();
         channelOfInterest = getPreprocessingParameters().getChannelOfInterest();
         startFrame = getPreprocessingParameters().getMinTime();
         endFrame = getPreprocessingParameters().getMaxTime();
 
         MCATDataSlot tissueROI = getPreprocessingInput().getTissueROI();
-        tissueROI.resetFromCurrentProvider();
         
-        roi = tissueROI.getData(ROIData.class).getRoi();
+        roi = ((ROIData) tissueROI.getCurrentProvider().get()).getRoi();
         
         if(roi != null)
         	roiName = roi.getName();
-        tissueROI.setData(new ROIData(roi, roi.getName()));
-        
-        String sample = imp.getTitle();
-
-        System.out.println("Start pre-processing for " + sample +
-                "; width = " + imp.getWidth() +
-                "; height = " + imp.getHeight() +
-                "; frames = " + imp.getNFrames() +
-                "; channels = " + imp.getNChannels() +
-                "; roi name = " + roiName);
+        ROIData roiData = new ROIData(roi, roi.getName());
         
-        /*
-         * remove slices before Start time frame and after End time frame if necessary
-         */
-        if(startFrame != getPreprocessingParameters().MIN_TIME_DEFAULT | endFrame != getPreprocessingParameters().MAX_TIME_DEFAULT) {
-        	try {
-        		imp = cropTimeFrames(imp);
-    		} catch (Exception e) {
-    			System.err.println(e.getMessage());
-    		}
+        String sample;
+        ImagePlus[] channels;
+        if (reader != null) {
+            sample = reader.getTitle();
+
+            System.out.println("Start pre-processing for " + sample +
+                    "; width = " + reader.getWidth() +
+                    "; height = " + reader.getHeight() +
+                    "; frames = " + reader.getFrames() +
+                    "; channels = " + reader.getChannels() +
+                    "; roi name = " + roiName);
+
+            /*
+             * read only the required channels and time frames
+             */
+            channels = readChannels(reader);
+        } else {
+            ImagePlus imp = rawImageData.getImage();
+            sample = imp.getTitle();
+
+            System.out.println("Start pre-processing for " + sample +
+                    "; width = " + imp.getWidth() +
+                    "; height = " + imp.getHeight() +
+                    "; frames = " + imp.getNFrames() +
+                    "; channels = " + imp.getNChannels() +
+                    "; roi name = " + roiName);
+
+            /*
+             * remove slices before Start time frame and after End time frame if necessary
+             */
+            if(startFrame != getPreprocessingParameters().MIN_TIME_DEFAULT | endFrame != getPreprocessingParameters().MAX_TIME_DEFAULT) {
+                try {
+                    imp = cropTimeFrames(imp);
+                } catch (Exception e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+
+            channels = ij.plugin.ChannelSplitter.split(imp.duplicate());
         }
-        
-        ImagePlus[] channels = ij.plugin.ChannelSplitter.split(imp.duplicate());
 
         /*
          * check if anatomy channel should be used for registration and if channel of interest is specified
@@ -268,32 +357,47 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
     		System.out.println("WARNING: no anatomy channel provided. Images will not be registered.");
     	}
 
-        /*
-         * perform z-transformation on pixel values of channel of interest
-         */
-        interest = ztransform(interest);
-
-        /*
-         * set pixels outside ROI to zero and crop to ROI
-         */
-
-        interest = setOuterPixels(interest);
-
-        /*
-         * downsample by specified downsampling factor
-         */
-        interest = downsample(interest);
-
-        /*
-         * convert to time derivative
-         */
-        interest = toTimeDerivativeImage(interest);
+        if (getPreprocessingParameters().getPreprocessingEngine() == MCATPreprocessingEngine.Fused) {
+            /*
+             * perform all remaining steps in one pass
+             */
+            interest = fusedPreprocess(interest);
+        } else {
+            /*
+             * perform z-transformation on pixel values of channel of interest
+             */
+            interest = ztransform(interest);
+
+            /*
+             * set pixels outside ROI to zero and crop to ROI
+             */
+
+            interest = setOuterPixels(interest, roi);
+
+            /*
+             * downsample by specified downsampling factor
+             */
+            downFactor = getPreprocessingParameters().getDownsamplingFactor();
+            interest = downsample(interest, downFactor);
+            getPreprocessingOutput().setNSlices(interest.getNSlices());
+
+            /*
+             * convert to time derivative
+             */
+            interest = toTimeDerivativeImage(interest);
+        }
         
         /*
          * save pre-processed image
          */
         saveImage(interest);
 
+        /*
+         * save time series for out-of-core clustering
+         */
+        if (saveTimeSeriesMatrix)
+            saveTimeSeriesMatrix(interest);
+
         /*
          * construct time derivative matrix from pre-processed image
          */
@@ -304,25 +408,51 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
          */
         saveTimeDerivativeMatrix();
 
-        if (saveRaw)
-            getPreprocessingInput().getRawImage().flush();
-        if (saveRoi && tissueROI.getFileName() != null) {
-        	String pureName = tissueROI.getFileName().toString();
-            String completeName = tissueROI.getFileName().toString();
-            completeName += "_" + tissueROI.getData(ROIData.class).getName() + "_roiFile.roi";
-            tissueROI.setFileName(Paths.get(completeName));
-            tissueROI.flush();
-            tissueROI.setFileName(Paths.get(pureName));
-        }
+        saveInputs(rawImageData, roiData);
 
         interest.close();
 
-        getPreprocessingInput().getRawImage().setData(null);
+        System.out.println("Finished pre-processing for " + sample);
+    }
 
-        IJ.freeMemory();
-        System.gc();
+    /**
+     * Saves the raw image and the ROI if they were requested
+     *
+     * @param rawImageData the raw image or null if it was not loaded completely
+     * @param roiData      the ROI
+     */
+    private void saveInputs(HyperstackData rawImageData, ROIData roiData) {
+        MCATDataSlot rawImage = getPreprocessingInput().getRawImage();
+        MCATDataSlot tissueROI = getPreprocessingInput().getTissueROI();
+        if (saveRaw) {
+            if (rawImageData != null) {
+                rawImage.flush(rawImageData, rawImage.getFileName());
+            } else {
+                // The image was not loaded completely. Copy the file instead.
+                HyperstackFromTifDataProvider rawImageFile = (HyperstackFromTifDataProvider) rawImage.getCurrentProvider();
+                rawImage.flush((folder, fileName) -> rawImageFile.copyTo(folder.resolve(fileName)), rawImage.getFileName());
+            }
+        }
+        if (saveRoi && tissueROI.getFileName() != null) {
+            String completeName = tissueROI.getFileName().toString();
+            completeName += "_" + roiData.getName() + "_roiFile.roi";
+            tissueROI.flush(roiData, Paths.get(completeName));
+        }
+    }
 
-        System.out.println("Finished pre-processing for " + sample);
+    /**
+     * The raw image and the ROI do not belong to the restored results, as other rows might have requested them.
+     * Save them again if they were requested.
+     */
+    @Override
+    public void flushRestoredResults() {
+        if (!saveRaw && !saveRoi)
+            return;
+        MCATDataProvider rawImageProvider = getPreprocessingInput().getRawImage().getCurrentProvider();
+        HyperstackData rawImageData = saveRaw && !(rawImageProvider instanceof HyperstackFromTifDataProvider) ?
+                (HyperstackData) rawImageProvider.get() : null;
+        Roi tissueRoi = ((ROIData) getPreprocessingInput().getTissueROI().getCurrentProvider().get()).getRoi();
+        saveInputs(rawImageData, new ROIData(tissueRoi, tissueRoi.getName()));
     }
 
     @Override
@@ -330,6 +460,86 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
         return "preprocessing";
     }
 
+    @Override
+    public List<MCATDataSlot> getOutputSlots() {
+        if (saveTimeSeriesMatrix) {
+            return Arrays.asList(getPreprocessingOutput().getPreprocessedImage(), getPreprocessingOutput().getDerivativeMatrix(),
+                    getPreprocessingOutput().getTimeSeriesMatrix());
+        }
+        return Arrays.asList(getPreprocessingOutput().getPreprocessedImage(), getPreprocessingOutput().getDerivativeMatrix());
+    }
+
+    @Override
+    public void addFingerprintEntries(List<String> entries) {
+        entries.add("time-series-matrix=" + saveTimeSeriesMatrix);
+    }
+
+    @Override
+    public void saveResultState(ObjectNode state) {
+        state.put("n-slices", getPreprocessingOutput().getNSlices());
+    }
+
+    @Override
+    public void loadResultState(JsonNode state) {
+        getPreprocessingOutput().setNSlices(state.get("n-slices").asInt());
+    }
+
+    /**
+     * Estimates the peak memory from the TIFF header of the raw image.
+     * The raw hyperstack is held three times (raw image, the duplicate passed to the channel splitter and the split
+     * channels). If only the required channels and frames can be read from the file, they are held once instead.
+     * The channel of interest is held twice as 32-bit stack during registration and z-transformation.
+     * The downsampled stack is held three times while calculating the derivative image, followed by the derivative
+     * matrix that stores one double per pixel and time point.
+     *
+     * @return estimated peak memory in bytes
+     */
+    @Override
+    public long estimateMemoryFootprint() {
+        MCATDataProvider provider = getPreprocessingInput().getRawImage().getCurrentProvider();
+        if (!(provider instanceof FileDataProvider) || !provider.isValid())
+            return 0;
+        Path filePath = ((FileDataProvider) provider).getFilePath();
+
+        FileInfo[] info;
+        try {
+            info = ImageJUtils.readTiffHeader(filePath);
+        } catch (Exception e) {
+            System.err.println("Unable to read TIFF header of " + filePath + ": " + e.getMessage());
+            try {
+                return UNKNOWN_HEADER_FILE_SIZE_FACTOR * Files.size(filePath);
+            } catch (IOException e1) {
+                return 0;
+            }
+        }
+
+        long pixels = (long) info[0].width * info[0].height;
+        long planes = ImageJUtils.getTiffPlaneCount(info);
+        long channels = Math.max(1, ImageJUtils.getTiffDescriptionProperty(info[0], "channels", 1));
+        long frames = Math.max(1, planes / channels);
+        if (getPreprocessingParameters().getMinTime() != MCATPreprocessingParameters.MIN_TIME_DEFAULT ||
+                getPreprocessingParameters().getMaxTime() != MCATPreprocessingParameters.MAX_TIME_DEFAULT) {
+            frames = Math.max(1, Math.min(frames, getPreprocessingParameters().getMaxTime()) - getPreprocessingParameters().getMinTime() + 1);
+        }
+        long downsampledFrames = Math.max(1, frames / Math.max(1, getPreprocessingParameters().getDownsamplingFactor()));
+
+        long rawBytes;
+        if (provider instanceof HyperstackFromTifDataProvider && TiffHyperstackReader.getUnsupportedReason(info) == null) {
+            long readChannels = IntStream.of(getPreprocessingParameters().getAnatomicChannel(), getPreprocessingParameters().getChannelOfInterest())
+                    .filter(channel -> channel > 0 && channel <= channels)
+                    .distinct()
+                    .count();
+            rawBytes = pixels * frames * readChannels * info[0].getBytesPerPixel();
+        } else {
+            rawBytes = 3 * pixels * planes * info[0].getBytesPerPixel();
+        }
+        long channelBytes = pixels * frames * Float.BYTES;
+        long downsampledBytes = pixels * downsampledFrames * Float.BYTES;
+        long matrixBytes = pixels * (downsampledFrames * Double.BYTES + ARRAY_HEADER_BYTES);
+
+        return rawBytes + 2 * channelBytes + 3 * downsampledBytes + matrixBytes;
+    }
+
     @Override
     public void reportValidity(MCATValidityReport report) {
 
@@ -346,4 +556,44 @@ public class MCATPreprocessingAlgorithm extends MCATAlgorithm {
     public MCATPreprocessingParameters getPreprocessingParameters() {
         return preprocessingParameters;
     }
+
+    public boolean isSaveRawImage() {
+        return saveRaw;
+    }
+
+    /**
+     * Sets if the raw image is copied into the output folder.
+     * The raw image is not part of the preprocessing parameters, so rows that only differ in this flag share the algorithm.
+     *
+     * @param saveRawImage if the raw image is saved
+     */
+    public void setSaveRawImage(boolean saveRawImage) {
+        this.saveRaw = saveRawImage;
+    }
+
+    public boolean isSaveRoi() {
+        return saveRoi;
+    }
+
+    /**
+     * Sets if the ROI is saved into the output folder
+     *
+     * @param saveRoi if the ROI is saved
+     */
+    public void setSaveRoi(boolean saveRoi) {
+        this.saveRoi = saveRoi;
+    }
+
+    public boolean isSaveTimeSeriesMatrix() {
+        return saveTimeSeriesMatrix;
+    }
+
+    /**
+     * Sets if the time series are additionally written as time series matrix for out-of-core clustering
+     *
+     * @param saveTimeSeriesMatrix if the time series matrix is written
+     */
+    public void setSaveTimeSeriesMatrix(boolean saveTimeSeriesMatrix) {
+        this.saveTimeSeriesMatrix = saveTimeSeriesMatrix;
+    }
 }
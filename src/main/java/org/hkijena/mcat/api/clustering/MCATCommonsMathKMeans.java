@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.List;
+
+import org.apache.commons.math3.ml.clustering.CentroidCluster;
+import org.apache.commons.math3.ml.clustering.DoublePoint;
+import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
+import org.apache.commons.math3.ml.distance.EuclideanDistance;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Runs the {@link KMeansPlusPlusClusterer} of Apache Commons Math on the points of the matrix.
+ * Only {@link MCATTimeSeriesMatrix} sources are supported, as the points of the matrix are created once and shared by
+ * all restarts. Other sources such as memory-mapped matrices would have to be copied by each restart.
+ */
+public class MCATCommonsMathKMeans implements MCATKMeansClusterer {
+
+    private final int maxIterations;
+
+    /**
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     */
+    public MCATCommonsMathKMeans(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    public MCATKMeansResult cluster(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        if (!supportsSource(matrix))
+            throw new IllegalArgumentException("The Apache Commons Math k-means engine only supports in-memory time series matrices!");
+        KMeansPlusPlusClusterer<DoublePoint> kmpp = new KMeansPlusPlusClusterer<>(k, maxIterations, new EuclideanDistance(), random);
+        List<CentroidCluster<DoublePoint>> clusters = kmpp.cluster(((MCATTimeSeriesMatrix) matrix).getPoints());
+        double[][] centers = new double[clusters.size()][];
+        for (int i = 0; i < clusters.size(); i++) {
+            centers[i] = clusters.get(i).getCenter().getPoint();
+        }
+        return new MCATKMeansResult(centers, MCATKMeansUtils.computeCost(matrix, centers));
+    }
+
+    @Override
+    public boolean supportsSource(MCATTimeSeriesSource source) {
+        return source instanceof MCATTimeSeriesMatrix;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+}
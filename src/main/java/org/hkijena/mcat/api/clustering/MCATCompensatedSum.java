@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+/**
+ * Sums up values with the compensated summation by Kahan, in the variant by Neumaier.
+ * The rounding error does not grow with the number of values, so sums over many rows keep their precision.
+ * The result only depends on the order in which the values are added.
+ */
+public class MCATCompensatedSum {
+
+    private double sum;
+    private double compensation;
+
+    /**
+     * Adds a value
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+        double result = sum + value;
+        if (Math.abs(sum) >= Math.abs(value))
+            compensation += (sum - result) + value;
+        else
+            compensation += (value - result) + sum;
+        sum = result;
+    }
+
+    /**
+     * @return the sum of all values that were added
+     */
+    public double getSum() {
+        // The compensation is undefined once the sum has overflowed
+        return Double.isFinite(sum) ? sum + compensation : sum;
+    }
+}
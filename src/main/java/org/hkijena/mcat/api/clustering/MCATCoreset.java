@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * A small weighted set of time series whose k-means cost approximates the cost of all time series of a
+ * {@link MCATTimeSeriesSource} for any set of centers.
+ * The coreset is built with sensitivity sampling (lightweight coresets, Bachem et al., 2018): each row is drawn with a
+ * probability that is half uniform and half proportional to its squared distance to the mean of its data set, and is
+ * weighted with the inverse of its expected number of draws. The error of the cost shrinks with the square root of
+ * the coreset size.
+ * <p>
+ * Each data set gets its own coreset with a share of the rows that is proportional to its number of rows. The data sets
+ * are sampled in parallel with random generators that are derived from the seed and the data set index, so the result
+ * does not depend on the number of threads. Data sets with no more rows than their share are copied with weight 1.
+ * The union of the coresets of the data sets is a coreset of all rows. Within a data set, the sampled rows keep their order.
+ */
+public class MCATCoreset implements MCATTimeSeriesSource {
+
+    private final MCATTimeSeriesMatrix matrix;
+    private final double[] weights;
+
+    /**
+     * @param matrix  the rows of the coreset
+     * @param weights the weight of each row
+     */
+    public MCATCoreset(MCATTimeSeriesMatrix matrix, double[] weights) {
+        if (weights.length != matrix.getRowCount())
+            throw new IllegalArgumentException("Expected " + matrix.getRowCount() + " weights, but got " + weights.length + "!");
+        this.matrix = matrix;
+        this.weights = weights;
+    }
+
+    /**
+     * Builds a coreset of all rows of a source.
+     * Data sets are processed in parallel if the caller runs in a {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param source the time series
+     * @param size   the number of rows that are drawn. Rows that are drawn multiple times are merged.
+     * @param seed   the seed
+     * @return the coreset
+     */
+    public static MCATCoreset build(MCATTimeSeriesSource source, int size, long seed) {
+        if (size <= 0)
+            throw new IllegalArgumentException("The coreset size must be positive!");
+        List<String> dataSetNames = source.getDataSetNames();
+        int columnCount = source.getColumnCount();
+        double[][][] dataSetRows = new double[dataSetNames.size()][][];
+        double[][] dataSetWeights = new double[dataSetNames.size()][];
+        MCATKMeansUtils.forEachBlock(dataSetNames.size(), dataSet -> {
+            String dataSetName = dataSetNames.get(dataSet);
+            int firstRow = source.getFirstRow(dataSetName);
+            int rowCount = source.getWidth(dataSetName) * source.getHeight(dataSetName);
+            int sampleCount = (int) Math.max(1, Math.round((double) size * rowCount / source.getRowCount()));
+            double[] rowWeights = new double[rowCount];
+            if (sampleCount >= rowCount) {
+                for (int i = 0; i < rowCount; i++) {
+                    rowWeights[i] = source.getWeight(firstRow + i);
+                }
+            } else {
+                RandomGenerator random = new Well19937c(new int[]{(int) (seed >>> 32), (int) seed, dataSet});
+                sample(source, firstRow, sampleCount, random, rowWeights);
+            }
+
+            int count = 0;
+            for (double weight : rowWeights) {
+                if (weight > 0)
+                    ++count;
+            }
+            dataSetRows[dataSet] = new double[count][columnCount];
+            dataSetWeights[dataSet] = new double[count];
+            count = 0;
+            for (int i = 0; i < rowCount; i++) {
+                if (rowWeights[i] > 0) {
+                    source.copyRow(firstRow + i, dataSetRows[dataSet][count]);
+                    dataSetWeights[dataSet][count] = rowWeights[i];
+                    ++count;
+                }
+            }
+        });
+
+        Map<String, double[][]> rows = new LinkedHashMap<>();
+        int coresetSize = 0;
+        for (int dataSet = 0; dataSet < dataSetNames.size(); dataSet++) {
+            rows.put(dataSetNames.get(dataSet), dataSetRows[dataSet]);
+            coresetSize += dataSetRows[dataSet].length;
+        }
+        double[] weights = new double[coresetSize];
+        int offset = 0;
+        for (double[] dataSetWeight : dataSetWeights) {
+            System.arraycopy(dataSetWeight, 0, weights, offset, dataSetWeight.length);
+            offset += dataSetWeight.length;
+        }
+        return new MCATCoreset(MCATTimeSeriesMatrix.fromRows(rows, columnCount), weights);
+    }
+
+    /**
+     * Draws rows of one data set with replacement by their sensitivity
+     *
+     * @param source      the time series
+     * @param firstRow    the first row of the data set
+     * @param sampleCount the number of draws
+     * @param random      the random generator
+     * @param weights     receives the coreset weight of each row of the data set. Rows that were not drawn keep their weight of 0.
+     */
+    private static void sample(MCATTimeSeriesSource source, int firstRow, int sampleCount, RandomGenerator random, double[] weights) {
+        int rowCount = weights.length;
+        int columnCount = source.getColumnCount();
+        double[] mean = new double[columnCount];
+        double totalWeight = 0;
+        double[] values = new double[columnCount];
+        for (int row = firstRow; row < firstRow + rowCount; row++) {
+            double weight = source.getWeight(row);
+            source.copyRow(row, values);
+            for (int column = 0; column < columnCount; column++) {
+                mean[column] += weight * values[column];
+            }
+            totalWeight += weight;
+        }
+        for (int column = 0; column < columnCount; column++) {
+            mean[column] /= totalWeight;
+        }
+
+        double[] distances = new double[rowCount];
+        double totalDistance = 0;
+        for (int i = 0; i < rowCount; i++) {
+            distances[i] = source.getWeight(firstRow + i) * source.squaredDistance(firstRow + i, mean);
+            totalDistance += distances[i];
+        }
+
+        // Cumulative probabilities
+        double[] probabilities = new double[rowCount];
+        double[] cumulative = new double[rowCount];
+        double sum = 0;
+        for (int i = 0; i < rowCount; i++) {
+            double uniform = source.getWeight(firstRow + i) / totalWeight;
+            probabilities[i] = totalDistance > 0 ? 0.5 * uniform + 0.5 * distances[i] / totalDistance : uniform;
+            sum += probabilities[i];
+            cumulative[i] = sum;
+        }
+
+        double[] draws = new double[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            draws[i] = random.nextDouble() * sum;
+        }
+        Arrays.sort(draws);
+
+        int i = 0;
+        for (double draw : draws) {
+            while (i < rowCount - 1 && cumulative[i] <= draw) {
+                ++i;
+            }
+            // Each draw estimates the weighted cost of all rows
+            weights[i] += source.getWeight(firstRow + i) / (sampleCount * probabilities[i] / sum);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return matrix.getRowCount();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return matrix.getColumnCount();
+    }
+
+    @Override
+    public void copyRow(int row, double[] target) {
+        matrix.copyRow(row, target);
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] point) {
+        return matrix.squaredDistance(row, point);
+    }
+
+    @Override
+    public void addRow(int row, double[] target, int offset) {
+        matrix.addRow(row, target, offset);
+    }
+
+    @Override
+    public double getWeight(int row) {
+        return weights[row];
+    }
+
+    /**
+     * @return the data sets. Each data set has a width of 1 and a height of its number of coreset rows.
+     */
+    @Override
+    public List<String> getDataSetNames() {
+        return matrix.getDataSetNames();
+    }
+
+    @Override
+    public int getFirstRow(String dataSetName) {
+        return matrix.getFirstRow(dataSetName);
+    }
+
+    @Override
+    public int getWidth(String dataSetName) {
+        return matrix.getWidth(dataSetName);
+    }
+
+    @Override
+    public int getHeight(String dataSetName) {
+        return matrix.getHeight(dataSetName);
+    }
+
+    /**
+     * @return the sum of the weights of all rows. Approximates the number of rows of the original source.
+     */
+    public double getTotalWeight() {
+        double result = 0;
+        for (double weight : weights) {
+            result += weight;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * k-means clustering with dynamic time warping (DTW) distances, so time series with the same shape that are shifted in
+ * time end up in the same cluster. The distances are calculated by {@link MCATDynamicTimeWarping} within a Sakoe-Chiba
+ * band of a window relative to the length of the time series.
+ * <p>
+ * Rows are assigned to the center with the smallest DTW distance. The distance to the previous center of a row is
+ * calculated first, so lower bounds reject most other centers. The centers are moved with one step of DTW barycenter
+ * averaging (DBA) per iteration: each time point of a center becomes the weighted mean of all values of its members
+ * that are aligned with it. As the alignment with the previous center is already known from the assignment, this
+ * step is cheap. Each block of rows sums up its members into its own accumulators, which are combined in block order,
+ * so the result does not depend on the number of threads.
+ * <p>
+ * The initial cluster centers are chosen by a {@link MCATKMeansInitializer} with Euclidean distances.
+ * The algorithm stops once no row changes its center or the sum of the squared DTW distances decreases by less than
+ * {@link #TOLERANCE} per iteration. Late DBA steps only refine the centers slightly, so this needs far fewer iterations
+ * than waiting until no row changes its center.
+ * A cluster that loses all its members is moved to the row that is farthest from its center.
+ * The rows are weighted with {@link MCATTimeSeriesSource#getWeight(int)}, so the algorithm can be run on a coreset.
+ */
+public class MCATDTWKMeans implements MCATKMeansClusterer {
+
+    /**
+     * Relative decrease of the sum of the squared DTW distances below which the DBA steps are stopped
+     */
+    public static final double TOLERANCE = 1e-3;
+
+    private final int maxIterations;
+    private final MCATKMeansInitializer initializer;
+    private final int windowPercent;
+
+    /**
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     * @param initializer   chooses the initial cluster centers
+     * @param windowPercent the maximum shift of matched time points in percent of the length of the time series
+     */
+    public MCATDTWKMeans(int maxIterations, MCATKMeansInitializer initializer, int windowPercent) {
+        this.maxIterations = maxIterations;
+        this.initializer = initializer;
+        this.windowPercent = windowPercent;
+    }
+
+    @Override
+    public MCATKMeansResult cluster(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        int columnCount = matrix.getColumnCount();
+        if (rowCount < k)
+            throw new IllegalArgumentException("Cannot create " + k + " clusters from " + rowCount + " time series!");
+
+        double[][] centers = initializer.chooseInitialCenters(matrix, k, random);
+        int window = MCATDynamicTimeWarping.getWindow(columnCount, windowPercent);
+        int[] assignments = new int[rowCount];
+        Arrays.fill(assignments, -1);
+        double[] distances = new double[rowCount];
+        int blockCount = MCATKMeansUtils.getBlockCount(rowCount);
+        double[][] blockSums = new double[blockCount][k * columnCount];
+        double[][] blockWeights = new double[blockCount][k * columnCount];
+        double[] blockSquaredCosts = new double[blockCount];
+        double[] blockCosts = new double[blockCount];
+        boolean[] blockChanged = new boolean[blockCount];
+        double previousSquaredCost = Double.POSITIVE_INFINITY;
+
+        for (int iteration = 0; iteration <= maxIterations; iteration++) {
+            MCATDynamicTimeWarping dynamicTimeWarping = new MCATDynamicTimeWarping(centers, window);
+            MCATKMeansUtils.forEachBlock(blockCount, block -> {
+                double[] sums = blockSums[block];
+                double[] weights = blockWeights[block];
+                Arrays.fill(sums, 0);
+                Arrays.fill(weights, 0);
+                MCATDynamicTimeWarping.Workspace workspace = dynamicTimeWarping.createWorkspace();
+                double[] values = new double[columnCount];
+                boolean changed = false;
+                MCATCompensatedSum squaredCost = new MCATCompensatedSum();
+                MCATCompensatedSum cost = new MCATCompensatedSum();
+                for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                    matrix.copyRow(row, values);
+                    int closest = dynamicTimeWarping.findClosestCenter(values, assignments[row], workspace);
+                    if (assignments[row] != closest) {
+                        assignments[row] = closest;
+                        changed = true;
+                    }
+                    double distance = workspace.getDistance();
+                    double weight = matrix.getWeight(row);
+                    distances[row] = distance;
+                    squaredCost.add(weight * distance * distance);
+                    cost.add(weight * distance);
+                    dynamicTimeWarping.align(values, closest, weight, sums, weights, workspace);
+                }
+                blockChanged[block] = changed;
+                blockSquaredCosts[block] = squaredCost.getSum();
+                blockCosts[block] = cost.getSum();
+            });
+
+            boolean changed = false;
+            for (boolean value : blockChanged) {
+                changed |= value;
+            }
+            double squaredCost = MCATKMeansUtils.sum(blockSquaredCosts);
+            if (!changed || previousSquaredCost - squaredCost <= TOLERANCE * squaredCost || iteration == maxIterations)
+                break;
+            previousSquaredCost = squaredCost;
+
+            double[] sums = MCATKMeansUtils.sumBlocks(blockSums);
+            double[] weights = MCATKMeansUtils.sumBlocks(blockWeights);
+            for (int i = 0; i < k; i++) {
+                double[] center = centers[i];
+                for (int column = 0; column < columnCount; column++) {
+                    if (weights[i * columnCount + column] > 0)
+                        center[column] = sums[i * columnCount + column] / weights[i * columnCount + column];
+                }
+            }
+            for (int i = 0; i < k; i++) {
+                // The first time point of a center is aligned with all its members
+                if (isEmpty(blockWeights, i * columnCount))
+                    moveToFarthestRow(matrix, centers, assignments, distances, i);
+            }
+        }
+
+        return new MCATKMeansResult(centers, MCATKMeansUtils.sum(blockCosts));
+    }
+
+    private static boolean isEmpty(double[][] blockWeights, int index) {
+        for (double[] weights : blockWeights) {
+            if (weights[index] > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves an empty cluster to the row with the largest distance to its assigned center
+     */
+    private static void moveToFarthestRow(MCATTimeSeriesSource matrix, double[][] centers, int[] assignments, double[] distances, int cluster) {
+        int farthest = 0;
+        for (int row = 1; row < distances.length; row++) {
+            if (distances[row] > distances[farthest])
+                farthest = row;
+        }
+        matrix.copyRow(farthest, centers[cluster]);
+        assignments[farthest] = cluster;
+        distances[farthest] = 0;
+    }
+
+    @Override
+    public boolean supportsWeights() {
+        return true;
+    }
+
+    @Override
+    public MCATDistanceMeasure getDistanceMeasure() {
+        return MCATDistanceMeasure.DTW;
+    }
+
+    @Override
+    public MCATDistanceKernel createDistanceKernel(double[][] centers) {
+        return new MCATDistanceKernel(centers, MCATDistanceMeasure.DTW, MCATDynamicTimeWarping.getWindow(centers[0].length, windowPercent));
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public MCATKMeansInitializer getInitializer() {
+        return initializer;
+    }
+
+    public int getWindowPercent() {
+        return windowPercent;
+    }
+}
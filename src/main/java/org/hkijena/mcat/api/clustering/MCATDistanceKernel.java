@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Calculates the distances between the rows of a {@link MCATTimeSeriesSource} and a fixed set of cluster centers.
+ * Instead of comparing each row with each center element by element, the rows are copied in tiles of
+ * {@link #TILE_SIZE} rows and the dot products of all rows of a tile with all centers are calculated like a small matrix
+ * product, with four centers per pass over a row. The distances follow from the dot products and the norms:
+ * ||x - c||² = ||x||² - 2 x·c + ||c||². The norms of the centers are calculated once, the norms of the rows once per tile.
+ * <p>
+ * Cosine and correlation distances are derived from the same dot products and norms. The correlation subtracts the means
+ * with the sums of the row and the center: (x - mean(x))·(c - mean(c)) = x·c - sum(x) sum(c) / n.
+ * <p>
+ * The expanded Euclidean distance suffers from rounding errors if a row is close to a center. Therefore, the closest
+ * center and all centers whose distance is within a small margin are compared again element by element, so the result
+ * is exactly the same as {@link MCATKMeansUtils#findClosestCenter(MCATTimeSeriesSource, int, double[][])}.
+ * <p>
+ * Dynamic time warping distances cannot be expanded into dot products. They are calculated row by row by a
+ * {@link MCATDynamicTimeWarping} instance, which skips most centers with lower bounds.
+ * Instances are immutable and can be used by multiple threads.
+ */
+public class MCATDistanceKernel {
+
+    /**
+     * Number of rows whose dot products are calculated together
+     */
+    public static final int TILE_SIZE = 32;
+
+    /**
+     * Relative margin of the expanded squared Euclidean distances within which centers are compared element by element
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    private final MCATDistanceMeasure measure;
+    private final double[][] centers;
+    private final int columnCount;
+    private final double[] packedCenters;
+    private final double[] centerSquaredNorms;
+    private final double[] centerSums;
+    private final double[] centerNorms;
+    private final double maxCenterSquaredNorm;
+    private final MCATDynamicTimeWarping dynamicTimeWarping;
+
+    /**
+     * Creates a kernel whose dynamic time warping distances are not restricted to a window
+     *
+     * @param centers the centers. Must not be changed while the kernel is used.
+     * @param measure the distance measure
+     */
+    public MCATDistanceKernel(double[][] centers, MCATDistanceMeasure measure) {
+        this(centers, measure, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param centers       the centers. Must not be changed while the kernel is used.
+     * @param measure       the distance measure
+     * @param warpingWindow the window of dynamic time warping distances in time points. Ignored by other distance measures.
+     */
+    public MCATDistanceKernel(double[][] centers, MCATDistanceMeasure measure, int warpingWindow) {
+        this.measure = measure;
+        this.centers = centers;
+        this.columnCount = centers[0].length;
+        packedCenters = new double[centers.length * columnCount];
+        centerSquaredNorms = new double[centers.length];
+        centerSums = new double[centers.length];
+        centerNorms = new double[centers.length];
+        double maxSquaredNorm = 0;
+        for (int i = 0; i < centers.length; i++) {
+            System.arraycopy(centers[i], 0, packedCenters, i * columnCount, columnCount);
+            for (double value : centers[i]) {
+                centerSquaredNorms[i] += value * value;
+                centerSums[i] += value;
+            }
+            centerNorms[i] = getNorm(centerSquaredNorms[i], centerSums[i]);
+            maxSquaredNorm = Math.max(maxSquaredNorm, centerSquaredNorms[i]);
+        }
+        maxCenterSquaredNorm = maxSquaredNorm;
+        dynamicTimeWarping = measure == MCATDistanceMeasure.DTW ? new MCATDynamicTimeWarping(centers, warpingWindow) : null;
+    }
+
+    /**
+     * Finds the closest center of consecutive rows
+     *
+     * @param source    the rows
+     * @param firstRow  the first row
+     * @param endRow    the row after the last row
+     * @param closest   receives the index of the closest center of row firstRow + i at index i.
+     *                  If multiple centers have the same distance, the first one is chosen.
+     * @param distances receives the distance of row firstRow + i to its closest center at index i. Can be null.
+     */
+    public void assign(MCATTimeSeriesSource source, int firstRow, int endRow, int[] closest, double[] distances) {
+        int k = centers.length;
+        double[] row = new double[columnCount];
+        if (dynamicTimeWarping != null) {
+            MCATDynamicTimeWarping.Workspace workspace = dynamicTimeWarping.createWorkspace();
+            for (int i = firstRow; i < endRow; i++) {
+                source.copyRow(i, row);
+                closest[i - firstRow] = dynamicTimeWarping.findClosestCenter(row, -1, workspace);
+                if (distances != null)
+                    distances[i - firstRow] = workspace.getDistance();
+            }
+            return;
+        }
+        double[] tile = new double[TILE_SIZE * columnCount];
+        double[] rowSquaredNorms = new double[TILE_SIZE];
+        double[] rowSums = new double[TILE_SIZE];
+        double[] dotProducts = new double[TILE_SIZE * k];
+        for (int tileStart = firstRow; tileStart < endRow; tileStart += TILE_SIZE) {
+            int tileRows = Math.min(TILE_SIZE, endRow - tileStart);
+            for (int i = 0; i < tileRows; i++) {
+                source.copyRow(tileStart + i, row);
+                System.arraycopy(row, 0, tile, i * columnCount, columnCount);
+                double squaredNorm = 0;
+                double sum = 0;
+                for (double value : row) {
+                    squaredNorm += value * value;
+                    sum += value;
+                }
+                rowSquaredNorms[i] = squaredNorm;
+                rowSums[i] = sum;
+            }
+            computeDotProducts(tile, tileRows, dotProducts);
+
+            for (int i = 0; i < tileRows; i++) {
+                int best = 0;
+                double bestDistance = Double.POSITIVE_INFINITY;
+                for (int center = 0; center < k; center++) {
+                    double distance = getDistance(rowSquaredNorms[i], rowSums[i], dotProducts[i * k + center], center);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = center;
+                    }
+                }
+                if (measure == MCATDistanceMeasure.Euclidean) {
+                    int rowIndex = tileStart + i;
+                    double margin = 2 * TOLERANCE * (rowSquaredNorms[i] + maxCenterSquaredNorm);
+                    double threshold = bestDistance + margin;
+                    best = -1;
+                    bestDistance = Double.POSITIVE_INFINITY;
+                    for (int center = 0; center < k; center++) {
+                        if (getDistance(rowSquaredNorms[i], rowSums[i], dotProducts[i * k + center], center) <= threshold) {
+                            double distance = source.squaredDistance(rowIndex, centers[center]);
+                            if (distance < bestDistance) {
+                                bestDistance = distance;
+                                best = center;
+                            }
+                        }
+                    }
+                    bestDistance = Math.sqrt(bestDistance);
+                }
+                closest[tileStart + i - firstRow] = best;
+                if (distances != null)
+                    distances[tileStart + i - firstRow] = bestDistance;
+            }
+        }
+    }
+
+    /**
+     * Calculates the distance of a row to a center element by element
+     *
+     * @param source the rows
+     * @param row    the row
+     * @param center index of the center
+     * @return the distance
+     */
+    public double getDistance(MCATTimeSeriesSource source, int row, int center) {
+        if (measure == MCATDistanceMeasure.Euclidean)
+            return Math.sqrt(source.squaredDistance(row, centers[center]));
+        double[] values = new double[columnCount];
+        source.copyRow(row, values);
+        if (dynamicTimeWarping != null)
+            return dynamicTimeWarping.getDistance(values, center, dynamicTimeWarping.createWorkspace());
+        double squaredNorm = 0;
+        double sum = 0;
+        double dotProduct = 0;
+        for (int column = 0; column < columnCount; column++) {
+            squaredNorm += values[column] * values[column];
+            sum += values[column];
+            dotProduct += values[column] * centers[center][column];
+        }
+        return getDistance(squaredNorm, sum, dotProduct, center);
+    }
+
+    /**
+     * Calculates the norm of a row or center that is used by cosine and correlation distances
+     */
+    private double getNorm(double squaredNorm, double sum) {
+        if (measure == MCATDistanceMeasure.Correlation)
+            return Math.sqrt(Math.max(0, squaredNorm - sum * sum / columnCount));
+        return Math.sqrt(squaredNorm);
+    }
+
+    /**
+     * Calculates a distance from the dot product. Euclidean distances are returned squared.
+     * Rows and centers without variation have a cosine or correlation distance of 1 to all others.
+     */
+    private double getDistance(double rowSquaredNorm, double rowSum, double dotProduct, int center) {
+        switch (measure) {
+            case Euclidean:
+                return Math.max(0, rowSquaredNorm - 2 * dotProduct + centerSquaredNorms[center]);
+            case Cosine: {
+                double norms = getNorm(rowSquaredNorm, rowSum) * centerNorms[center];
+                return norms > 0 ? 1 - dotProduct / norms : 1;
+            }
+            case Correlation: {
+                double norms = getNorm(rowSquaredNorm, rowSum) * centerNorms[center];
+                return norms > 0 ? 1 - (dotProduct - rowSum * centerSums[center] / columnCount) / norms : 1;
+            }
+            default:
+                throw new UnsupportedOperationException("Unsupported distance measure " + measure);
+        }
+    }
+
+    /**
+     * Calculates the dot products of the rows of a tile with all centers.
+     * Four centers are processed per pass over a row, so each value of the row is loaded once for four products.
+     */
+    private void computeDotProducts(double[] tile, int tileRows, double[] dotProducts) {
+        int k = centers.length;
+        int center = 0;
+        for (; center + 4 <= k; center += 4) {
+            int offset0 = center * columnCount;
+            int offset1 = offset0 + columnCount;
+            int offset2 = offset1 + columnCount;
+            int offset3 = offset2 + columnCount;
+            for (int i = 0; i < tileRows; i++) {
+                int rowOffset = i * columnCount;
+                double sum0 = 0;
+                double sum1 = 0;
+                double sum2 = 0;
+                double sum3 = 0;
+                for (int column = 0; column < columnCount; column++) {
+                    double value = tile[rowOffset + column];
+                    sum0 += value * packedCenters[offset0 + column];
+                    sum1 += value * packedCenters[offset1 + column];
+                    sum2 += value * packedCenters[offset2 + column];
+                    sum3 += value * packedCenters[offset3 + column];
+                }
+                dotProducts[i * k + center] = sum0;
+                dotProducts[i * k + center + 1] = sum1;
+                dotProducts[i * k + center + 2] = sum2;
+                dotProducts[i * k + center + 3] = sum3;
+            }
+        }
+        for (; center < k; center++) {
+            int offset = center * columnCount;
+            for (int i = 0; i < tileRows; i++) {
+                int rowOffset = i * columnCount;
+                double sum = 0;
+                for (int column = 0; column < columnCount; column++) {
+                    sum += tile[rowOffset + column] * packedCenters[offset + column];
+                }
+                dotProducts[i * k + center] = sum;
+            }
+        }
+    }
+
+    /**
+     * Calculates the norms of all rows that scale their contribution to the cluster centers.
+     * For cosine distances, this is the Euclidean norm. For correlation distances, it is the norm of the row minus its mean.
+     * Rows are processed in parallel blocks if the caller runs in a {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param source  the rows
+     * @param measure the distance measure
+     * @return the norm of each row
+     */
+    public static double[] computeRowNorms(MCATTimeSeriesSource source, MCATDistanceMeasure measure) {
+        int rowCount = source.getRowCount();
+        int columnCount = source.getColumnCount();
+        double[] result = new double[rowCount];
+        MCATKMeansUtils.forEachBlock(MCATKMeansUtils.getBlockCount(rowCount), block -> {
+            double[] row = new double[columnCount];
+            for (int i = MCATKMeansUtils.getBlockStart(block); i < MCATKMeansUtils.getBlockEnd(block, rowCount); i++) {
+                source.copyRow(i, row);
+                double squaredNorm = 0;
+                double sum = 0;
+                for (double value : row) {
+                    squaredNorm += value * value;
+                    sum += value;
+                }
+                if (measure == MCATDistanceMeasure.Correlation)
+                    squaredNorm = Math.max(0, squaredNorm - sum * sum / columnCount);
+                result[i] = Math.sqrt(squaredNorm);
+            }
+        });
+        return result;
+    }
+
+    public MCATDistanceMeasure getMeasure() {
+        return measure;
+    }
+
+    public double[][] getCenters() {
+        return centers;
+    }
+}
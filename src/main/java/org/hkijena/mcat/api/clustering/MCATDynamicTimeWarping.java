@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+/**
+ * Calculates dynamic time warping (DTW) distances between time series and a fixed set of cluster centers.
+ * The warping path is restricted to a Sakoe-Chiba band: time point i of a time series can only be matched with the time
+ * points i - window to i + window of a center. The cost of a path is the sum of the squared differences of the matched
+ * values, and the distance is the square root of the cost of the cheapest path. With a window of 0, the distance is
+ * the Euclidean distance.
+ * <p>
+ * The closest center is found with a cascade of lower bounds, so most centers are rejected without calculating their
+ * DTW distance:
+ * <ul>
+ *     <li>LB_Kim: the first and last time points are always matched with each other</li>
+ *     <li>LB_Keogh: each time point is at least as far from the center as from the envelope of the center within the
+ *     window. The first and last time points use the LB_Kim terms instead, which are tighter.</li>
+ *     <li>Early abandoning: the DTW distance is calculated row by row and abandoned once the cheapest partial path plus
+ *     the LB_Keogh terms of the remaining time points exceeds the distance of the best center so far</li>
+ * </ul>
+ * The DTW alignment of a time series with its center can be added to DBA (DTW barycenter averaging) accumulators:
+ * each time point of the center receives the mean of all values that are aligned with it.
+ * <p>
+ * Instances are immutable and can be used by multiple threads. Each thread needs its own {@link Workspace}.
+ */
+public class MCATDynamicTimeWarping {
+
+    private final double[][] centers;
+    private final int columnCount;
+    private final int window;
+    private final double[][] upperEnvelopes;
+    private final double[][] lowerEnvelopes;
+
+    /**
+     * @param centers the centers. Must not be changed while the instance is used.
+     * @param window  the maximum number of time points a match can be shifted. Larger windows than the length of the
+     *                time series do not constrain the warping path.
+     */
+    public MCATDynamicTimeWarping(double[][] centers, int window) {
+        this.centers = centers;
+        this.columnCount = centers[0].length;
+        this.window = Math.max(0, Math.min(window, columnCount - 1));
+        upperEnvelopes = new double[centers.length][columnCount];
+        lowerEnvelopes = new double[centers.length][columnCount];
+        for (int i = 0; i < centers.length; i++) {
+            for (int column = 0; column < columnCount; column++) {
+                double upper = Double.NEGATIVE_INFINITY;
+                double lower = Double.POSITIVE_INFINITY;
+                for (int other = Math.max(0, column - this.window); other <= Math.min(columnCount - 1, column + this.window); other++) {
+                    upper = Math.max(upper, centers[i][other]);
+                    lower = Math.min(lower, centers[i][other]);
+                }
+                upperEnvelopes[i][column] = upper;
+                lowerEnvelopes[i][column] = lower;
+            }
+        }
+    }
+
+    /**
+     * Converts a window relative to the length of the time series into time points
+     *
+     * @param columnCount   number of time points
+     * @param windowPercent the window in percent of the number of time points
+     * @return the window in time points. Any window above 0% allows a shift of at least one time point.
+     */
+    public static int getWindow(int columnCount, int windowPercent) {
+        return (int) Math.ceil(columnCount * windowPercent / 100.0);
+    }
+
+    /**
+     * Creates the buffers a thread needs to calculate distances
+     *
+     * @return the workspace
+     */
+    public Workspace createWorkspace() {
+        return new Workspace();
+    }
+
+    /**
+     * Finds the center with the smallest DTW distance to a time series.
+     * The distance is available with {@link Workspace#getDistance()} afterwards.
+     * If the previous center is known, its distance is calculated first and all other centers are only checked if
+     * their lower bounds are below it. Ties are resolved in favor of the previous center.
+     * Otherwise, the centers are checked in the order of their LB_Keogh bounds and ties are resolved in favor of the first center.
+     *
+     * @param row       the time series
+     * @param previous  the center the time series was assigned to before or -1
+     * @param workspace the workspace of the current thread
+     * @return the index of the closest center
+     */
+    public int findClosestCenter(double[] row, int previous, Workspace workspace) {
+        int k = centers.length;
+        int closest;
+        double closestCost;
+        if (previous >= 0) {
+            closest = previous;
+            closestCost = computeCostMatrix(row, previous, workspace.costMatrix);
+            workspace.costMatrixCenter = previous;
+            for (int center = 0; center < k; center++) {
+                if (center == previous || getLowerBoundKim(row, center) >= closestCost)
+                    continue;
+                if (getLowerBoundKeogh(row, center, closestCost, workspace.remainingBounds) >= closestCost)
+                    continue;
+                double cost = computeCost(row, center, closestCost, workspace);
+                if (cost < closestCost) {
+                    closestCost = cost;
+                    closest = center;
+                }
+            }
+        } else {
+            workspace.costMatrixCenter = -1;
+            for (int center = 0; center < k; center++) {
+                workspace.bounds[center] = getLowerBoundKeogh(row, center, Double.POSITIVE_INFINITY, null);
+                workspace.order[center] = center;
+            }
+            // Insertion sort keeps centers with the same bound in the order of their indices
+            for (int i = 1; i < k; i++) {
+                int center = workspace.order[i];
+                int j = i - 1;
+                while (j >= 0 && workspace.bounds[workspace.order[j]] > workspace.bounds[center]) {
+                    workspace.order[j + 1] = workspace.order[j];
+                    --j;
+                }
+                workspace.order[j + 1] = center;
+            }
+            closest = -1;
+            closestCost = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < k; i++) {
+                int center = workspace.order[i];
+                if (workspace.bounds[center] > closestCost)
+                    break;
+                getLowerBoundKeogh(row, center, Double.POSITIVE_INFINITY, workspace.remainingBounds);
+                double cost = computeCost(row, center, closestCost, workspace);
+                if (cost < closestCost || (cost == closestCost && center < closest)) {
+                    closestCost = cost;
+                    closest = center;
+                }
+            }
+        }
+        workspace.distance = Math.sqrt(closestCost);
+        return closest;
+    }
+
+    /**
+     * Calculates the DTW distance of a time series to a center
+     *
+     * @param row       the time series
+     * @param center    index of the center
+     * @param workspace the workspace of the current thread
+     * @return the distance
+     */
+    public double getDistance(double[] row, int center, Workspace workspace) {
+        workspace.costMatrixCenter = -1;
+        return Math.sqrt(computeCost(row, center, Double.POSITIVE_INFINITY, null, workspace));
+    }
+
+    /**
+     * Adds the values of a time series to the DBA accumulators of a center. Each value is added to all time points of
+     * the center it is aligned with by the cheapest warping path.
+     * If the time series was passed to {@link #findClosestCenter(double[], int, Workspace)} before, the alignment with
+     * its previous center is not calculated again.
+     *
+     * @param row       the time series
+     * @param center    index of the center
+     * @param weight    the weight of the time series
+     * @param sums      receives the weighted sum of the aligned values of time point t of the center at index center * length + t
+     * @param weights   receives the sum of the weights of the aligned values at the same indices
+     * @param workspace the workspace of the current thread
+     */
+    public void align(double[] row, int center, double weight, double[] sums, double[] weights, Workspace workspace) {
+        double[] costMatrix = workspace.costMatrix;
+        if (workspace.costMatrixCenter != center) {
+            computeCostMatrix(row, center, costMatrix);
+            workspace.costMatrixCenter = center;
+        }
+        int rowLength = getRowLength();
+        int offset = center * columnCount;
+        int i = columnCount - 1;
+        int band = window;
+        while (true) {
+            int j = i + band - window;
+            sums[offset + j] += weight * row[i];
+            weights[offset + j] += weight;
+            if (i == 0) {
+                if (j == 0)
+                    break;
+                --band;
+                continue;
+            }
+            int index = i * rowLength + band + 1;
+            double diagonal = costMatrix[index - rowLength];
+            double up = costMatrix[index - rowLength + 1];
+            double left = costMatrix[index - 1];
+            if (diagonal <= up && diagonal <= left) {
+                --i;
+            } else if (up <= left) {
+                --i;
+                ++band;
+            } else {
+                --band;
+            }
+        }
+    }
+
+    /**
+     * LB_Kim: the first and the last time points are always matched with each other
+     */
+    private double getLowerBoundKim(double[] row, int center) {
+        double[] values = centers[center];
+        double first = row[0] - values[0];
+        if (columnCount == 1)
+            return first * first;
+        double last = row[columnCount - 1] - values[columnCount - 1];
+        return first * first + last * last;
+    }
+
+    /**
+     * LB_Keogh with the LB_Kim terms for the first and the last time point
+     *
+     * @param threshold       the calculation stops once the bound exceeds the threshold
+     * @param remainingBounds if not null and the calculation was not stopped, receives the bound of the time points
+     *                        i to the end at index i
+     * @return the bound or a partial bound that exceeds the threshold
+     */
+    private double getLowerBoundKeogh(double[] row, int center, double threshold, double[] remainingBounds) {
+        double[] values = centers[center];
+        double[] upper = upperEnvelopes[center];
+        double[] lower = lowerEnvelopes[center];
+        double bound = 0;
+        for (int column = 0; column < columnCount; column++) {
+            double value = row[column];
+            double difference;
+            if (column == 0 || column == columnCount - 1)
+                difference = value - values[column];
+            else if (value > upper[column])
+                difference = value - upper[column];
+            else if (value < lower[column])
+                difference = value - lower[column];
+            else
+                difference = 0;
+            bound += difference * difference;
+            if (remainingBounds != null)
+                remainingBounds[column] = difference * difference;
+            if (bound > threshold)
+                return bound;
+        }
+        if (remainingBounds != null) {
+            double remaining = 0;
+            remainingBounds[columnCount] = 0;
+            for (int column = columnCount - 1; column >= 0; column--) {
+                remaining += remainingBounds[column];
+                remainingBounds[column] = remaining;
+            }
+        }
+        return bound;
+    }
+
+    private double computeCost(double[] row, int center, double threshold, Workspace workspace) {
+        return computeCost(row, center, threshold, workspace.remainingBounds, workspace);
+    }
+
+    /**
+     * Calculates the cost of the cheapest warping path with two rows of the cost matrix
+     *
+     * @param threshold       the calculation is abandoned once the cost exceeds the threshold
+     * @param remainingBounds the LB_Keogh bounds of the remaining time points or null
+     * @return the cost or infinity if the calculation was abandoned
+     */
+    private double computeCost(double[] row, int center, double threshold, double[] remainingBounds, Workspace workspace) {
+        double[] values = centers[center];
+        double[] previous = null;
+        double[] current = workspace.previousCosts;
+        double[] next = workspace.currentCosts;
+        boolean abandon = threshold < Double.POSITIVE_INFINITY;
+        for (int i = 0; i < columnCount; i++) {
+            computeRow(row[i], values, i, previous, 0, current, 0);
+            if (abandon) {
+                double minCost = getMinCost(current, i);
+                if (remainingBounds != null)
+                    minCost += remainingBounds[i + 1];
+                if (minCost > threshold)
+                    return Double.POSITIVE_INFINITY;
+            }
+            previous = current;
+            current = next;
+            next = previous;
+        }
+        return previous[window + 1];
+    }
+
+    /**
+     * Calculates the costs of the cheapest warping paths to all cells of the band
+     *
+     * @return the cost of the cheapest warping path
+     */
+    private double computeCostMatrix(double[] row, int center, double[] costMatrix) {
+        double[] values = centers[center];
+        int rowLength = getRowLength();
+        computeRow(row[0], values, 0, null, 0, costMatrix, 0);
+        for (int i = 1; i < columnCount; i++) {
+            computeRow(row[i], values, i, costMatrix, (i - 1) * rowLength, costMatrix, i * rowLength);
+        }
+        return costMatrix[(columnCount - 1) * rowLength + window + 1];
+    }
+
+    /**
+     * Calculates one row of the cost matrix. Rows are stored in band coordinates: cell (i, j) is stored at index
+     * j - i + window + 1 and the indices of cells outside of the time series are infinite, so no bounds are checked
+     * within the loop. {@link Math#min(double, double)} is compiled to branch-free instructions, which is faster than
+     * comparisons whose outcome cannot be predicted.
+     *
+     * @param previous the previous row or null for the first row
+     */
+    private void computeRow(double value, double[] values, int i, double[] previous, int previousOffset, double[] current, int currentOffset) {
+        int bandWidth = 2 * window + 1;
+        int first = Math.max(0, window - i);
+        int last = Math.min(bandWidth - 1, columnCount - 1 - i + window);
+        int shift = i - window;
+        for (int index = 0; index <= first; index++) {
+            current[currentOffset + index] = Double.POSITIVE_INFINITY;
+        }
+        for (int index = last + 2; index <= bandWidth + 1; index++) {
+            current[currentOffset + index] = Double.POSITIVE_INFINITY;
+        }
+        if (previous == null) {
+            // The first row can only be reached from the left
+            double cost = 0;
+            for (int band = first; band <= last; band++) {
+                double difference = value - values[band + shift];
+                cost += difference * difference;
+                current[currentOffset + band + 1] = cost;
+            }
+            return;
+        }
+        double left = Double.POSITIVE_INFINITY;
+        for (int band = first; band <= last; band++) {
+            double predecessor = Math.min(Math.min(previous[previousOffset + band + 1], previous[previousOffset + band + 2]), left);
+            double difference = value - values[band + shift];
+            left = difference * difference + predecessor;
+            current[currentOffset + band + 1] = left;
+        }
+    }
+
+    /**
+     * Finds the smallest cost in a row of the cost matrix. This is not done while the row is calculated, as it would
+     * slow down all distance calculations that cannot be abandoned.
+     */
+    private double getMinCost(double[] costs, int i) {
+        int first = Math.max(0, window - i);
+        int last = Math.min(2 * window, columnCount - 1 - i + window);
+        double minCost = Double.POSITIVE_INFINITY;
+        for (int band = first; band <= last; band++) {
+            double cost = costs[band + 1];
+            if (cost < minCost)
+                minCost = cost;
+        }
+        return minCost;
+    }
+
+    private int getRowLength() {
+        return 2 * window + 3;
+    }
+
+    public double[][] getCenters() {
+        return centers;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Buffers for the distance calculations of one thread
+     */
+    public class Workspace {
+        private final double[] previousCosts = new double[getRowLength()];
+        private final double[] currentCosts = new double[getRowLength()];
+        private final double[] remainingBounds = new double[columnCount + 1];
+        private final double[] costMatrix = new double[columnCount * getRowLength()];
+        private final double[] bounds = new double[centers.length];
+        private final int[] order = new int[centers.length];
+        private int costMatrixCenter = -1;
+        private double distance;
+
+        private Workspace() {
+        }
+
+        /**
+         * @return the distance of the last time series passed to {@link #findClosestCenter(double[], int, Workspace)} to its closest center
+         */
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Lloyd's k-means algorithm with the triangle inequality bounds of Hamerly (2010).
+ * Each row keeps an upper bound of the distance to its assigned center and a lower bound of the distance to all
+ * other centers. The bounds are updated with the distance each center moved. Rows whose upper bound is below the
+ * lower bound and below half the distance between their center and the closest other center keep their assignment
+ * without calculating any distances.
+ * <p>
+ * Rows only skip the distance calculations if their center is closer than all others by a small relative margin,
+ * so rounding errors in the bounds cannot change the result. The results are exactly the same as
+ * {@link MCATLloydKMeans}.
+ * <p>
+ * The bounds require the triangle inequality of the Euclidean distance. With other distance measures, all distances
+ * are calculated like in {@link MCATLloydKMeans}.
+ */
+public class MCATHamerlyKMeans extends MCATLloydKMeans {
+
+    /**
+     * Relative margin that the bounds must satisfy to skip a row
+     */
+    private static final double BOUND_TOLERANCE = 1e-9;
+
+    /**
+     * Creates an instance that chooses the initial cluster centers with k-means++
+     *
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     */
+    public MCATHamerlyKMeans(int maxIterations) {
+        super(maxIterations);
+    }
+
+    /**
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     * @param initializer   chooses the initial cluster centers
+     */
+    public MCATHamerlyKMeans(int maxIterations, MCATKMeansInitializer initializer) {
+        super(maxIterations, initializer);
+    }
+
+    /**
+     * @param maxIterations   maximum number of iterations after the initial cluster centers are chosen
+     * @param initializer     chooses the initial cluster centers
+     * @param distanceMeasure the distance between rows and centers
+     */
+    public MCATHamerlyKMeans(int maxIterations, MCATKMeansInitializer initializer, MCATDistanceMeasure distanceMeasure) {
+        super(maxIterations, initializer, distanceMeasure);
+    }
+
+    @Override
+    protected AssignmentStep createAssignmentStep(int rowCount, int k) {
+        if (getDistanceMeasure() != MCATDistanceMeasure.Euclidean)
+            return super.createAssignmentStep(rowCount, k);
+        return new BoundsAssignmentStep(rowCount, k);
+    }
+
+    private static class BoundsAssignmentStep implements AssignmentStep {
+        private final double[] upperBounds;
+        private final double[] lowerBounds;
+        private final double[] halfCenterDistances;
+        private final double[] drifts;
+
+        private BoundsAssignmentStep(int rowCount, int k) {
+            upperBounds = new double[rowCount];
+            lowerBounds = new double[rowCount];
+            halfCenterDistances = new double[k];
+            drifts = new double[k];
+        }
+
+        @Override
+        public void assign(MCATTimeSeriesSource matrix, int firstRow, int endRow, int[] assignments, MCATDistanceKernel kernel, int[] closest) {
+            double[][] centers = kernel.getCenters();
+            for (int row = firstRow; row < endRow; row++) {
+                closest[row - firstRow] = assign(matrix, row, assignments[row], centers);
+            }
+        }
+
+        private int assign(MCATTimeSeriesSource matrix, int row, int previous, double[][] centers) {
+            if (previous >= 0) {
+                double bound = Math.max(halfCenterDistances[previous], lowerBounds[row]) * (1 - BOUND_TOLERANCE);
+                if (upperBounds[row] < bound)
+                    return previous;
+                upperBounds[row] = Math.sqrt(matrix.squaredDistance(row, centers[previous]));
+                if (upperBounds[row] < bound)
+                    return previous;
+            }
+
+            int closest = 0;
+            double minDistance = Double.POSITIVE_INFINITY;
+            double secondDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < centers.length; i++) {
+                double distance = matrix.squaredDistance(row, centers[i]);
+                if (distance < minDistance) {
+                    secondDistance = minDistance;
+                    minDistance = distance;
+                    closest = i;
+                } else if (distance < secondDistance) {
+                    secondDistance = distance;
+                }
+            }
+            upperBounds[row] = Math.sqrt(minDistance);
+            lowerBounds[row] = Math.sqrt(secondDistance);
+            return closest;
+        }
+
+        @Override
+        public void centersMoved(MCATTimeSeriesSource matrix, double[][] previousCenters, double[][] centers, int[] assignments) {
+            int k = centers.length;
+            int farthestCenter = 0;
+            for (int i = 0; i < k; i++) {
+                drifts[i] = Math.sqrt(squaredDistance(previousCenters[i], centers[i]));
+                if (drifts[i] > drifts[farthestCenter])
+                    farthestCenter = i;
+            }
+            double maxDrift = drifts[farthestCenter];
+            double secondMaxDrift = getSecondMaxDrift(farthestCenter);
+
+            int rowCount = upperBounds.length;
+            int center = farthestCenter;
+            MCATKMeansUtils.forEachBlock(MCATKMeansUtils.getBlockCount(rowCount), block -> {
+                for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                    upperBounds[row] += drifts[assignments[row]];
+                    lowerBounds[row] -= assignments[row] == center ? secondMaxDrift : maxDrift;
+                }
+            });
+
+            Arrays.fill(halfCenterDistances, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < k; i++) {
+                for (int j = i + 1; j < k; j++) {
+                    double distance = Math.sqrt(squaredDistance(centers[i], centers[j])) / 2;
+                    halfCenterDistances[i] = Math.min(halfCenterDistances[i], distance);
+                    halfCenterDistances[j] = Math.min(halfCenterDistances[j], distance);
+                }
+            }
+        }
+
+        private double getSecondMaxDrift(int farthestCenter) {
+            double result = 0;
+            for (int i = 0; i < drifts.length; i++) {
+                if (i != farthestCenter)
+                    result = Math.max(result, drifts[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public void rowMoved(int row) {
+            // The bounds refer to the previous center of the row. Force a full search in the next iteration.
+            upperBounds[row] = Double.POSITIVE_INFINITY;
+            lowerBounds[row] = 0;
+        }
+
+        private static double squaredDistance(double[] first, double[] second) {
+            double result = 0;
+            for (int i = 0; i < first.length; i++) {
+                double difference = first[i] - second[i];
+                result += difference * difference;
+            }
+            return result;
+        }
+    }
+}
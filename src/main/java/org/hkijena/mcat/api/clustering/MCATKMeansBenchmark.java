@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATKMeansEngine;
+import org.hkijena.mcat.api.MCATKMeansInitialization;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+import org.hkijena.mcat.api.parameters.MCATClusteringParameters;
+import org.hkijena.mcat.extension.dataproviders.api.DerivativeMatrixFromFileProvider;
+
+/**
+ * Compares the run time of the k-means engines on derivative matrices written by the preprocessing.
+ * All engines are run with the same seed. The results of the built-in engines must be identical.
+ * If a coreset size is given, engines that support weights are run on a coreset and the reported cost is the cost of
+ * all time series. With another distance measure than the Euclidean distance, the costs of engines that only support
+ * the Euclidean distance are not comparable. In this case, the run time of the Lloyd engine with Euclidean distances is
+ * reported as reference.
+ * <p>
+ * Usage: --k=&lt;k&gt; --restarts=&lt;N&gt; --threads=&lt;N&gt; --seed=&lt;N&gt; --max-iterations=&lt;N&gt; --batch-size=&lt;N&gt;
+ * --init=&lt;KMeansPlusPlus|KMeansParallel&gt; --coreset-size=&lt;N&gt; --distance=&lt;Euclidean|Cosine|Correlation|DTW&gt;
+ * --dtw-window=&lt;percent&gt; &lt;derivative matrix CSV&gt;...
+ */
+public class MCATKMeansBenchmark {
+
+    private MCATKMeansBenchmark() {
+
+    }
+
+    public static void main(String[] args) {
+        int k = 5;
+        int restarts = 10;
+        int threads = 1;
+        long seed = 0;
+        int maxIterations = 50;
+        MCATClusteringParameters parameters = new MCATClusteringParameters();
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--k=")) {
+                k = Integer.parseInt(arg.substring("--k=".length()));
+            } else if (arg.startsWith("--restarts=")) {
+                restarts = Integer.parseInt(arg.substring("--restarts=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--max-iterations=")) {
+                maxIterations = Integer.parseInt(arg.substring("--max-iterations=".length()));
+            } else if (arg.startsWith("--batch-size=")) {
+                parameters.setkMeansBatchSize(Integer.parseInt(arg.substring("--batch-size=".length())));
+            } else if (arg.startsWith("--init=")) {
+                parameters.setkMeansInitialization(MCATKMeansInitialization.valueOf(arg.substring("--init=".length())));
+            } else if (arg.startsWith("--coreset-size=")) {
+                parameters.setkMeansCoresetSize(Integer.parseInt(arg.substring("--coreset-size=".length())));
+            } else if (arg.startsWith("--distance=")) {
+                parameters.setkMeansDistanceMeasure(MCATDistanceMeasure.valueOf(arg.substring("--distance=".length())));
+            } else if (arg.startsWith("--dtw-window=")) {
+                parameters.setkMeansDTWWindow(Integer.parseInt(arg.substring("--dtw-window=".length())));
+            } else {
+                files.add(Paths.get(arg));
+            }
+        }
+        if (files.isEmpty())
+            throw new IllegalArgumentException("No derivative matrix provided!");
+
+        Map<String, double[][]> rows = new LinkedHashMap<>();
+        int columnCount = Integer.MAX_VALUE;
+        for (Path file : files) {
+            System.out.println("Loading derivative matrix from " + file);
+            DerivativeMatrixFromFileProvider provider = new DerivativeMatrixFromFileProvider();
+            provider.setFilePath(file);
+            double[][] matrix = provider.get().getDerivativeMatrix();
+            for (double[] row : matrix) {
+                columnCount = Math.min(columnCount, row.length);
+            }
+            rows.put(file.toString(), matrix);
+        }
+        MCATTimeSeriesMatrix matrix = MCATTimeSeriesMatrix.fromRows(rows, columnCount);
+        System.out.println("Clustering " + matrix.getRowCount() + " time series with " + columnCount + " time points, k = " + k +
+                ", " + restarts + " restarts, " + threads + " threads, " + parameters.getkMeansInitialization() + " initialization, " +
+                parameters.getkMeansDistanceMeasure() + " distance");
+
+        MCATTimeSeriesSource coreset = matrix;
+        if (parameters.getkMeansCoresetSize() > 0) {
+            long seedValue = seed;
+            long start = System.nanoTime();
+            coreset = MCATKMeansUtils.callInPool(threads, () -> MCATCoreset.build(matrix, parameters.getkMeansCoresetSize(), seedValue));
+            System.out.println(String.format("Built a coreset of %d time series in %.3f s", coreset.getRowCount(), (System.nanoTime() - start) / 1e9));
+        }
+
+        // Warm up the JIT compiler
+        for (MCATKMeansEngine engine : MCATKMeansEngine.values()) {
+            parameters.setkMeansEngine(engine);
+            new MCATKMeansRestarts(MCATKMeansRestarts.createClusterer(parameters, maxIterations), 1, threads, seed).run(matrix, k);
+        }
+
+        Map<MCATKMeansEngine, MCATKMeansResult> results = new EnumMap<>(MCATKMeansEngine.class);
+        Map<MCATKMeansEngine, Long> times = new EnumMap<>(MCATKMeansEngine.class);
+        for (MCATKMeansEngine engine : MCATKMeansEngine.values()) {
+            parameters.setkMeansEngine(engine);
+            MCATKMeansClusterer clusterer = MCATKMeansRestarts.createClusterer(parameters, maxIterations);
+            MCATTimeSeriesSource source = clusterer.supportsWeights() ? coreset : matrix;
+            MCATKMeansRestarts kMeansRestarts = new MCATKMeansRestarts(clusterer, restarts, threads, seed);
+            long start = System.nanoTime();
+            results.put(engine, kMeansRestarts.run(source, k));
+            times.put(engine, System.nanoTime() - start);
+            double[][] centers = results.get(engine).getCenters();
+            double cost = source == matrix ? results.get(engine).getCost() :
+                    MCATKMeansUtils.callInPool(threads, () -> MCATKMeansUtils.computeCost(matrix, clusterer.createDistanceKernel(centers)));
+            System.out.println(String.format("%-45s %10.3f s, cost = %.6f", engine, times.get(engine) / 1e9, cost));
+        }
+
+        System.out.println(String.format("Speedup of %s over %s: %.2f", MCATKMeansEngine.Hamerly, MCATKMeansEngine.Lloyd,
+                (double) times.get(MCATKMeansEngine.Lloyd) / times.get(MCATKMeansEngine.Hamerly)));
+        if (parameters.getkMeansDistanceMeasure() != MCATDistanceMeasure.Euclidean) {
+            MCATClusteringParameters euclideanParameters = new MCATClusteringParameters(parameters);
+            euclideanParameters.setkMeansEngine(MCATKMeansEngine.Lloyd);
+            euclideanParameters.setkMeansDistanceMeasure(MCATDistanceMeasure.Euclidean);
+            MCATKMeansClusterer clusterer = MCATKMeansRestarts.createClusterer(euclideanParameters, maxIterations);
+            MCATTimeSeriesSource source = clusterer.supportsWeights() ? coreset : matrix;
+            long start = System.nanoTime();
+            new MCATKMeansRestarts(clusterer, restarts, threads, seed).run(source, k);
+            long time = System.nanoTime() - start;
+            System.out.println(String.format("%-45s %10.3f s with Euclidean distances, %s takes %.2f times as long", MCATKMeansEngine.Lloyd,
+                    time / 1e9, parameters.getkMeansDistanceMeasure(), (double) times.get(MCATKMeansEngine.Lloyd) / time));
+        }
+        if (!Arrays.deepEquals(results.get(MCATKMeansEngine.Lloyd).getCenters(), results.get(MCATKMeansEngine.Hamerly).getCenters()))
+            throw new RuntimeException("The results of " + MCATKMeansEngine.Lloyd + " and " + MCATKMeansEngine.Hamerly + " are different!");
+        System.out.println("The results of " + MCATKMeansEngine.Lloyd + " and " + MCATKMeansEngine.Hamerly + " are identical.");
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Implementation of k-means clustering on the rows of a {@link MCATTimeSeriesSource}.
+ * Implementations must be thread-safe, as multiple restarts can be run at the same time.
+ */
+public interface MCATKMeansClusterer {
+    /**
+     * Runs k-means clustering once, including the selection of the initial cluster centers
+     *
+     * @param matrix the time series
+     * @param k      the number of clusters
+     * @param random random generator used for the initial cluster centers
+     * @return the cluster centers and their cost
+     */
+    MCATKMeansResult cluster(MCATTimeSeriesSource matrix, int k, RandomGenerator random);
+
+    /**
+     * @return if the clusterer respects the weights of the rows, see {@link MCATTimeSeriesSource#getWeight(int)}
+     */
+    default boolean supportsWeights() {
+        return false;
+    }
+
+    /**
+     * @param source the time series
+     * @return if the clusterer can run on the source without copying it
+     */
+    default boolean supportsSource(MCATTimeSeriesSource source) {
+        return true;
+    }
+
+    /**
+     * @return the distance between rows and centers that the clusterer minimizes
+     */
+    default MCATDistanceMeasure getDistanceMeasure() {
+        return MCATDistanceMeasure.Euclidean;
+    }
+
+    /**
+     * Creates a kernel that calculates the distances the clusterer minimizes
+     *
+     * @param centers the centers
+     * @return the kernel
+     */
+    default MCATDistanceKernel createDistanceKernel(double[][] centers) {
+        return new MCATDistanceKernel(centers, getDistanceMeasure());
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Chooses the initial cluster centers of k-means clustering.
+ * Implementations must be thread-safe, as multiple restarts can be run at the same time.
+ */
+public interface MCATKMeansInitializer {
+    /**
+     * Chooses the initial cluster centers
+     *
+     * @param matrix the time series
+     * @param k      the number of clusters
+     * @param random the random generator
+     * @return k new arrays with getColumnCount() entries each
+     */
+    double[][] chooseInitialCenters(MCATTimeSeriesSource matrix, int k, RandomGenerator random);
+}
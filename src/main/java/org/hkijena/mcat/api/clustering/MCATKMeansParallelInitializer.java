@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Chooses the initial centers with k-means|| (Bahmani et al., 2012).
+ * The first candidate is a random row. In each round, every row becomes a candidate with a probability proportional
+ * to its squared distance to the closest candidate and its weight, so about oversampling factor * k candidates are added per round.
+ * Each round is one parallel pass over all rows, independent of k. The default of two rounds follows Spark MLlib.
+ * The candidates are weighted with the total weight of the rows that are closest to them and clustered down to k centers with
+ * weighted k-means++ and Lloyd iterations.
+ * <p>
+ * The rows of a round are sampled with random numbers that only depend on the row and a seed drawn from the random
+ * generator, and the candidates are added in row order, so the result does not depend on the number of threads.
+ */
+public class MCATKMeansParallelInitializer implements MCATKMeansInitializer {
+
+    public static final int DEFAULT_ROUNDS = 2;
+    public static final double DEFAULT_OVERSAMPLING_FACTOR = 2;
+
+    /**
+     * Maximum number of Lloyd iterations on the weighted candidates
+     */
+    private static final int RECLUSTERING_ITERATIONS = 20;
+
+    private final int rounds;
+    private final double oversamplingFactor;
+
+    public MCATKMeansParallelInitializer() {
+        this(DEFAULT_ROUNDS, DEFAULT_OVERSAMPLING_FACTOR);
+    }
+
+    /**
+     * @param rounds             number of sampling rounds
+     * @param oversamplingFactor expected number of candidates per round divided by k
+     */
+    public MCATKMeansParallelInitializer(int rounds, double oversamplingFactor) {
+        this.rounds = rounds;
+        this.oversamplingFactor = oversamplingFactor;
+    }
+
+    @Override
+    public double[][] chooseInitialCenters(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        int columnCount = matrix.getColumnCount();
+        double[] minDistances = new double[rowCount];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        int[] closestCandidates = new int[rowCount];
+        List<double[]> candidates = new ArrayList<>();
+
+        double[] first = new double[columnCount];
+        matrix.copyRow(random.nextInt(rowCount), first);
+        candidates.add(first);
+        double cost = updateDistances(matrix, candidates, 0, minDistances, closestCandidates);
+
+        double expectedCandidates = oversamplingFactor * k;
+        for (int round = 0; round < rounds && cost > 0; round++) {
+            long seed = random.nextLong();
+            double total = cost;
+            int[][] blockSamples = new int[MCATKMeansUtils.getBlockCount(rowCount)][];
+            MCATKMeansUtils.forEachBlock(blockSamples.length, block -> {
+                int start = MCATKMeansUtils.getBlockStart(block);
+                int end = MCATKMeansUtils.getBlockEnd(block, rowCount);
+                int[] sampled = new int[end - start];
+                int count = 0;
+                for (int row = start; row < end; row++) {
+                    if (uniform(seed, row) * total < expectedCandidates * matrix.getWeight(row) * minDistances[row])
+                        sampled[count++] = row;
+                }
+                blockSamples[block] = Arrays.copyOf(sampled, count);
+            });
+
+            int firstNew = candidates.size();
+            for (int[] sampled : blockSamples) {
+                for (int row : sampled) {
+                    double[] candidate = new double[columnCount];
+                    matrix.copyRow(row, candidate);
+                    candidates.add(candidate);
+                }
+            }
+            cost = updateDistances(matrix, candidates, firstNew, minDistances, closestCandidates);
+        }
+
+        double[] weights = new double[candidates.size()];
+        for (int row = 0; row < rowCount; row++) {
+            weights[closestCandidates[row]] += matrix.getWeight(row);
+        }
+        return recluster(candidates, weights, k, random);
+    }
+
+    /**
+     * Updates the distance of each row to its closest candidate with the candidates that were added
+     *
+     * @return the sum of the squared distances of all rows to their closest candidate, multiplied with their weights
+     */
+    private static double updateDistances(MCATTimeSeriesSource matrix, List<double[]> candidates, int firstNew,
+                                          double[] minDistances, int[] closestCandidates) {
+        int rowCount = matrix.getRowCount();
+        double[] blockSums = new double[MCATKMeansUtils.getBlockCount(rowCount)];
+        MCATKMeansUtils.forEachBlock(blockSums.length, block -> {
+            MCATCompensatedSum sum = new MCATCompensatedSum();
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                for (int candidate = firstNew; candidate < candidates.size(); candidate++) {
+                    double distance = matrix.squaredDistance(row, candidates.get(candidate));
+                    if (distance < minDistances[row]) {
+                        minDistances[row] = distance;
+                        closestCandidates[row] = candidate;
+                    }
+                }
+                sum.add(matrix.getWeight(row) * minDistances[row]);
+            }
+            blockSums[block] = sum.getSum();
+        });
+        return MCATKMeansUtils.sum(blockSums);
+    }
+
+    /**
+     * Clusters the weighted candidates into k centers with k-means++ and Lloyd iterations
+     */
+    private static double[][] recluster(List<double[]> candidates, double[] weights, int k, RandomGenerator random) {
+        int candidateCount = candidates.size();
+        double[][] centers = new double[k][];
+        double[] minDistances = new double[candidateCount];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        double[] scores = new double[candidateCount];
+        for (int i = 0; i < k; i++) {
+            for (int candidate = 0; candidate < candidateCount; candidate++) {
+                if (i > 0)
+                    minDistances[candidate] = Math.min(minDistances[candidate], squaredDistance(candidates.get(candidate), centers[i - 1]));
+                scores[candidate] = i > 0 ? weights[candidate] * minDistances[candidate] : weights[candidate];
+            }
+            int chosen = choose(scores, random);
+            if (chosen < 0) {
+                // Less distinct candidates than clusters
+                chosen = random.nextInt(candidateCount);
+            }
+            centers[i] = candidates.get(chosen).clone();
+        }
+
+        int columnCount = centers[0].length;
+        int[] assignments = new int[candidateCount];
+        Arrays.fill(assignments, -1);
+        for (int iteration = 0; iteration < RECLUSTERING_ITERATIONS; iteration++) {
+            boolean changed = false;
+            for (int candidate = 0; candidate < candidateCount; candidate++) {
+                int closest = 0;
+                double minDistance = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < k; i++) {
+                    double distance = squaredDistance(candidates.get(candidate), centers[i]);
+                    if (distance < minDistance) {
+                        minDistance = distance;
+                        closest = i;
+                    }
+                }
+                changed |= assignments[candidate] != closest;
+                assignments[candidate] = closest;
+            }
+            if (!changed)
+                break;
+
+            double[][] sums = new double[k][columnCount];
+            double[] totalWeights = new double[k];
+            for (int candidate = 0; candidate < candidateCount; candidate++) {
+                double[] values = candidates.get(candidate);
+                double[] sum = sums[assignments[candidate]];
+                for (int column = 0; column < columnCount; column++) {
+                    sum[column] += weights[candidate] * values[column];
+                }
+                totalWeights[assignments[candidate]] += weights[candidate];
+            }
+            for (int i = 0; i < k; i++) {
+                // Clusters without members keep their center
+                if (totalWeights[i] > 0) {
+                    for (int column = 0; column < columnCount; column++) {
+                        centers[i][column] = sums[i][column] / totalWeights[i];
+                    }
+                }
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Chooses an index with a probability proportional to its score
+     *
+     * @return the index or -1 if all scores are zero
+     */
+    private static int choose(double[] scores, RandomGenerator random) {
+        double total = 0;
+        for (double score : scores) {
+            total += score;
+        }
+        if (total <= 0)
+            return -1;
+        double remaining = random.nextDouble() * total;
+        int last = -1;
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > 0) {
+                last = i;
+                remaining -= scores[i];
+                if (remaining < 0)
+                    return i;
+            }
+        }
+        return last;
+    }
+
+    private static double squaredDistance(double[] first, double[] second) {
+        double sum = 0;
+        for (int i = 0; i < first.length; i++) {
+            double difference = first[i] - second[i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns a uniformly distributed number in [0, 1) that only depends on the seed and the row (SplitMix64)
+     */
+    private static double uniform(long seed, int row) {
+        long z = seed + (row + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public double getOversamplingFactor() {
+        return oversamplingFactor;
+    }
+}
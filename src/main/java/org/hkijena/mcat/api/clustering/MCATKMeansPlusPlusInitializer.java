@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Chooses the initial centers with k-means++ (Arthur and Vassilvitskii, 2007): the first center is a random row.
+ * Each further center is a row that is chosen with a probability proportional to its squared distance to the closest
+ * center chosen so far, multiplied with its weight. This needs k passes over all rows.
+ */
+public class MCATKMeansPlusPlusInitializer implements MCATKMeansInitializer {
+
+    @Override
+    public double[][] chooseInitialCenters(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        double[][] centers = new double[k][matrix.getColumnCount()];
+        double[] minDistances = new double[rowCount];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        double[] blockSums = new double[MCATKMeansUtils.getBlockCount(rowCount)];
+
+        matrix.copyRow(random.nextInt(rowCount), centers[0]);
+        for (int i = 1; i < k; i++) {
+            double[] previous = centers[i - 1];
+            MCATKMeansUtils.forEachBlock(blockSums.length, block -> {
+                MCATCompensatedSum sum = new MCATCompensatedSum();
+                for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                    minDistances[row] = Math.min(minDistances[row], matrix.squaredDistance(row, previous));
+                    sum.add(matrix.getWeight(row) * minDistances[row]);
+                }
+                blockSums[block] = sum.getSum();
+            });
+            double total = MCATKMeansUtils.sum(blockSums);
+
+            int chosen = rowCount - 1;
+            if (total > 0) {
+                double remaining = random.nextDouble() * total;
+                for (int block = 0; block < blockSums.length; block++) {
+                    if (remaining >= blockSums[block] && block < blockSums.length - 1) {
+                        remaining -= blockSums[block];
+                        continue;
+                    }
+                    for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                        remaining -= matrix.getWeight(row) * minDistances[row];
+                        if (remaining < 0) {
+                            chosen = row;
+                            break;
+                        }
+                    }
+                    break;
+                }
+            } else {
+                // All rows are identical to the chosen centers
+                chosen = random.nextInt(rowCount);
+            }
+            matrix.copyRow(chosen, centers[i]);
+        }
+        return centers;
+    }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATKMeansEngine;
+import org.hkijena.mcat.api.MCATKMeansInitialization;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+import org.hkijena.mcat.api.parameters.MCATClusteringParameters;
+
+/**
+ * Runs a {@link MCATKMeansClusterer} multiple times with different initial cluster centers and keeps the best result.
+ * Each restart uses its own random generator that is derived from the seed and the restart index.
+ * The restart with the lowest cost is chosen. If multiple restarts have the same cost, the first one is chosen,
+ * so the result does not depend on the number of threads.
+ */
+public class MCATKMeansRestarts {
+
+    private final MCATKMeansClusterer clusterer;
+    private final int restarts;
+    private final int threads;
+    private final long seed;
+
+    /**
+     * @param clusterer the clusterer
+     * @param restarts  number of restarts
+     * @param threads   number of threads that are shared by the restarts and the clusterer
+     * @param seed      the seed
+     */
+    public MCATKMeansRestarts(MCATKMeansClusterer clusterer, int restarts, int threads, long seed) {
+        this.clusterer = clusterer;
+        this.restarts = restarts;
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * Creates the clusterer of the engine selected in the parameters
+     *
+     * @param parameters    the parameters
+     * @param maxIterations maximum number of iterations per restart
+     * @return the clusterer
+     */
+    public static MCATKMeansClusterer createClusterer(MCATClusteringParameters parameters, int maxIterations) {
+        return createClusterer(parameters, maxIterations, createInitializer(parameters.getkMeansInitialization()));
+    }
+
+    /**
+     * Creates the clusterer of the engine selected in the parameters with a custom initializer.
+     * The Apache Commons Math engine always chooses its initial centers with its own k-means++ implementation.
+     * Only the Lloyd and Hamerly engines support other distance measures than the Euclidean distance.
+     * With dynamic time warping, both are replaced by {@link MCATDTWKMeans}.
+     *
+     * @param parameters    the parameters
+     * @param maxIterations maximum number of iterations per restart
+     * @param initializer   chooses the initial cluster centers
+     * @return the clusterer
+     */
+    public static MCATKMeansClusterer createClusterer(MCATClusteringParameters parameters, int maxIterations, MCATKMeansInitializer initializer) {
+        switch (parameters.getkMeansEngine()) {
+            case CommonsMath:
+                return new MCATCommonsMathKMeans(maxIterations);
+            case Lloyd:
+                if (parameters.getkMeansDistanceMeasure() == MCATDistanceMeasure.DTW)
+                    return new MCATDTWKMeans(maxIterations, initializer, parameters.getkMeansDTWWindow());
+                return new MCATLloydKMeans(maxIterations, initializer, parameters.getkMeansDistanceMeasure());
+            case Hamerly:
+                if (parameters.getkMeansDistanceMeasure() == MCATDistanceMeasure.DTW)
+                    return new MCATDTWKMeans(maxIterations, initializer, parameters.getkMeansDTWWindow());
+                return new MCATHamerlyKMeans(maxIterations, initializer, parameters.getkMeansDistanceMeasure());
+            case MiniBatch:
+                return new MCATMiniBatchKMeans(parameters.getkMeansBatchSize(), MCATMiniBatchKMeans.DEFAULT_MAX_BATCHES, initializer);
+            default:
+                throw new UnsupportedOperationException("Unsupported k-means engine " + parameters.getkMeansEngine());
+        }
+    }
+
+    /**
+     * Creates the clusterer of the engine selected in the parameters for a source.
+     * If the engine cannot run on the source without copying it, for example the Apache Commons Math engine on
+     * memory-mapped time series, the Lloyd engine is used instead.
+     *
+     * @param parameters    the parameters
+     * @param maxIterations maximum number of iterations per restart
+     * @param initializer   chooses the initial cluster centers
+     * @param source        the time series that are clustered
+     * @return the clusterer
+     */
+    public static MCATKMeansClusterer createClusterer(MCATClusteringParameters parameters, int maxIterations, MCATKMeansInitializer initializer,
+                                                      MCATTimeSeriesSource source) {
+        MCATKMeansClusterer clusterer = createClusterer(parameters, maxIterations, initializer);
+        if (clusterer.supportsSource(source))
+            return clusterer;
+        System.err.println("\tThe k-means engine " + parameters.getkMeansEngine() + " cannot cluster memory-mapped time series without copying them. " +
+                "Using the " + MCATKMeansEngine.Lloyd + " engine.");
+        MCATClusteringParameters lloydParameters = new MCATClusteringParameters(parameters);
+        lloydParameters.setkMeansEngine(MCATKMeansEngine.Lloyd);
+        return createClusterer(lloydParameters, maxIterations, initializer);
+    }
+
+    /**
+     * Creates the initializer of an initialization method
+     *
+     * @param initialization the method
+     * @return the initializer
+     */
+    public static MCATKMeansInitializer createInitializer(MCATKMeansInitialization initialization) {
+        switch (initialization) {
+            case KMeansPlusPlus:
+                return new MCATKMeansPlusPlusInitializer();
+            case KMeansParallel:
+                return new MCATKMeansParallelInitializer();
+            default:
+                throw new UnsupportedOperationException("Unsupported k-means initialization " + initialization);
+        }
+    }
+
+    /**
+     * Runs all restarts
+     *
+     * @param matrix the time series
+     * @param k      the number of clusters
+     * @return the result with the lowest cost
+     */
+    public MCATKMeansResult run(MCATTimeSeriesSource matrix, int k) {
+        List<Callable<MCATKMeansResult>> tasks = new ArrayList<>();
+        for (int j = 0; j < restarts; j++) {
+            int restart = j;
+            tasks.add(() -> clusterer.cluster(matrix, k, new Well19937c(new int[]{(int) (seed >>> 32), (int) seed, restart})));
+        }
+
+        List<MCATKMeansResult> results = new ArrayList<>();
+        if (threads <= 1) {
+            for (Callable<MCATKMeansResult> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        } else {
+            // Clusterers split their work into tasks that are run by the same pool
+            ForkJoinPool pool = MCATKMeansUtils.createPool(threads);
+            try {
+                for (Future<MCATKMeansResult> future : pool.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                MCATKMeansUtils.shutdownPool(pool);
+            }
+        }
+
+        MCATKMeansResult best = results.get(0);
+        for (MCATKMeansResult result : results) {
+            if (result.getCost() < best.getCost())
+                best = result;
+        }
+        return best;
+    }
+
+    public MCATKMeansClusterer getClusterer() {
+        return clusterer;
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.ml.clustering.DoublePoint;
+import org.hkijena.mcat.api.MCATCentroidCluster;
+
+/**
+ * Cluster centers found by a {@link MCATKMeansClusterer}
+ */
+public class MCATKMeansResult {
+    private final double[][] centers;
+    private final double cost;
+
+    /**
+     * @param centers one array per cluster
+     * @param cost    the sum of the Euclidean distances of all rows to their closest center
+     */
+    public MCATKMeansResult(double[][] centers, double cost) {
+        this.centers = centers;
+        this.cost = cost;
+    }
+
+    public double[][] getCenters() {
+        return centers;
+    }
+
+    /**
+     * @return the sum of the Euclidean distances of all rows to their closest center
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return one cluster per center without members
+     */
+    public List<MCATCentroidCluster<DoublePoint>> toCentroidClusters() {
+        List<MCATCentroidCluster<DoublePoint>> result = new ArrayList<>();
+        for (double[] center : centers) {
+            result.add(new MCATCentroidCluster<>(new DoublePoint(center)));
+        }
+        return result;
+    }
+}
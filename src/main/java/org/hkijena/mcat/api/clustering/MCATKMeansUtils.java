@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.hkijena.mcat.api.MCATAlgorithmMetrics;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Functions shared by the {@link MCATKMeansClusterer} implementations.
+ * Work is split into blocks of consecutive rows. The blocks are processed in parallel if the caller runs in a
+ * {@link java.util.concurrent.ForkJoinPool}, so the number of threads is controlled by the pool.
+ * The blocks do not depend on the number of threads and their partial results are combined with
+ * {@link #sum(double[])}, so results are bit-identical for any pool size.
+ */
+public class MCATKMeansUtils {
+
+    /**
+     * Number of rows that are processed by one task
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Number of values that are summed up sequentially by {@link #sum(double[])}
+     */
+    private static final int PAIRWISE_LEAF_SIZE = 8;
+
+    private MCATKMeansUtils() {
+
+    }
+
+    /**
+     * @param rowCount number of rows
+     * @return number of blocks
+     */
+    public static int getBlockCount(int rowCount) {
+        return (rowCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * @param block the block
+     * @return the first row of the block
+     */
+    public static int getBlockStart(int block) {
+        return block * BLOCK_SIZE;
+    }
+
+    /**
+     * @param block    the block
+     * @param rowCount number of rows
+     * @return the row after the last row of the block
+     */
+    public static int getBlockEnd(int block, int rowCount) {
+        return Math.min(rowCount, (block + 1) * BLOCK_SIZE);
+    }
+
+    /**
+     * Sums up values by pairwise summation with a fixed split of the values.
+     * The rounding error grows only logarithmically with the number of values and the result only depends on the order
+     * of the values. Used to combine the partial results of blocks.
+     *
+     * @param values the values
+     * @return the sum
+     */
+    public static double sum(double[] values) {
+        return sum(values, 0, values.length);
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        if (to - from <= PAIRWISE_LEAF_SIZE) {
+            double result = 0;
+            for (int i = from; i < to; i++) {
+                result += values[i];
+            }
+            return result;
+        }
+        int middle = (from + to) >>> 1;
+        return sum(values, from, middle) + sum(values, middle, to);
+    }
+
+    /**
+     * Sums up the partial results of all blocks element-wise with {@link #sum(double[])}
+     *
+     * @param blockValues the partial results. One array of equal length per block.
+     * @return the element-wise sums
+     */
+    public static double[] sumBlocks(double[][] blockValues) {
+        int length = blockValues.length > 0 ? blockValues[0].length : 0;
+        double[] result = new double[length];
+        double[] values = new double[blockValues.length];
+        for (int i = 0; i < length; i++) {
+            for (int block = 0; block < blockValues.length; block++) {
+                values[block] = blockValues[block][i];
+            }
+            result[i] = sum(values);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a function for each block.
+     * The blocks are processed in parallel if the current thread belongs to a {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param blockCount number of blocks
+     * @param consumer   the function
+     */
+    public static void forEachBlock(int blockCount, IntConsumer consumer) {
+        IntStream blocks = IntStream.range(0, blockCount);
+        // Outside of a pool, a parallel stream would use all processors of the common pool
+        if (ForkJoinTask.inForkJoinPool())
+            blocks = blocks.parallel();
+        blocks.forEach(consumer);
+    }
+
+    /**
+     * Creates a pool whose threads are used by {@link #forEachBlock(int, IntConsumer)}.
+     * The CPU time and allocations of the threads are attributed to the algorithm that is measured on the current
+     * thread, see {@link MCATAlgorithmMetrics}.
+     *
+     * @param threads number of threads
+     * @return the pool. Must be shut down by the caller with {@link #shutdownPool(ForkJoinPool)}.
+     */
+    public static ForkJoinPool createPool(int threads) {
+        MCATAlgorithmMetrics metrics = MCATAlgorithmMetrics.getCurrent();
+        return new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = new MeasuredWorkerThread(forkJoinPool, metrics);
+            thread.setName("mcat-kmeans-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Shuts down a pool created by {@link #createPool(int)} and waits until its threads have terminated, so their
+     * resource usage is recorded
+     *
+     * @param pool the pool
+     */
+    public static void shutdownPool(ForkJoinPool pool) {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a function in a new pool, so its blocks are processed in parallel.
+     * With one thread, the function is run on the current thread.
+     *
+     * @param threads  number of threads
+     * @param runnable the function
+     */
+    public static void runInPool(int threads, Runnable runnable) {
+        callInPool(threads, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a function in a new pool, so its blocks are processed in parallel.
+     * With one thread, the function is run on the current thread.
+     *
+     * @param threads  number of threads
+     * @param supplier the function
+     * @param <T>      the result type
+     * @return the result of the function
+     */
+    public static <T> T callInPool(int threads, Supplier<T> supplier) {
+        if (threads <= 1) {
+            return supplier.get();
+        }
+        ForkJoinPool pool = createPool(threads);
+        try {
+            return pool.submit(supplier::get).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            shutdownPool(pool);
+        }
+    }
+
+    /**
+     * Pool thread whose resource usage is attributed to an algorithm
+     */
+    private static class MeasuredWorkerThread extends ForkJoinWorkerThread {
+
+        private final MCATAlgorithmMetrics metrics;
+
+        MeasuredWorkerThread(ForkJoinPool pool, MCATAlgorithmMetrics metrics) {
+            super(pool);
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            if (metrics != null)
+                metrics.startHelperThread();
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            if (metrics != null)
+                metrics.stopHelperThread();
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * Finds the center that is closest to a row
+     *
+     * @param matrix  the matrix
+     * @param row     the row
+     * @param centers the centers
+     * @return index of the closest center. If multiple centers have the same distance, the first one is returned.
+     */
+    public static int findClosestCenter(MCATTimeSeriesSource matrix, int row, double[][] centers) {
+        int closest = 0;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < centers.length; i++) {
+            double distance = matrix.squaredDistance(row, centers[i]);
+            if (distance < minDistance) {
+                minDistance = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Calculates the sum of the Euclidean distances of all rows to their closest center, multiplied with the weights of the rows
+     *
+     * @param matrix  the matrix
+     * @param centers the centers
+     * @return the cost
+     */
+    public static double computeCost(MCATTimeSeriesSource matrix, double[][] centers) {
+        return computeCost(matrix, centers, MCATDistanceMeasure.Euclidean);
+    }
+
+    /**
+     * Calculates the sum of the distances of all rows to their closest center, multiplied with the weights of the rows
+     *
+     * @param matrix          the matrix
+     * @param centers         the centers
+     * @param distanceMeasure the distance measure
+     * @return the cost
+     */
+    public static double computeCost(MCATTimeSeriesSource matrix, double[][] centers, MCATDistanceMeasure distanceMeasure) {
+        return computeCost(matrix, new MCATDistanceKernel(centers, distanceMeasure));
+    }
+
+    /**
+     * Calculates the sum of the distances of all rows to their closest center, multiplied with the weights of the rows
+     *
+     * @param matrix the matrix
+     * @param kernel calculates the distances to the centers
+     * @return the cost
+     */
+    public static double computeCost(MCATTimeSeriesSource matrix, MCATDistanceKernel kernel) {
+        int rowCount = matrix.getRowCount();
+        double[] blockCosts = new double[getBlockCount(rowCount)];
+        forEachBlock(blockCosts.length, block -> {
+            int blockStart = getBlockStart(block);
+            int blockEnd = getBlockEnd(block, rowCount);
+            int[] closest = new int[blockEnd - blockStart];
+            double[] distances = new double[blockEnd - blockStart];
+            kernel.assign(matrix, blockStart, blockEnd, closest, distances);
+            MCATCompensatedSum cost = new MCATCompensatedSum();
+            for (int row = blockStart; row < blockEnd; row++) {
+                cost.add(matrix.getWeight(row) * distances[row - blockStart]);
+            }
+            blockCosts[block] = cost.getSum();
+        });
+        return sum(blockCosts);
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Starts from the cluster centers of a clustering with fewer clusters, e.g. the previous step of a sweep over k.
+ * The given centers are kept and each missing center is chosen with greedy k-means++: several candidate rows are drawn
+ * with a probability proportional to their squared distance to the closest center, and the candidate that reduces the
+ * sum of squared distances the most is added. New centers are therefore placed where the given centers fit worst, e.g.
+ * into clusters that merged two groups of time series. As the candidates are random, restarts still explore different
+ * solutions, but need far fewer iterations than starting from scratch.
+ */
+public class MCATKMeansWarmStartInitializer implements MCATKMeansInitializer {
+
+    private final double[][] centers;
+
+    /**
+     * @param centers the centers of the clustering with fewer clusters
+     */
+    public MCATKMeansWarmStartInitializer(double[][] centers) {
+        this.centers = centers;
+    }
+
+    @Override
+    public double[][] chooseInitialCenters(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        int columnCount = matrix.getColumnCount();
+        double[][] result = new double[k][columnCount];
+        int first = Math.min(k, centers.length);
+        for (int i = 0; i < first; i++) {
+            System.arraycopy(centers[i], 0, result[i], 0, columnCount);
+        }
+        if (first == 0) {
+            matrix.copyRow(random.nextInt(rowCount), result[0]);
+            first = 1;
+        }
+
+        double[] minDistances = new double[rowCount];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        int blockCount = MCATKMeansUtils.getBlockCount(rowCount);
+        double[] blockSums = new double[blockCount];
+        updateDistances(matrix, result, 0, first, minDistances, blockSums);
+
+        // Number of candidates per center as in scikit-learn
+        int candidateCount = 2 + (int) Math.log(k);
+        double[] candidate = new double[columnCount];
+        for (int i = first; i < k; i++) {
+            double total = MCATKMeansUtils.sum(blockSums);
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < candidateCount; j++) {
+                int row = total > 0 ? draw(matrix, minDistances, blockSums, random.nextDouble() * total) : random.nextInt(rowCount);
+                matrix.copyRow(row, candidate);
+                double cost = costWith(matrix, candidate, minDistances, blockCount);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    System.arraycopy(candidate, 0, result[i], 0, columnCount);
+                }
+            }
+            updateDistances(matrix, result, i, i + 1, minDistances, blockSums);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the squared distance of each row to its closest center with the centers from first to last - 1
+     */
+    private static void updateDistances(MCATTimeSeriesSource matrix, double[][] centers, int first, int last,
+                                        double[] minDistances, double[] blockSums) {
+        int rowCount = matrix.getRowCount();
+        MCATKMeansUtils.forEachBlock(blockSums.length, block -> {
+            MCATCompensatedSum sum = new MCATCompensatedSum();
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                for (int center = first; center < last; center++) {
+                    minDistances[row] = Math.min(minDistances[row], matrix.squaredDistance(row, centers[center]));
+                }
+                sum.add(matrix.getWeight(row) * minDistances[row]);
+            }
+            blockSums[block] = sum.getSum();
+        });
+    }
+
+    /**
+     * Calculates the sum of the weighted squared distances of all rows to their closest center if a candidate was added
+     */
+    private static double costWith(MCATTimeSeriesSource matrix, double[] candidate, double[] minDistances, int blockCount) {
+        int rowCount = matrix.getRowCount();
+        double[] blockCosts = new double[blockCount];
+        MCATKMeansUtils.forEachBlock(blockCount, block -> {
+            MCATCompensatedSum cost = new MCATCompensatedSum();
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                cost.add(matrix.getWeight(row) * Math.min(minDistances[row], matrix.squaredDistance(row, candidate)));
+            }
+            blockCosts[block] = cost.getSum();
+        });
+        return MCATKMeansUtils.sum(blockCosts);
+    }
+
+    /**
+     * Finds the row at which the cumulative weighted squared distances exceed a value
+     */
+    private static int draw(MCATTimeSeriesSource matrix, double[] minDistances, double[] blockSums, double value) {
+        int rowCount = matrix.getRowCount();
+        double remaining = value;
+        for (int block = 0; block < blockSums.length; block++) {
+            if (remaining >= blockSums[block] && block < blockSums.length - 1) {
+                remaining -= blockSums[block];
+                continue;
+            }
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                remaining -= matrix.getWeight(row) * minDistances[row];
+                if (remaining < 0)
+                    return row;
+            }
+            break;
+        }
+        return rowCount - 1;
+    }
+
+    public double[][] getCenters() {
+        return centers;
+    }
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Clusters the same time series once per k of a range and scores the clusterings to help choosing the number of clusters.
+ * Each clustering is scored with
+ * <ul>
+ * <li>the sum of the squared distances of all rows to their closest center (SSE),</li>
+ * <li>the mean silhouette of a random sample of rows and</li>
+ * <li>the gap statistic (Tibshirani et al., 2001), which compares the dispersion of the clustering to the dispersion of
+ * clusterings of reference data sets that are drawn uniformly from the bounding box of the rows.</li>
+ * </ul>
+ * The dispersion is the mean instead of the sum of the squared distances, so the reference data sets can have fewer rows
+ * than the time series. The distances between the sampled rows do not depend on k and are calculated only once.
+ * <p>
+ * The clusterings of all k and of all reference data sets are independent tasks that run in parallel if the caller runs
+ * in a {@link java.util.concurrent.ForkJoinPool}. All random numbers are derived from the seed, so the result does not
+ * depend on the number of threads.
+ */
+public class MCATKSelection {
+
+    /**
+     * Default number of rows whose silhouettes are averaged
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 2000;
+
+    /**
+     * Default number of reference data sets of the gap statistic
+     */
+    public static final int DEFAULT_REFERENCE_COUNT = 10;
+
+    /**
+     * Default number of rows of each reference data set
+     */
+    public static final int DEFAULT_REFERENCE_SIZE = 10000;
+
+    /**
+     * Reference data sets have no clusters, so more restarts barely change their dispersion
+     */
+    private static final int MAX_REFERENCE_RESTARTS = 3;
+
+    private static final int SAMPLE_STREAM = -1;
+    private static final int REFERENCE_STREAM = -2;
+
+    private final MCATKMeansClusterer clusterer;
+    private final int restarts;
+    private final long seed;
+    private int sampleSize = DEFAULT_SAMPLE_SIZE;
+    private int referenceCount = DEFAULT_REFERENCE_COUNT;
+    private int referenceSize = DEFAULT_REFERENCE_SIZE;
+
+    /**
+     * @param clusterer the clusterer
+     * @param restarts  number of restarts per k
+     * @param seed      the seed
+     */
+    public MCATKSelection(MCATKMeansClusterer clusterer, int restarts, long seed) {
+        if (restarts <= 0)
+            throw new IllegalArgumentException("The number of restarts must be positive!");
+        this.clusterer = clusterer;
+        this.restarts = restarts;
+        this.seed = seed;
+    }
+
+    /**
+     * Clusters and scores the time series for each k of the range
+     *
+     * @param source the time series
+     * @param minK   the smallest k
+     * @param maxK   the largest k
+     * @return the scores
+     */
+    public MCATKSelectionResult run(MCATTimeSeriesSource source, int minK, int maxK) {
+        if (minK <= 0 || maxK < minK)
+            throw new IllegalArgumentException("Invalid k range " + minK + " to " + maxK + "!");
+        if (maxK > source.getRowCount())
+            throw new IllegalArgumentException("Cannot find " + maxK + " clusters in " + source.getRowCount() + " time series!");
+        int kCount = maxK - minK + 1;
+
+        int[] sample = drawSample(source.getRowCount(), Math.min(sampleSize, source.getRowCount()), createRandom(seed, SAMPLE_STREAM));
+        float[][] sampleDistances = computeDistances(source, sample);
+        MCATTimeSeriesMatrix[] references = createReferences(source);
+
+        double[] squaredErrors = new double[kCount];
+        double[] silhouettes = new double[kCount];
+        double[][] referenceDispersions = new double[kCount][referenceCount];
+        MCATKMeansUtils.forEachBlock(kCount * (referenceCount + 1), task -> {
+            int index = task % kCount;
+            int reference = task / kCount - 1;
+            int k = minK + index;
+            if (reference < 0) {
+                MCATKMeansResult result = new MCATKMeansRestarts(clusterer, restarts, 1, seed).run(source, k);
+                squaredErrors[index] = computeSquaredError(source, result.getCenters());
+                silhouettes[index] = computeSilhouette(source, sample, sampleDistances, result.getCenters());
+            } else {
+                MCATTimeSeriesMatrix referenceRows = references[reference];
+                long referenceSeed = createRandom(seed, REFERENCE_STREAM - reference).nextLong();
+                MCATKMeansResult result = new MCATKMeansRestarts(clusterer, Math.min(restarts, MAX_REFERENCE_RESTARTS), 1,
+                        referenceSeed).run(referenceRows, Math.min(k, referenceRows.getRowCount()));
+                referenceDispersions[index][reference] = computeSquaredError(referenceRows, result.getCenters()) / referenceRows.getRowCount();
+            }
+        });
+
+        double totalWeight = 0;
+        for (int row = 0; row < source.getRowCount(); row++) {
+            totalWeight += source.getWeight(row);
+        }
+        double[] gaps = new double[kCount];
+        double[] gapErrors = new double[kCount];
+        for (int index = 0; index < kCount; index++) {
+            double mean = 0;
+            for (double dispersion : referenceDispersions[index]) {
+                mean += Math.log(dispersion);
+            }
+            mean /= referenceCount;
+            double variance = 0;
+            for (double dispersion : referenceDispersions[index]) {
+                variance += (Math.log(dispersion) - mean) * (Math.log(dispersion) - mean);
+            }
+            variance /= referenceCount;
+            gaps[index] = mean - Math.log(squaredErrors[index] / totalWeight);
+            gapErrors[index] = Math.sqrt(variance) * Math.sqrt(1 + 1.0 / referenceCount);
+        }
+        return new MCATKSelectionResult(minK, squaredErrors, silhouettes, gaps, gapErrors);
+    }
+
+    private static RandomGenerator createRandom(long seed, int stream) {
+        return new Well19937c(new int[]{(int) (seed >>> 32), (int) seed, stream});
+    }
+
+    /**
+     * Draws distinct rows with Floyd's algorithm
+     *
+     * @return the sorted rows
+     */
+    private static int[] drawSample(int rowCount, int size, RandomGenerator random) {
+        Set<Integer> rows = new HashSet<>();
+        for (int i = rowCount - size; i < rowCount; i++) {
+            int row = random.nextInt(i + 1);
+            if (!rows.add(row))
+                rows.add(i);
+        }
+        int[] result = rows.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Calculates the Euclidean distances between all sampled rows
+     */
+    private static float[][] computeDistances(MCATTimeSeriesSource source, int[] sample) {
+        double[][] rows = new double[sample.length][source.getColumnCount()];
+        for (int i = 0; i < sample.length; i++) {
+            source.copyRow(sample[i], rows[i]);
+        }
+        float[][] result = new float[sample.length][sample.length];
+        MCATKMeansUtils.forEachBlock(sample.length, i -> {
+            for (int j = i + 1; j < sample.length; j++) {
+                float distance = (float) Math.sqrt(source.squaredDistance(sample[i], rows[j]));
+                result[i][j] = distance;
+                result[j][i] = distance;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Draws the reference data sets uniformly from the bounding box of all rows
+     */
+    private MCATTimeSeriesMatrix[] createReferences(MCATTimeSeriesSource source) {
+        int rowCount = source.getRowCount();
+        int columnCount = source.getColumnCount();
+        double[][] blockMinima = new double[MCATKMeansUtils.getBlockCount(rowCount)][];
+        double[][] blockMaxima = new double[blockMinima.length][];
+        MCATKMeansUtils.forEachBlock(blockMinima.length, block -> {
+            double[] minima = new double[columnCount];
+            double[] maxima = new double[columnCount];
+            Arrays.fill(minima, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxima, Double.NEGATIVE_INFINITY);
+            double[] row = new double[columnCount];
+            for (int i = MCATKMeansUtils.getBlockStart(block); i < MCATKMeansUtils.getBlockEnd(block, rowCount); i++) {
+                source.copyRow(i, row);
+                for (int column = 0; column < columnCount; column++) {
+                    minima[column] = Math.min(minima[column], row[column]);
+                    maxima[column] = Math.max(maxima[column], row[column]);
+                }
+            }
+            blockMinima[block] = minima;
+            blockMaxima[block] = maxima;
+        });
+        double[] minima = blockMinima[0];
+        double[] maxima = blockMaxima[0];
+        for (int block = 1; block < blockMinima.length; block++) {
+            for (int column = 0; column < columnCount; column++) {
+                minima[column] = Math.min(minima[column], blockMinima[block][column]);
+                maxima[column] = Math.max(maxima[column], blockMaxima[block][column]);
+            }
+        }
+
+        MCATTimeSeriesMatrix[] result = new MCATTimeSeriesMatrix[referenceCount];
+        MCATKMeansUtils.forEachBlock(referenceCount, reference -> {
+            RandomGenerator random = createRandom(seed, REFERENCE_STREAM - reference);
+            // The first number seeds the restarts of the reference
+            random.nextLong();
+            double[][] rows = new double[referenceSize][columnCount];
+            for (double[] row : rows) {
+                for (int column = 0; column < columnCount; column++) {
+                    row[column] = minima[column] + random.nextDouble() * (maxima[column] - minima[column]);
+                }
+            }
+            result[reference] = MCATTimeSeriesMatrix.fromRows(Collections.singletonMap("reference", rows), columnCount);
+        });
+        return result;
+    }
+
+    /**
+     * Calculates the sum of the squared Euclidean distances of all rows to their closest center, multiplied with the weights of the rows
+     */
+    private static double computeSquaredError(MCATTimeSeriesSource source, double[][] centers) {
+        int rowCount = source.getRowCount();
+        double[] blockErrors = new double[MCATKMeansUtils.getBlockCount(rowCount)];
+        MCATKMeansUtils.forEachBlock(blockErrors.length, block -> {
+            MCATCompensatedSum error = new MCATCompensatedSum();
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, rowCount); row++) {
+                int closest = MCATKMeansUtils.findClosestCenter(source, row, centers);
+                error.add(source.getWeight(row) * source.squaredDistance(row, centers[closest]));
+            }
+            blockErrors[block] = error.getSum();
+        });
+        return MCATKMeansUtils.sum(blockErrors);
+    }
+
+    /**
+     * Calculates the mean silhouette of the sampled rows.
+     * Rows that are the only sampled row of their cluster have a silhouette of 0.
+     *
+     * @return the mean silhouette or NaN if the sampled rows are in less than two clusters
+     */
+    private static double computeSilhouette(MCATTimeSeriesSource source, int[] sample, float[][] distances, double[][] centers) {
+        int[] labels = new int[sample.length];
+        int[] clusterSizes = new int[centers.length];
+        for (int i = 0; i < sample.length; i++) {
+            labels[i] = MCATKMeansUtils.findClosestCenter(source, sample[i], centers);
+            ++clusterSizes[labels[i]];
+        }
+        int clusterCount = 0;
+        for (int clusterSize : clusterSizes) {
+            if (clusterSize > 0)
+                ++clusterCount;
+        }
+        if (clusterCount < 2)
+            return Double.NaN;
+
+        double[] silhouettes = new double[sample.length];
+        MCATKMeansUtils.forEachBlock(sample.length, i -> {
+            if (clusterSizes[labels[i]] == 1)
+                return;
+            double[] distanceSums = new double[centers.length];
+            for (int j = 0; j < sample.length; j++) {
+                distanceSums[labels[j]] += distances[i][j];
+            }
+            double a = distanceSums[labels[i]] / (clusterSizes[labels[i]] - 1);
+            double b = Double.POSITIVE_INFINITY;
+            for (int cluster = 0; cluster < centers.length; cluster++) {
+                if (cluster != labels[i] && clusterSizes[cluster] > 0)
+                    b = Math.min(b, distanceSums[cluster] / clusterSizes[cluster]);
+            }
+            double max = Math.max(a, b);
+            silhouettes[i] = max > 0 ? (b - a) / max : 0;
+        });
+        return MCATKMeansUtils.sum(silhouettes) / sample.length;
+    }
+
+    public MCATKMeansClusterer getClusterer() {
+        return clusterer;
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Sets the number of rows whose silhouettes are averaged.
+     * The distances between all sampled rows are kept in memory.
+     *
+     * @param sampleSize the number of rows
+     */
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 2)
+            throw new IllegalArgumentException("The sample size must be at least 2!");
+        this.sampleSize = sampleSize;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Sets the number of reference data sets of the gap statistic
+     *
+     * @param referenceCount the number of reference data sets
+     */
+    public void setReferenceCount(int referenceCount) {
+        if (referenceCount <= 0)
+            throw new IllegalArgumentException("The number of reference data sets must be positive!");
+        this.referenceCount = referenceCount;
+    }
+
+    public int getReferenceSize() {
+        return referenceSize;
+    }
+
+    /**
+     * Sets the number of rows of each reference data set
+     *
+     * @param referenceSize the number of rows
+     */
+    public void setReferenceSize(int referenceSize) {
+        if (referenceSize <= 0)
+            throw new IllegalArgumentException("The size of the reference data sets must be positive!");
+        this.referenceSize = referenceSize;
+    }
+}
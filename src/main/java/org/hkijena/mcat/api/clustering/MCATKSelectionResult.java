@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+/**
+ * Scores of the clusterings of a {@link MCATKSelection} for a range of k
+ */
+public class MCATKSelectionResult {
+
+    private final int minK;
+    private final double[] squaredErrors;
+    private final double[] silhouettes;
+    private final double[] gaps;
+    private final double[] gapErrors;
+
+    /**
+     * @param minK          the smallest k. The scores of k are stored at index k - minK.
+     * @param squaredErrors the sum of the squared distances of all rows to their closest center per k
+     * @param silhouettes   the mean silhouette of the sampled rows per k
+     * @param gaps          the gap statistic per k
+     * @param gapErrors     the standard error of the gap statistic per k
+     */
+    public MCATKSelectionResult(int minK, double[] squaredErrors, double[] silhouettes, double[] gaps, double[] gapErrors) {
+        this.minK = minK;
+        this.squaredErrors = squaredErrors;
+        this.silhouettes = silhouettes;
+        this.gaps = gaps;
+        this.gapErrors = gapErrors;
+    }
+
+    public int getMinK() {
+        return minK;
+    }
+
+    public int getMaxK() {
+        return minK + gaps.length - 1;
+    }
+
+    public double getSquaredError(int k) {
+        return squaredErrors[k - minK];
+    }
+
+    public double getSilhouette(int k) {
+        return silhouettes[k - minK];
+    }
+
+    public double getGap(int k) {
+        return gaps[k - minK];
+    }
+
+    public double getGapError(int k) {
+        return gapErrors[k - minK];
+    }
+
+    /**
+     * Returns the smallest k whose gap is at least the gap of k + 1 minus its standard error (Tibshirani et al., 2001)
+     *
+     * @return the k or the largest k if the gap increases over the whole range
+     */
+    public int getGapK() {
+        for (int k = minK; k < getMaxK(); k++) {
+            if (getGap(k) >= getGap(k + 1) - getGapError(k + 1))
+                return k;
+        }
+        return getMaxK();
+    }
+
+    /**
+     * Returns the k with the highest mean silhouette
+     *
+     * @return the k or 0 if no silhouette could be calculated
+     */
+    public int getSilhouetteK() {
+        int result = 0;
+        for (int k = minK; k <= getMaxK(); k++) {
+            if (!Double.isNaN(getSilhouette(k)) && (result == 0 || getSilhouette(k) > getSilhouette(result)))
+                result = k;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Lloyd's k-means algorithm that works directly on the rows of a {@link MCATTimeSeriesSource}, usually the packed values
+ * of a {@link org.hkijena.mcat.api.MCATTimeSeriesMatrix}.
+ * The initial cluster centers are chosen by a {@link MCATKMeansInitializer}. Rows are assigned to the closest center
+ * according to the {@link MCATDistanceMeasure}, whose distances are calculated in tiles by a {@link MCATDistanceKernel}.
+ * Each block of rows sums up its members into its own accumulators, which are allocated once
+ * and combined in block order, so the result does not depend on the number of threads.
+ * With cosine and correlation distances, each row contributes to its center with the inverse of its norm, so the centers
+ * point into the mean direction of their members (spherical k-means).
+ * A cluster that loses all its members is moved to the row that is farthest from its center.
+ * The rows are weighted with {@link MCATTimeSeriesSource#getWeight(int)}, so the algorithm can be run on a coreset.
+ * <p>
+ * The assignment of rows to centers is done by an {@link AssignmentStep}, which can be replaced by subclasses to
+ * avoid distance calculations.
+ */
+public class MCATLloydKMeans implements MCATKMeansClusterer {
+
+    private final int maxIterations;
+    private final MCATKMeansInitializer initializer;
+    private final MCATDistanceMeasure distanceMeasure;
+
+    /**
+     * Creates an instance that chooses the initial cluster centers with k-means++
+     *
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     */
+    public MCATLloydKMeans(int maxIterations) {
+        this(maxIterations, new MCATKMeansPlusPlusInitializer());
+    }
+
+    /**
+     * @param maxIterations maximum number of iterations after the initial cluster centers are chosen
+     * @param initializer   chooses the initial cluster centers
+     */
+    public MCATLloydKMeans(int maxIterations, MCATKMeansInitializer initializer) {
+        this(maxIterations, initializer, MCATDistanceMeasure.Euclidean);
+    }
+
+    /**
+     * @param maxIterations   maximum number of iterations after the initial cluster centers are chosen
+     * @param initializer     chooses the initial cluster centers
+     * @param distanceMeasure the distance between rows and centers. Dynamic time warping is supported by {@link MCATDTWKMeans}.
+     */
+    public MCATLloydKMeans(int maxIterations, MCATKMeansInitializer initializer, MCATDistanceMeasure distanceMeasure) {
+        if (distanceMeasure == MCATDistanceMeasure.DTW)
+            throw new IllegalArgumentException("Dynamic time warping requires DBA averaging, use MCATDTWKMeans instead!");
+        this.maxIterations = maxIterations;
+        this.initializer = initializer;
+        this.distanceMeasure = distanceMeasure;
+    }
+
+    @Override
+    public MCATKMeansResult cluster(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        int columnCount = matrix.getColumnCount();
+        if (rowCount < k)
+            throw new IllegalArgumentException("Cannot create " + k + " clusters from " + rowCount + " time series!");
+
+        double[][] centers = initializer.chooseInitialCenters(matrix, k, random);
+        int[] assignments = new int[rowCount];
+        Arrays.fill(assignments, -1);
+        int blockCount = MCATKMeansUtils.getBlockCount(rowCount);
+        double[][] blockSums = new double[blockCount][k * columnCount];
+        double[][] blockWeights = new double[blockCount][k];
+        boolean[] blockChanged = new boolean[blockCount];
+        double[][] previousCenters = new double[k][columnCount];
+        AssignmentStep step = createAssignmentStep(rowCount, k);
+        double[] rowNorms = distanceMeasure != MCATDistanceMeasure.Euclidean ? MCATDistanceKernel.computeRowNorms(matrix, distanceMeasure) : null;
+
+        for (int iteration = 0; iteration <= maxIterations; iteration++) {
+            MCATDistanceKernel kernel = new MCATDistanceKernel(centers, distanceMeasure);
+            MCATKMeansUtils.forEachBlock(blockCount, block -> {
+                double[] sums = blockSums[block];
+                double[] weights = blockWeights[block];
+                Arrays.fill(sums, 0);
+                Arrays.fill(weights, 0);
+                double[] values = null;
+                boolean changed = false;
+                int blockStart = MCATKMeansUtils.getBlockStart(block);
+                int blockEnd = MCATKMeansUtils.getBlockEnd(block, rowCount);
+                int[] closestCenters = new int[blockEnd - blockStart];
+                step.assign(matrix, blockStart, blockEnd, assignments, kernel, closestCenters);
+                for (int row = blockStart; row < blockEnd; row++) {
+                    int closest = closestCenters[row - blockStart];
+                    if (assignments[row] != closest) {
+                        assignments[row] = closest;
+                        changed = true;
+                    }
+                    double weight = matrix.getWeight(row);
+                    if (rowNorms != null)
+                        weight = rowNorms[row] > 0 ? weight / rowNorms[row] : 0;
+                    weights[closest] += weight;
+                    if (weight == 1) {
+                        matrix.addRow(row, sums, closest * columnCount);
+                    } else {
+                        if (values == null)
+                            values = new double[columnCount];
+                        matrix.copyRow(row, values);
+                        for (int column = 0; column < columnCount; column++) {
+                            sums[closest * columnCount + column] += weight * values[column];
+                        }
+                    }
+                }
+                blockChanged[block] = changed;
+            });
+
+            boolean changed = false;
+            for (boolean value : blockChanged) {
+                changed |= value;
+            }
+            if (!changed || iteration == maxIterations)
+                break;
+
+            for (int i = 0; i < k; i++) {
+                System.arraycopy(centers[i], 0, previousCenters[i], 0, columnCount);
+            }
+            double[] sums = MCATKMeansUtils.sumBlocks(blockSums);
+            double[] weights = MCATKMeansUtils.sumBlocks(blockWeights);
+            for (int i = 0; i < k; i++) {
+                double[] center = centers[i];
+                System.arraycopy(sums, i * columnCount, center, 0, columnCount);
+                if (weights[i] > 0) {
+                    for (int column = 0; column < columnCount; column++) {
+                        center[column] /= weights[i];
+                    }
+                }
+            }
+            for (int i = 0; i < k; i++) {
+                if (isEmpty(blockWeights, i))
+                    step.rowMoved(moveToFarthestRow(matrix, new MCATDistanceKernel(centers, distanceMeasure), assignments, i));
+            }
+            step.centersMoved(matrix, previousCenters, centers, assignments);
+        }
+
+        return new MCATKMeansResult(centers, MCATKMeansUtils.computeCost(matrix, centers, distanceMeasure));
+    }
+
+    private static boolean isEmpty(double[][] blockWeights, int cluster) {
+        for (double[] weights : blockWeights) {
+            if (weights[cluster] > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves an empty cluster to the row with the largest distance to its assigned center
+     *
+     * @return the row
+     */
+    private static int moveToFarthestRow(MCATTimeSeriesSource matrix, MCATDistanceKernel kernel, int[] assignments, int cluster) {
+        double[][] centers = kernel.getCenters();
+        int farthest = 0;
+        double maxDistance = -1;
+        for (int row = 0; row < matrix.getRowCount(); row++) {
+            double distance = kernel.getDistance(matrix, row, assignments[row]);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = row;
+            }
+        }
+        matrix.copyRow(farthest, centers[cluster]);
+        assignments[farthest] = cluster;
+        return farthest;
+    }
+
+    /**
+     * Creates the assignment step for one run of the algorithm
+     *
+     * @param rowCount number of rows
+     * @param k        number of clusters
+     * @return the step
+     */
+    protected AssignmentStep createAssignmentStep(int rowCount, int k) {
+        return (matrix, firstRow, endRow, assignments, kernel, closest) -> kernel.assign(matrix, firstRow, endRow, closest, null);
+    }
+
+    @Override
+    public boolean supportsWeights() {
+        return true;
+    }
+
+    @Override
+    public MCATDistanceMeasure getDistanceMeasure() {
+        return distanceMeasure;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public MCATKMeansInitializer getInitializer() {
+        return initializer;
+    }
+
+    /**
+     * Assigns rows to their closest center.
+     * assign() is called concurrently for different blocks of rows. The other functions are called while no rows are assigned.
+     */
+    protected interface AssignmentStep {
+        /**
+         * Finds the closest center of consecutive rows.
+         * Must return the same result as {@link MCATDistanceKernel#assign(MCATTimeSeriesSource, int, int, int[], double[])}
+         *
+         * @param matrix      the matrix
+         * @param firstRow    the first row
+         * @param endRow      the row after the last row
+         * @param assignments the center each row was assigned to in the previous iteration or -1 in the first iteration
+         * @param kernel      calculates the distances to the current centers
+         * @param closest     receives the index of the closest center of row firstRow + i at index i
+         */
+        void assign(MCATTimeSeriesSource matrix, int firstRow, int endRow, int[] assignments, MCATDistanceKernel kernel, int[] closest);
+
+        /**
+         * Called after the centers were moved
+         *
+         * @param matrix          the matrix
+         * @param previousCenters the centers before they were moved
+         * @param centers         the current centers
+         * @param assignments     the center assigned to each row
+         */
+        default void centersMoved(MCATTimeSeriesSource matrix, double[][] previousCenters, double[][] centers, int[] assignments) {
+        }
+
+        /**
+         * Called if a row was assigned to an empty cluster that was moved onto this row
+         *
+         * @param row the row
+         */
+        default void rowMoved(int row) {
+        }
+    }
+}
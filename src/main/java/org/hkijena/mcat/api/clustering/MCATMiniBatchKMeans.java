@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Collections;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Mini-batch k-means (Sculley, 2010) that only reads random batches of rows instead of all rows per iteration.
+ * The initial cluster centers are chosen by a {@link MCATKMeansInitializer} on a random sample of three batches.
+ * Each batch is assigned to the current centers. Then each center is moved towards its members one after another,
+ * with a learning rate of 1 / (number of rows assigned to the center so far).
+ * The algorithm stops after a maximum number of batches or if the smoothed mean squared distance of the batches
+ * has not improved for {@value #MAX_BATCHES_WITHOUT_IMPROVEMENT} batches.
+ * <p>
+ * Only the sample and the current batch are held in memory, so the source can be much larger than the memory
+ * needed for a {@link MCATTimeSeriesMatrix}. The cost of the result is calculated on all rows.
+ */
+public class MCATMiniBatchKMeans implements MCATKMeansClusterer {
+
+    /**
+     * Maximum number of batches if no other value is provided
+     */
+    public static final int DEFAULT_MAX_BATCHES = 1000;
+
+    private static final int MAX_BATCHES_WITHOUT_IMPROVEMENT = 10;
+
+    private final int batchSize;
+    private final int maxBatches;
+    private final MCATKMeansInitializer initializer;
+
+    /**
+     * Creates an instance that chooses the initial cluster centers with k-means++
+     *
+     * @param batchSize  number of rows per batch
+     * @param maxBatches maximum number of batches after the initial cluster centers are chosen
+     */
+    public MCATMiniBatchKMeans(int batchSize, int maxBatches) {
+        this(batchSize, maxBatches, new MCATKMeansPlusPlusInitializer());
+    }
+
+    /**
+     * @param batchSize   number of rows per batch
+     * @param maxBatches  maximum number of batches after the initial cluster centers are chosen
+     * @param initializer chooses the initial cluster centers from the sample
+     */
+    public MCATMiniBatchKMeans(int batchSize, int maxBatches, MCATKMeansInitializer initializer) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("The batch size must be at least 1!");
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.initializer = initializer;
+    }
+
+    @Override
+    public MCATKMeansResult cluster(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        int columnCount = matrix.getColumnCount();
+        if (rowCount < k)
+            throw new IllegalArgumentException("Cannot create " + k + " clusters from " + rowCount + " time series!");
+
+        double[][] centers = chooseInitialCenters(matrix, k, random);
+        long[] counts = new long[k];
+        int[] batchRows = new int[batchSize];
+        int[] batchAssignments = new int[batchSize];
+        double[] batchDistances = new double[batchSize];
+        double[] values = new double[columnCount];
+        double smoothingFactor = Math.min(1, 2.0 * batchSize / (rowCount + 1));
+        double smoothedDistance = 0;
+        double bestSmoothedDistance = Double.POSITIVE_INFINITY;
+        int batchesWithoutImprovement = 0;
+
+        for (int batch = 0; batch < maxBatches; batch++) {
+            for (int i = 0; i < batchSize; i++) {
+                batchRows[i] = random.nextInt(rowCount);
+            }
+            MCATKMeansUtils.forEachBlock(MCATKMeansUtils.getBlockCount(batchSize), block -> {
+                for (int i = MCATKMeansUtils.getBlockStart(block); i < MCATKMeansUtils.getBlockEnd(block, batchSize); i++) {
+                    int closest = 0;
+                    double minDistance = Double.POSITIVE_INFINITY;
+                    for (int j = 0; j < centers.length; j++) {
+                        double distance = matrix.squaredDistance(batchRows[i], centers[j]);
+                        if (distance < minDistance) {
+                            minDistance = distance;
+                            closest = j;
+                        }
+                    }
+                    batchAssignments[i] = closest;
+                    batchDistances[i] = minDistance;
+                }
+            });
+
+            double meanDistance = 0;
+            for (int i = 0; i < batchSize; i++) {
+                meanDistance += batchDistances[i];
+                int cluster = batchAssignments[i];
+                double[] center = centers[cluster];
+                double learningRate = 1.0 / ++counts[cluster];
+                matrix.copyRow(batchRows[i], values);
+                for (int column = 0; column < columnCount; column++) {
+                    center[column] += learningRate * (values[column] - center[column]);
+                }
+            }
+            meanDistance /= batchSize;
+
+            smoothedDistance = batch == 0 ? meanDistance : (1 - smoothingFactor) * smoothedDistance + smoothingFactor * meanDistance;
+            if (smoothedDistance < bestSmoothedDistance) {
+                bestSmoothedDistance = smoothedDistance;
+                batchesWithoutImprovement = 0;
+            } else if (++batchesWithoutImprovement >= MAX_BATCHES_WITHOUT_IMPROVEMENT) {
+                break;
+            }
+        }
+
+        return new MCATKMeansResult(centers, MCATKMeansUtils.computeCost(matrix, centers));
+    }
+
+    /**
+     * Chooses the initial centers on a random sample of the rows
+     */
+    private double[][] chooseInitialCenters(MCATTimeSeriesSource matrix, int k, RandomGenerator random) {
+        int rowCount = matrix.getRowCount();
+        double[][] sample = new double[Math.min(rowCount, Math.max(3 * batchSize, 3 * k))][matrix.getColumnCount()];
+        for (double[] row : sample) {
+            matrix.copyRow(random.nextInt(rowCount), row);
+        }
+        return initializer.chooseInitialCenters(MCATTimeSeriesMatrix.fromRows(Collections.singletonMap("sample", sample),
+                matrix.getColumnCount()), k, random);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMaxBatches() {
+        return maxBatches;
+    }
+
+    public MCATKMeansInitializer getInitializer() {
+        return initializer;
+    }
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesSource;
+
+/**
+ * Projects time series onto their first principal components, so k-means compares a few components instead of
+ * hundreds of highly correlated time points.
+ * The components are estimated with randomized PCA (Halko et al., 2011) on a random sample of rows: the centered sample
+ * is multiplied with a random Gaussian matrix, refined with power iterations, and the small resulting matrix is
+ * decomposed with the Jacobi eigenvalue algorithm. The cost is linear in the number of time points.
+ * All rows are then projected in one parallel pass.
+ * <p>
+ * As the components are orthonormal, a point in the reduced space can be mapped back onto the time axis by
+ * {@link #reconstruct(double[])}. Projecting the reconstructed point gives back the reduced point.
+ */
+public class MCATPCAProjection {
+
+    /**
+     * Maximum number of rows the components are estimated from
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 20000;
+
+    /**
+     * Number of additional random directions that improve the accuracy of the first components
+     */
+    private static final int OVERSAMPLING = 10;
+
+    private static final int POWER_ITERATIONS = 2;
+
+    private static final int MAX_JACOBI_SWEEPS = 100;
+
+    private final double[] mean;
+    private final double[][] components;
+    private final double explainedVariance;
+
+    /**
+     * @param mean              the mean of the time series
+     * @param components        orthonormal components
+     * @param explainedVariance the fraction of the variance of the sample that is explained by the components
+     */
+    public MCATPCAProjection(double[] mean, double[][] components, double explainedVariance) {
+        this.mean = mean;
+        this.components = components;
+        this.explainedVariance = explainedVariance;
+    }
+
+    /**
+     * Estimates the principal components of the rows of a source.
+     * Products of the sample are processed in parallel blocks if the caller runs in a
+     * {@link java.util.concurrent.ForkJoinPool}. Partial sums are combined in block order, so the result does not depend
+     * on the number of threads.
+     *
+     * @param source         the time series
+     * @param componentCount the number of components. Must not be larger than the number of columns.
+     * @param sampleSize     the maximum number of rows that are sampled
+     * @param random         the random generator used for the sample and the random projection
+     * @return the projection
+     */
+    public static MCATPCAProjection fit(MCATTimeSeriesSource source, int componentCount, int sampleSize, RandomGenerator random) {
+        int columnCount = source.getColumnCount();
+        if (componentCount <= 0 || componentCount > columnCount)
+            throw new IllegalArgumentException("Cannot calculate " + componentCount + " components of " + columnCount + " time points!");
+
+        // Sample rows without replacement in ascending order
+        int rowCount = source.getRowCount();
+        int[] rows;
+        if (rowCount <= sampleSize) {
+            rows = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rows[i] = i;
+            }
+        } else {
+            rows = new int[sampleSize];
+            int selected = 0;
+            for (int row = 0; row < rowCount && selected < sampleSize; row++) {
+                if (random.nextInt(rowCount - row) < sampleSize - selected)
+                    rows[selected++] = row;
+            }
+        }
+        double[][] sample = new double[rows.length][columnCount];
+        double[] mean = new double[columnCount];
+        for (int i = 0; i < rows.length; i++) {
+            source.copyRow(rows[i], sample[i]);
+            for (int column = 0; column < columnCount; column++) {
+                mean[column] += sample[i][column];
+            }
+        }
+        for (int column = 0; column < columnCount; column++) {
+            mean[column] /= rows.length;
+        }
+        double totalVariance = 0;
+        for (double[] row : sample) {
+            for (int column = 0; column < columnCount; column++) {
+                row[column] -= mean[column];
+                totalVariance += row[column] * row[column];
+            }
+        }
+
+        int rank = Math.min(Math.min(componentCount + OVERSAMPLING, columnCount), rows.length);
+        double[][] omega = new double[columnCount][rank];
+        for (double[] row : omega) {
+            for (int i = 0; i < rank; i++) {
+                row[i] = random.nextGaussian();
+            }
+        }
+
+        // Orthonormal basis Q of the range of the sample
+        double[][] q = multiply(sample, omega);
+        orthonormalize(q);
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            double[][] z = multiplyTransposed(sample, q, columnCount);
+            orthonormalize(z);
+            q = multiply(sample, z);
+            orthonormalize(q);
+        }
+
+        // B = Q^T A has the same leading singular vectors as the sample. Decompose B B^T = U S^2 U^T.
+        double[][] bt = multiplyTransposed(sample, q, columnCount);
+        double[][] bbt = new double[rank][rank];
+        for (double[] row : bt) {
+            for (int i = 0; i < rank; i++) {
+                for (int j = 0; j < rank; j++) {
+                    bbt[i][j] += row[i] * row[j];
+                }
+            }
+        }
+        double[][] eigenvectors = new double[rank][rank];
+        double[] eigenvalues = jacobi(bbt, eigenvectors);
+        Integer[] order = new Integer[rank];
+        for (int i = 0; i < rank; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> Double.compare(eigenvalues[second], eigenvalues[first]));
+
+        // The components are the right singular vectors B^T u / s
+        int resultCount = Math.min(componentCount, rank);
+        double[][] components = new double[resultCount][columnCount];
+        double explained = 0;
+        for (int i = 0; i < resultCount; i++) {
+            int index = order[i];
+            double singularValue = Math.sqrt(Math.max(0, eigenvalues[index]));
+            explained += Math.max(0, eigenvalues[index]);
+            if (singularValue <= 0)
+                continue;
+            for (int column = 0; column < columnCount; column++) {
+                double sum = 0;
+                for (int j = 0; j < rank; j++) {
+                    sum += bt[column][j] * eigenvectors[j][index];
+                }
+                components[i][column] = sum / singularValue;
+            }
+        }
+        return new MCATPCAProjection(mean, components, totalVariance > 0 ? explained / totalVariance : 1);
+    }
+
+    /**
+     * Projects all rows of a source onto the components.
+     * The rows are processed in parallel blocks if the caller runs in a {@link java.util.concurrent.ForkJoinPool}.
+     *
+     * @param source the time series
+     * @return matrix with one column per component and the data sets of the source
+     */
+    public MCATTimeSeriesMatrix project(MCATTimeSeriesSource source) {
+        return MCATTimeSeriesMatrix.transform(source, components.length, this::project);
+    }
+
+    /**
+     * Projects a point onto the components
+     *
+     * @param point  the point with one value per time point
+     * @param target receives one value per component
+     */
+    public void project(double[] point, double[] target) {
+        for (int i = 0; i < components.length; i++) {
+            double[] component = components[i];
+            double sum = 0;
+            for (int column = 0; column < component.length; column++) {
+                sum += (point[column] - mean[column]) * component[column];
+            }
+            target[i] = sum;
+        }
+    }
+
+    /**
+     * Projects a point onto the components
+     *
+     * @param point the point with one value per time point
+     * @return one value per component
+     */
+    public double[] project(double[] point) {
+        double[] result = new double[components.length];
+        project(point, result);
+        return result;
+    }
+
+    /**
+     * Maps a point in the reduced space back onto the time axis
+     *
+     * @param point one value per component
+     * @return one value per time point
+     */
+    public double[] reconstruct(double[] point) {
+        double[] result = mean.clone();
+        for (int i = 0; i < components.length; i++) {
+            for (int column = 0; column < result.length; column++) {
+                result[column] += point[i] * components[i][column];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates A X for a sample A and a small matrix X
+     */
+    private static double[][] multiply(double[][] sample, double[][] x) {
+        int width = x[0].length;
+        double[][] result = new double[sample.length][width];
+        MCATKMeansUtils.forEachBlock(MCATKMeansUtils.getBlockCount(sample.length), block -> {
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, sample.length); row++) {
+                double[] values = sample[row];
+                double[] target = result[row];
+                for (int column = 0; column < values.length; column++) {
+                    double value = values[column];
+                    double[] factors = x[column];
+                    for (int i = 0; i < width; i++) {
+                        target[i] += value * factors[i];
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Calculates A^T Y for a sample A and a matrix Y with one row per sampled row
+     */
+    private static double[][] multiplyTransposed(double[][] sample, double[][] y, int columnCount) {
+        int width = y[0].length;
+        int blockCount = MCATKMeansUtils.getBlockCount(sample.length);
+        double[][][] blockResults = new double[blockCount][][];
+        MCATKMeansUtils.forEachBlock(blockCount, block -> {
+            double[][] result = new double[columnCount][width];
+            for (int row = MCATKMeansUtils.getBlockStart(block); row < MCATKMeansUtils.getBlockEnd(block, sample.length); row++) {
+                double[] values = sample[row];
+                double[] factors = y[row];
+                for (int column = 0; column < columnCount; column++) {
+                    double value = values[column];
+                    double[] target = result[column];
+                    for (int i = 0; i < width; i++) {
+                        target[i] += value * factors[i];
+                    }
+                }
+            }
+            blockResults[block] = result;
+        });
+        double[][] result = new double[columnCount][width];
+        double[] values = new double[blockCount];
+        for (int column = 0; column < columnCount; column++) {
+            for (int i = 0; i < width; i++) {
+                for (int block = 0; block < blockCount; block++) {
+                    values[block] = blockResults[block][column][i];
+                }
+                result[column][i] = MCATKMeansUtils.sum(values);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Orthonormalizes the columns of a matrix with the modified Gram-Schmidt process.
+     * Columns that are linearly dependent on the previous columns are set to zero.
+     */
+    private static void orthonormalize(double[][] matrix) {
+        int width = matrix[0].length;
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < i; j++) {
+                double dot = 0;
+                for (double[] row : matrix) {
+                    dot += row[i] * row[j];
+                }
+                for (double[] row : matrix) {
+                    row[i] -= dot * row[j];
+                }
+            }
+            double norm = 0;
+            for (double[] row : matrix) {
+                norm += row[i] * row[i];
+            }
+            norm = Math.sqrt(norm);
+            for (double[] row : matrix) {
+                row[i] = norm > 1e-12 ? row[i] / norm : 0;
+            }
+        }
+    }
+
+    /**
+     * Calculates the eigenvalues and eigenvectors of a small symmetric matrix with the cyclic Jacobi algorithm
+     *
+     * @param matrix       the matrix. Is modified.
+     * @param eigenvectors receives the eigenvectors as columns
+     * @return the eigenvalues in the order of the eigenvectors
+     */
+    private static double[] jacobi(double[][] matrix, double[][] eigenvectors) {
+        int n = matrix.length;
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(eigenvectors[i], 0);
+            eigenvectors[i][i] = 1;
+        }
+        for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+            double offDiagonal = 0;
+            double diagonal = 0;
+            for (int i = 0; i < n; i++) {
+                diagonal += matrix[i][i] * matrix[i][i];
+                for (int j = i + 1; j < n; j++) {
+                    offDiagonal += matrix[i][j] * matrix[i][j];
+                }
+            }
+            if (offDiagonal <= 1e-24 * diagonal)
+                break;
+            for (int p = 0; p < n; p++) {
+                for (int r = p + 1; r < n; r++) {
+                    if (matrix[p][r] == 0)
+                        continue;
+                    double theta = (matrix[r][r] - matrix[p][p]) / (2 * matrix[p][r]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0)
+                        t = 1;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int i = 0; i < n; i++) {
+                        double ip = matrix[i][p];
+                        double ir = matrix[i][r];
+                        matrix[i][p] = c * ip - s * ir;
+                        matrix[i][r] = s * ip + c * ir;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        double pi = matrix[p][i];
+                        double ri = matrix[r][i];
+                        matrix[p][i] = c * pi - s * ri;
+                        matrix[r][i] = s * pi + c * ri;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        double ip = eigenvectors[i][p];
+                        double ir = eigenvectors[i][r];
+                        eigenvectors[i][p] = c * ip - s * ir;
+                        eigenvectors[i][r] = s * ip + c * ir;
+                    }
+                }
+            }
+        }
+        double[] result = new double[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = matrix[i][i];
+        }
+        return result;
+    }
+
+    public double[] getMean() {
+        return mean;
+    }
+
+    public double[][] getComponents() {
+        return components;
+    }
+
+    public int getComponentCount() {
+        return components.length;
+    }
+
+    /**
+     * @return the fraction of the variance of the sampled time series that is explained by the components
+     */
+    public double getExplainedVariance() {
+        return explainedVariance;
+    }
+}
@@ -12,13 +12,23 @@
  ******************************************************************************/
 package org.hkijena.mcat.api.datainterfaces;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.hkijena.mcat.api.MCATDataInterface;
 import org.hkijena.mcat.api.MCATDataSlot;
+import org.hkijena.mcat.api.MCATImageTimeSeriesSource;
+import org.hkijena.mcat.api.MCATMappedTimeSeriesMatrix;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.hkijena.mcat.extension.datatypes.HyperstackData;
+import org.hkijena.mcat.extension.datatypes.TimeSeriesMatrixData;
+
+import ij.ImagePlus;
 
 /**
  * A data interface that contains the input of an {@link org.hkijena.mcat.api.algorithms.MCATClusteringAlgorithm}
@@ -29,6 +39,8 @@ public class MCATClusteringInput implements MCATDataInterface {
     private final String groupTreatment;
     private Map<String, MCATClusteringInputDataSetEntry> dataSetEntries = new HashMap<>();
     private List<MCATPreprocessingOutput> allPreprocessingOutputs = new ArrayList<>();
+    private Map<Integer, MCATTimeSeriesMatrix> timeSeriesMatrices = new HashMap<>();
+    private int timeSeriesMatrixConsumers = 0;
 
     public MCATClusteringInput(String groupSubject, String groupTreatment) {
         this.groupSubject = groupSubject;
@@ -56,6 +68,85 @@ public class MCATClusteringInput implements MCATDataInterface {
         return allPreprocessingOutputs;
     }
 
+    /**
+     * Returns the time series of all pixels of the preprocessed images.
+     * The matrix is created once per length and shared by all algorithms that cluster this input.
+     *
+     * @param length the number of time points
+     * @return the matrix
+     */
+    public synchronized MCATTimeSeriesMatrix getTimeSeriesMatrix(int length) {
+        MCATTimeSeriesMatrix matrix = timeSeriesMatrices.get(length);
+        if (matrix == null) {
+            matrix = new MCATTimeSeriesMatrix(getPreprocessedImages(), length);
+            timeSeriesMatrices.put(length, matrix);
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns the time series of all pixels of the preprocessed images without copying them into a matrix.
+     * The time series are read from the preprocessed images whenever they are accessed.
+     *
+     * @param length the number of time points
+     * @return the time series
+     */
+    public MCATImageTimeSeriesSource getImageTimeSeriesSource(int length) {
+        return new MCATImageTimeSeriesSource(getPreprocessedImages(), length);
+    }
+
+    /**
+     * Returns the time series of all pixels from the files written by the preprocessing.
+     * The files are memory-mapped, so the time series do not occupy heap memory.
+     * Waits until the files are written.
+     *
+     * @param length the number of time points
+     * @return the time series or null if a file is not available (e.g. for results of older versions)
+     */
+    public MCATMappedTimeSeriesMatrix getMappedTimeSeriesMatrix(int length) {
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (Map.Entry<String, MCATClusteringInputDataSetEntry> entry : dataSetEntries.entrySet()) {
+            MCATDataSlot slot = entry.getValue().getPreprocessedDataInterface().getTimeSeriesMatrix();
+            slot.getPendingWrite().join();
+            Path file = null;
+            if (slot.getStorageFilePath() != null && slot.getFileName() != null)
+                file = slot.getStorageFilePath().resolve(slot.getFileName());
+            // Data that was loaded from an existing file refers to that file
+            if (slot.hasDataOrIsProvidedData() && slot.getData(TimeSeriesMatrixData.class).getFilePath() != null)
+                file = slot.getData(TimeSeriesMatrixData.class).getFilePath();
+            if (file == null || !Files.isRegularFile(file))
+                return null;
+            files.put(entry.getKey(), file);
+        }
+        return new MCATMappedTimeSeriesMatrix(files, length);
+    }
+
+    private Map<String, ImagePlus> getPreprocessedImages() {
+        Map<String, ImagePlus> images = new LinkedHashMap<>();
+        for (Map.Entry<String, MCATClusteringInputDataSetEntry> entry : dataSetEntries.entrySet()) {
+            images.put(entry.getKey(), entry.getValue().getPreprocessedDataInterface().getPreprocessedImage()
+                    .getData(HyperstackData.class).getImage());
+        }
+        return images;
+    }
+
+    /**
+     * Registers an algorithm that will request the time series matrix
+     */
+    public synchronized void addTimeSeriesMatrixConsumer() {
+        ++timeSeriesMatrixConsumers;
+    }
+
+    /**
+     * Called by an algorithm registered with addTimeSeriesMatrixConsumer() that does not need the matrix anymore.
+     * The matrices are removed after the last consumer was released.
+     */
+    public synchronized void releaseTimeSeriesMatrixConsumer() {
+        --timeSeriesMatrixConsumers;
+        if (timeSeriesMatrixConsumers <= 0)
+            timeSeriesMatrices.clear();
+    }
+
     public Map<String, MCATClusteringInputDataSetEntry> getDataSetEntries() {
         return dataSetEntries;
     }
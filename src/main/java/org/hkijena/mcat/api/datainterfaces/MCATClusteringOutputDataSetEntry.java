@@ -18,12 +18,12 @@ import java.util.Map;
 import org.hkijena.mcat.api.MCATDataInterface;
 import org.hkijena.mcat.api.MCATDataSlot;
 import org.hkijena.mcat.extension.datatypes.ClusterAbundanceData;
-import org.hkijena.mcat.extension.datatypes.HyperstackData;
+import org.hkijena.mcat.extension.datatypes.ClusterLabelsData;
 
 public class MCATClusteringOutputDataSetEntry implements MCATDataInterface {
     private String dataSetName;
     private MCATDataSlot clusterAbundance = new MCATDataSlot("cluster-abundance", ClusterAbundanceData.class);
-    private MCATDataSlot clusterImages = new MCATDataSlot("cluster-image", HyperstackData.class);
+    private MCATDataSlot clusterImages = new MCATDataSlot("cluster-image", ClusterLabelsData.class);
 
     public MCATClusteringOutputDataSetEntry(String dataSetName) {
         this.dataSetName = dataSetName;
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.datainterfaces;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hkijena.mcat.api.MCATDataInterface;
+import org.hkijena.mcat.api.MCATDataSlot;
+import org.hkijena.mcat.extension.datatypes.KSelectionData;
+
+/**
+ * A data interface that contains the output of an {@link org.hkijena.mcat.api.algorithms.MCATKSelectionAlgorithm}
+ */
+public class MCATKSelectionOutput implements MCATDataInterface {
+
+    private final String groupSubject;
+    private final String groupTreatment;
+    private MCATDataSlot kSelection = new MCATDataSlot("k-selection", KSelectionData.class);
+
+    public MCATKSelectionOutput(String groupSubject, String groupTreatment) {
+        this.groupSubject = groupSubject;
+        this.groupTreatment = groupTreatment;
+    }
+
+    @Override
+    public Map<String, MCATDataSlot> getSlots() {
+        Map<String, MCATDataSlot> result = new HashMap<>();
+        result.put(kSelection.getName(), kSelection);
+        return result;
+    }
+
+    public MCATDataSlot getKSelection() {
+        return kSelection;
+    }
+
+    /**
+     * Discriminator used for grouping the data sets together. Can be null.
+     *
+     * @return Discriminator used for grouping the data sets together. Can be null.
+     */
+    public String getGroupSubject() {
+        return groupSubject;
+    }
+
+    /**
+     * Discriminator used for grouping the data sets together. Can be null.
+     *
+     * @return Discriminator used for grouping the data sets together. Can be null.
+     */
+    public String getGroupTreatment() {
+        return groupTreatment;
+    }
+}
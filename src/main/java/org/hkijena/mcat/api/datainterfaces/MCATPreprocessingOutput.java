@@ -19,6 +19,7 @@ import org.hkijena.mcat.api.MCATDataInterface;
 import org.hkijena.mcat.api.MCATDataSlot;
 import org.hkijena.mcat.extension.datatypes.DerivativeMatrixData;
 import org.hkijena.mcat.extension.datatypes.HyperstackData;
+import org.hkijena.mcat.extension.datatypes.TimeSeriesMatrixData;
 
 /**
  * Organizes preprocessed data
@@ -26,6 +27,7 @@ import org.hkijena.mcat.extension.datatypes.HyperstackData;
 public class MCATPreprocessingOutput implements MCATDataInterface {
     private MCATDataSlot preprocessedImage = new MCATDataSlot("preprocessed-image", HyperstackData.class);
     private MCATDataSlot derivativeMatrix = new MCATDataSlot("derivative-matrix", DerivativeMatrixData.class);
+    private MCATDataSlot timeSeriesMatrix = new MCATDataSlot("time-series-matrix", TimeSeriesMatrixData.class);
 
     // Must be set by preprocessing
     private int nSlices = -1;
@@ -37,6 +39,7 @@ public class MCATPreprocessingOutput implements MCATDataInterface {
     public MCATPreprocessingOutput(MCATPreprocessingOutput other) {
         this.preprocessedImage = new MCATDataSlot(other.preprocessedImage);
         this.derivativeMatrix = new MCATDataSlot(other.derivativeMatrix);
+        this.timeSeriesMatrix = new MCATDataSlot(other.timeSeriesMatrix);
     }
 
     public MCATDataSlot getPreprocessedImage() {
@@ -47,11 +50,21 @@ public class MCATPreprocessingOutput implements MCATDataInterface {
         return derivativeMatrix;
     }
 
+    /**
+     * The preprocessed time series as binary file that can be memory-mapped by the clustering
+     *
+     * @return the slot
+     */
+    public MCATDataSlot getTimeSeriesMatrix() {
+        return timeSeriesMatrix;
+    }
+
     @Override
     public Map<String, MCATDataSlot> getSlots() {
         Map<String, MCATDataSlot> result = new HashMap<>();
         result.put(preprocessedImage.getName(), preprocessedImage);
         result.put(derivativeMatrix.getName(), derivativeMatrix);
+        result.put(timeSeriesMatrix.getName(), timeSeriesMatrix);
         return result;
     }
 
@@ -12,10 +12,15 @@
  ******************************************************************************/
 package org.hkijena.mcat.api.parameters;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.hkijena.mcat.api.MCATClusteringHierarchy;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
 import org.hkijena.mcat.api.MCATDocumentation;
+import org.hkijena.mcat.api.MCATKMeansEngine;
+import org.hkijena.mcat.api.MCATKMeansInitialization;
 import org.hkijena.mcat.api.events.ParameterChangedEvent;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
@@ -32,13 +37,34 @@ import com.google.common.eventbus.EventBus;
  * Post an event {@link ParameterChangedEvent} when a value is set.
  * <p>
  * Add the variable to getHashCode() and equals()
+ * <p>
+ * Parameters that do not change the results (the number of threads, out-of-core clustering) are not part of
+ * getHashCode(), equals() and toString(), so they do not create additional clustering steps and do not invalidate
+ * cached results.
  */
 public class MCATClusteringParameters implements MCATParameterCollection {
 	public static final int MIN_LENGTH_DEFAULT = Integer.MAX_VALUE;
+	public static final int KMEANS_RESTARTS_DEFAULT = 100;
+	public static final int KMEANS_BATCH_SIZE_DEFAULT = 1024;
+	public static final int K_SELECTION_MIN_K_DEFAULT = 2;
+	public static final int KMEANS_DTW_WINDOW_DEFAULT = 10;
 	
     private EventBus eventBus = new EventBus();
     private int kMeansK = 5;
     private int minLength = MIN_LENGTH_DEFAULT;
+    private int kMeansRestarts = KMEANS_RESTARTS_DEFAULT;
+    private int kMeansThreads = 1;
+    private MCATKMeansEngine kMeansEngine = MCATKMeansEngine.CommonsMath;
+    private int kMeansBatchSize = KMEANS_BATCH_SIZE_DEFAULT;
+    private MCATKMeansInitialization kMeansInitialization = MCATKMeansInitialization.KMeansPlusPlus;
+    private MCATDistanceMeasure kMeansDistanceMeasure = MCATDistanceMeasure.Euclidean;
+    private int kMeansDTWWindow = KMEANS_DTW_WINDOW_DEFAULT;
+    private int kMeansCoresetSize = 0;
+    private int pcaComponents = 0;
+    private int kMeansWarmStartRestarts = 0;
+    private int kSelectionMinK = K_SELECTION_MIN_K_DEFAULT;
+    private int kSelectionMaxK = 0;
+    private boolean outOfCore = false;
 
     private MCATClusteringHierarchy clusteringHierarchy = MCATClusteringHierarchy.PerTreatment;
 
@@ -49,6 +75,19 @@ public class MCATClusteringParameters implements MCATParameterCollection {
         this.kMeansK = other.kMeansK;
         this.minLength = other.minLength;
         this.clusteringHierarchy = other.clusteringHierarchy;
+        this.kMeansRestarts = other.kMeansRestarts;
+        this.kMeansThreads = other.kMeansThreads;
+        this.kMeansEngine = other.kMeansEngine;
+        this.kMeansBatchSize = other.kMeansBatchSize;
+        this.kMeansInitialization = other.kMeansInitialization;
+        this.kMeansDistanceMeasure = other.kMeansDistanceMeasure;
+        this.kMeansDTWWindow = other.kMeansDTWWindow;
+        this.kMeansCoresetSize = other.kMeansCoresetSize;
+        this.pcaComponents = other.pcaComponents;
+        this.kMeansWarmStartRestarts = other.kMeansWarmStartRestarts;
+        this.kSelectionMinK = other.kSelectionMinK;
+        this.kSelectionMaxK = other.kSelectionMaxK;
+        this.outOfCore = other.outOfCore;
     }
 
     @MCATDocumentation(name = "Clustering hierarchy", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_hierarchy.md")
@@ -83,6 +122,224 @@ public class MCATClusteringParameters implements MCATParameterCollection {
         return true;
     }
 
+    @MCATDocumentation(name = "K-Means restarts", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_restarts.md")
+    @MCATParameter(value = "kmeans-restarts", shortKey = "restarts")
+    @JsonGetter("kmeans-restarts")
+    public int getkMeansRestarts() {
+        return kMeansRestarts;
+    }
+
+    @MCATParameter("kmeans-restarts")
+    @JsonSetter("kmeans-restarts")
+    public boolean setkMeansRestarts(int kMeansRestarts) {
+        if (kMeansRestarts <= 0) {
+            return false;
+        }
+        this.kMeansRestarts = kMeansRestarts;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-restarts"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K-Means threads", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_threads.md")
+    @MCATParameter(value = "kmeans-threads", shortKey = "kThreads")
+    @JsonGetter("kmeans-threads")
+    public int getkMeansThreads() {
+        return kMeansThreads;
+    }
+
+    @MCATParameter("kmeans-threads")
+    @JsonSetter("kmeans-threads")
+    public boolean setkMeansThreads(int kMeansThreads) {
+        if (kMeansThreads <= 0) {
+            return false;
+        }
+        this.kMeansThreads = kMeansThreads;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-threads"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K-Means engine", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_engine.md")
+    @MCATParameter(value = "kmeans-engine", shortKey = "engine")
+    @JsonGetter("kmeans-engine")
+    public MCATKMeansEngine getkMeansEngine() {
+        return kMeansEngine;
+    }
+
+    @MCATParameter("kmeans-engine")
+    @JsonSetter("kmeans-engine")
+    public void setkMeansEngine(MCATKMeansEngine kMeansEngine) {
+        this.kMeansEngine = kMeansEngine;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-engine"));
+    }
+
+    @MCATDocumentation(name = "K-Means batch size", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_batch_size.md")
+    @MCATParameter(value = "kmeans-batch-size", shortKey = "batch")
+    @JsonGetter("kmeans-batch-size")
+    public int getkMeansBatchSize() {
+        return kMeansBatchSize;
+    }
+
+    @MCATParameter("kmeans-batch-size")
+    @JsonSetter("kmeans-batch-size")
+    public boolean setkMeansBatchSize(int kMeansBatchSize) {
+        if (kMeansBatchSize <= 0) {
+            return false;
+        }
+        this.kMeansBatchSize = kMeansBatchSize;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-batch-size"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K-Means initialization", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_initialization.md")
+    @MCATParameter(value = "kmeans-initialization", shortKey = "init")
+    @JsonGetter("kmeans-initialization")
+    public MCATKMeansInitialization getkMeansInitialization() {
+        return kMeansInitialization;
+    }
+
+    @MCATParameter("kmeans-initialization")
+    @JsonSetter("kmeans-initialization")
+    public void setkMeansInitialization(MCATKMeansInitialization kMeansInitialization) {
+        this.kMeansInitialization = kMeansInitialization;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-initialization"));
+    }
+
+    @MCATDocumentation(name = "K-Means distance", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_distance.md")
+    @MCATParameter(value = "kmeans-distance", shortKey = "distance")
+    @JsonGetter("kmeans-distance")
+    public MCATDistanceMeasure getkMeansDistanceMeasure() {
+        return kMeansDistanceMeasure;
+    }
+
+    @MCATParameter("kmeans-distance")
+    @JsonSetter("kmeans-distance")
+    public void setkMeansDistanceMeasure(MCATDistanceMeasure kMeansDistanceMeasure) {
+        this.kMeansDistanceMeasure = kMeansDistanceMeasure;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-distance"));
+    }
+
+    @MCATDocumentation(name = "K-Means DTW window (%)", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_dtw_window.md")
+    @MCATParameter(value = "kmeans-dtw-window", shortKey = "dtwWindow")
+    @JsonGetter("kmeans-dtw-window")
+    public int getkMeansDTWWindow() {
+        return kMeansDTWWindow;
+    }
+
+    @MCATParameter("kmeans-dtw-window")
+    @JsonSetter("kmeans-dtw-window")
+    public boolean setkMeansDTWWindow(int kMeansDTWWindow) {
+        if (kMeansDTWWindow < 0 || kMeansDTWWindow > 100) {
+            return false;
+        }
+        this.kMeansDTWWindow = kMeansDTWWindow;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-dtw-window"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K-Means coreset size", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_coreset_size.md")
+    @MCATParameter(value = "kmeans-coreset-size", shortKey = "coreset")
+    @JsonGetter("kmeans-coreset-size")
+    public int getkMeansCoresetSize() {
+        return kMeansCoresetSize;
+    }
+
+    @MCATParameter("kmeans-coreset-size")
+    @JsonSetter("kmeans-coreset-size")
+    public boolean setkMeansCoresetSize(int kMeansCoresetSize) {
+        if (kMeansCoresetSize < 0) {
+            return false;
+        }
+        this.kMeansCoresetSize = kMeansCoresetSize;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-coreset-size"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K-Means warm start restarts", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_warm_start_restarts.md")
+    @MCATParameter(value = "kmeans-warm-start-restarts", shortKey = "warm")
+    @JsonGetter("kmeans-warm-start-restarts")
+    public int getkMeansWarmStartRestarts() {
+        return kMeansWarmStartRestarts;
+    }
+
+    @MCATParameter("kmeans-warm-start-restarts")
+    @JsonSetter("kmeans-warm-start-restarts")
+    public boolean setkMeansWarmStartRestarts(int kMeansWarmStartRestarts) {
+        if (kMeansWarmStartRestarts < 0) {
+            return false;
+        }
+        this.kMeansWarmStartRestarts = kMeansWarmStartRestarts;
+        eventBus.post(new ParameterChangedEvent(this, "kmeans-warm-start-restarts"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K selection minimum k", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_k_selection.md")
+    @MCATParameter(value = "k-selection-min-k", shortKey = "kSelMin")
+    @JsonGetter("k-selection-min-k")
+    public int getkSelectionMinK() {
+        return kSelectionMinK;
+    }
+
+    @MCATParameter("k-selection-min-k")
+    @JsonSetter("k-selection-min-k")
+    public boolean setkSelectionMinK(int kSelectionMinK) {
+        if (kSelectionMinK <= 0) {
+            return false;
+        }
+        this.kSelectionMinK = kSelectionMinK;
+        eventBus.post(new ParameterChangedEvent(this, "k-selection-min-k"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "K selection maximum k", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_k_selection.md")
+    @MCATParameter(value = "k-selection-max-k", shortKey = "kSelMax")
+    @JsonGetter("k-selection-max-k")
+    public int getkSelectionMaxK() {
+        return kSelectionMaxK;
+    }
+
+    @MCATParameter("k-selection-max-k")
+    @JsonSetter("k-selection-max-k")
+    public boolean setkSelectionMaxK(int kSelectionMaxK) {
+        if (kSelectionMaxK < 0) {
+            return false;
+        }
+        this.kSelectionMaxK = kSelectionMaxK;
+        eventBus.post(new ParameterChangedEvent(this, "k-selection-max-k"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "PCA components", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_pca_components.md")
+    @MCATParameter(value = "pca-components", shortKey = "pca")
+    @JsonGetter("pca-components")
+    public int getPcaComponents() {
+        return pcaComponents;
+    }
+
+    @MCATParameter("pca-components")
+    @JsonSetter("pca-components")
+    public boolean setPcaComponents(int pcaComponents) {
+        if (pcaComponents < 0) {
+            return false;
+        }
+        this.pcaComponents = pcaComponents;
+        eventBus.post(new ParameterChangedEvent(this, "pca-components"));
+        return true;
+    }
+
+    @MCATDocumentation(name = "Out-of-core clustering", description = "res:///org/hkijena/mcat/documentation/parameter_clustering_out_of_core.md")
+    @MCATParameter(value = "out-of-core", shortKey = "ooc")
+    @JsonGetter("out-of-core")
+    public boolean isOutOfCore() {
+        return outOfCore;
+    }
+
+    @MCATParameter("out-of-core")
+    @JsonSetter("out-of-core")
+    public void setOutOfCore(boolean outOfCore) {
+        this.outOfCore = outOfCore;
+        eventBus.post(new ParameterChangedEvent(this, "out-of-core"));
+    }
+
 //    @MCATDocumentation(name = "Minimum length")
 //    @MCATParameter(value = "min-length", shortKey = "mlength")
     @JsonGetter("min-length")
@@ -104,12 +361,23 @@ public class MCATClusteringParameters implements MCATParameterCollection {
         MCATClusteringParameters that = (MCATClusteringParameters) o;
         return kMeansK == that.kMeansK &&
                 minLength == that.minLength &&
-                clusteringHierarchy == that.clusteringHierarchy;
+                clusteringHierarchy == that.clusteringHierarchy &&
+                kMeansRestarts == that.kMeansRestarts &&
+                kMeansEngine == that.kMeansEngine &&
+                kMeansBatchSize == that.kMeansBatchSize &&
+                kMeansInitialization == that.kMeansInitialization &&
+                kMeansDistanceMeasure == that.kMeansDistanceMeasure &&
+                kMeansDTWWindow == that.kMeansDTWWindow &&
+                kMeansCoresetSize == that.kMeansCoresetSize &&
+                pcaComponents == that.pcaComponents &&
+                kMeansWarmStartRestarts == that.kMeansWarmStartRestarts &&
+                kSelectionMinK == that.kSelectionMinK &&
+                kSelectionMaxK == that.kSelectionMaxK;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(kMeansK, minLength, clusteringHierarchy);
+        return Objects.hash(kMeansK, minLength, clusteringHierarchy, kMeansRestarts, kMeansEngine, kMeansBatchSize, kMeansInitialization, kMeansDistanceMeasure, kMeansDTWWindow, kMeansCoresetSize, pcaComponents, kMeansWarmStartRestarts, kSelectionMinK, kSelectionMaxK);
     }
 
     @Override
@@ -119,10 +387,23 @@ public class MCATClusteringParameters implements MCATParameterCollection {
 
     @Override
     public String toString() {
-        return MCATCustomParameterCollection.parametersToString((new MCATTraversedParameterCollection(this)).getParameters().values(), "_", "-");
+        return MCATCustomParameterCollection.parametersToString((new MCATTraversedParameterCollection(this)).getParameters().entrySet().stream()
+                .filter(entry -> !entry.getKey().equals("kmeans-threads") && !entry.getKey().equals("out-of-core"))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList()), "_", "-");
     }
     
     public String toShortenedString() {
-		return "_k-" + kMeansK + "_hierarchy-" + clusteringHierarchy;
+		String restarts = kMeansRestarts == KMEANS_RESTARTS_DEFAULT? "" : "_restarts-" + kMeansRestarts;
+		String engine = kMeansEngine == MCATKMeansEngine.CommonsMath? "" : "_kmeans-" + kMeansEngine.name();
+		String batchSize = kMeansBatchSize == KMEANS_BATCH_SIZE_DEFAULT? "" : "_batch-" + kMeansBatchSize;
+		String initialization = kMeansInitialization == MCATKMeansInitialization.KMeansPlusPlus? "" : "_init-" + kMeansInitialization.name();
+		String distanceMeasure = kMeansDistanceMeasure == MCATDistanceMeasure.Euclidean? "" : "_distance-" + kMeansDistanceMeasure.name();
+		String dtwWindow = kMeansDTWWindow == KMEANS_DTW_WINDOW_DEFAULT? "" : "_dtwWindow-" + kMeansDTWWindow;
+		String coresetSize = kMeansCoresetSize == 0? "" : "_coreset-" + kMeansCoresetSize;
+		String components = pcaComponents == 0? "" : "_pca-" + pcaComponents;
+		String warmStartRestarts = kMeansWarmStartRestarts == 0? "" : "_warm-" + kMeansWarmStartRestarts;
+		String kSelection = kSelectionMaxK == 0? "" : "_kSelect-" + kSelectionMinK + "-" + kSelectionMaxK;
+		return "_k-" + kMeansK + "_hierarchy-" + clusteringHierarchy + restarts + engine + batchSize + initialization + distanceMeasure + dtwWindow + coresetSize + components + warmStartRestarts + kSelection;
 	}
 }
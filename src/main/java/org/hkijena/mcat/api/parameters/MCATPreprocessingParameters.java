@@ -13,6 +13,7 @@
 package org.hkijena.mcat.api.parameters;
 
 import org.hkijena.mcat.api.MCATDocumentation;
+import org.hkijena.mcat.api.MCATPreprocessingEngine;
 import org.hkijena.mcat.api.events.ParameterChangedEvent;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
@@ -43,6 +44,7 @@ public class MCATPreprocessingParameters implements MCATParameterCollection {
     private boolean saveRoi = true;
     private int minTime = MIN_TIME_DEFAULT;
     private int maxTime = MAX_TIME_DEFAULT;
+    private MCATPreprocessingEngine preprocessingEngine = MCATPreprocessingEngine.ImageJ;
 
     public MCATPreprocessingParameters() {
 
@@ -56,6 +58,7 @@ public class MCATPreprocessingParameters implements MCATParameterCollection {
         this.saveRoi = other.saveRoi;
         this.minTime = other.minTime;
         this.maxTime = other.maxTime;
+        this.preprocessingEngine = other.preprocessingEngine;
     }
 
     @MCATDocumentation(name = "Smoothing factor", description = "res:///org/hkijena/mcat/documentation/parameter_preprocessing_downsampling_factor.md")
@@ -176,6 +179,20 @@ public class MCATPreprocessingParameters implements MCATParameterCollection {
         return true;
     }
 
+    @MCATDocumentation(name = "Preprocessing engine", description = "res:///org/hkijena/mcat/documentation/parameter_preprocessing_engine.md")
+    @JsonGetter("preprocessing-engine")
+    @MCATParameter(value = "preprocessing-engine", shortKey = "engine", uiOrder = 8)
+    public MCATPreprocessingEngine getPreprocessingEngine() {
+        return preprocessingEngine;
+    }
+
+    @JsonSetter("preprocessing-engine")
+    @MCATParameter("preprocessing-engine")
+    public void setPreprocessingEngine(MCATPreprocessingEngine preprocessingEngine) {
+        this.preprocessingEngine = preprocessingEngine;
+        eventBus.post(new ParameterChangedEvent(this, "preprocessing-engine"));
+    }
+
     @Override
     public EventBus getEventBus() {
         return eventBus;
@@ -197,19 +214,34 @@ public class MCATPreprocessingParameters implements MCATParameterCollection {
                 saveRawImage == that.saveRawImage &&
                 saveRoi == that.saveRoi &&
                 minTime == that.minTime &&
-                maxTime == that.maxTime;
+                maxTime == that.maxTime &&
+                preprocessingEngine == that.preprocessingEngine;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(downsamplingFactor, channelOfInterest, anatomicChannel, saveRawImage, saveRoi, minTime, maxTime);
+        return Objects.hash(downsamplingFactor, channelOfInterest, anatomicChannel, saveRawImage, saveRoi, minTime, maxTime, preprocessingEngine);
+    }
+
+    /**
+     * Returns a copy that only differs from other parameters if the preprocessed data is different.
+     * The flags that only control which additional files are saved are disabled.
+     *
+     * @return copy without output flags
+     */
+    public MCATPreprocessingParameters toComputeParameters() {
+        MCATPreprocessingParameters result = new MCATPreprocessingParameters(this);
+        result.saveRawImage = false;
+        result.saveRoi = false;
+        return result;
     }
 
     public String toShortenedString() {
 		String minT = minTime == MIN_TIME_DEFAULT? "" : "_minTime-" + minTime;
 		String maxT = maxTime == MAX_TIME_DEFAULT? "" : "_maxTime-" + maxTime;
+		String engine = preprocessingEngine == MCATPreprocessingEngine.ImageJ? "" : "_engine-" + preprocessingEngine.name();
 		
 		return "_anatomyCh-" + anatomicChannel + "_signalCh-" + channelOfInterest + 
-				"_down-" + downsamplingFactor + minT + maxT;
+				"_down-" + downsamplingFactor + minT + maxT + engine;
 	}
 }
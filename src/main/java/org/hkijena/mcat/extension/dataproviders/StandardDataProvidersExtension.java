@@ -17,18 +17,24 @@ import org.hkijena.mcat.api.MCATDataProvider;
 import org.hkijena.mcat.api.registries.MCATDataTypeRegistry;
 import org.hkijena.mcat.extension.dataproviders.api.ClusterAbundanceFromFileProvider;
 import org.hkijena.mcat.extension.dataproviders.api.ClusterCentersFromFileProvider;
+import org.hkijena.mcat.extension.dataproviders.api.ClusterLabelsFromFileProvider;
 import org.hkijena.mcat.extension.dataproviders.api.DerivativeMatrixFromFileProvider;
 import org.hkijena.mcat.extension.dataproviders.api.HyperstackFromTifDataProvider;
 import org.hkijena.mcat.extension.dataproviders.api.ROIFromFileDataProvider;
+import org.hkijena.mcat.extension.dataproviders.api.TimeSeriesMatrixFromFileProvider;
 import org.hkijena.mcat.extension.dataproviders.ui.ClusterCentersFromFileDataProviderUI;
+import org.hkijena.mcat.extension.dataproviders.ui.ClusterLabelsFromFileDataProviderUI;
 import org.hkijena.mcat.extension.dataproviders.ui.DerivationMatrixFromFileDataProviderUI;
 import org.hkijena.mcat.extension.dataproviders.ui.HyperstackFromTifDataProviderUI;
 import org.hkijena.mcat.extension.dataproviders.ui.ROIFromFileDataProviderUI;
+import org.hkijena.mcat.extension.dataproviders.ui.TimeSeriesMatrixFromFileDataProviderUI;
 import org.hkijena.mcat.extension.datatypes.ClusterAbundanceData;
 import org.hkijena.mcat.extension.datatypes.ClusterCentersData;
+import org.hkijena.mcat.extension.datatypes.ClusterLabelsData;
 import org.hkijena.mcat.extension.datatypes.DerivativeMatrixData;
 import org.hkijena.mcat.extension.datatypes.HyperstackData;
 import org.hkijena.mcat.extension.datatypes.ROIData;
+import org.hkijena.mcat.extension.datatypes.TimeSeriesMatrixData;
 import org.hkijena.mcat.ui.MCATDataProviderUI;
 import org.hkijena.mcat.ui.registries.MCATDataProviderUIRegistry;
 
@@ -46,6 +52,10 @@ public class StandardDataProvidersExtension {
                 ClusterCentersFromFileProvider.class,
                 ClusterCentersFromFileDataProviderUI.class,
                 ClusterCentersData.class);
+        registerDataProvider("cluster-labels-from-file",
+                ClusterLabelsFromFileProvider.class,
+                ClusterLabelsFromFileDataProviderUI.class,
+                ClusterLabelsData.class);
         registerDataProvider("derivation-matrix-from-file",
                 DerivativeMatrixFromFileProvider.class,
                 DerivationMatrixFromFileDataProviderUI.class,
@@ -58,6 +68,10 @@ public class StandardDataProvidersExtension {
                 ROIFromFileDataProvider.class,
                 ROIFromFileDataProviderUI.class,
                 ROIData.class);
+        registerDataProvider("time-series-matrix-from-file",
+                TimeSeriesMatrixFromFileProvider.class,
+                TimeSeriesMatrixFromFileDataProviderUI.class,
+                TimeSeriesMatrixData.class);
     }
 
     private static void registerDataProvider(String id, Class<? extends MCATDataProvider> providerClass, Class<? extends MCATDataProviderUI> providerUIClass, Class<? extends MCATData> dataClass) {
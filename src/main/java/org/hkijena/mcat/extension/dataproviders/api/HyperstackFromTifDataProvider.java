@@ -12,8 +12,14 @@
  ******************************************************************************/
 package org.hkijena.mcat.extension.dataproviders.api;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
 import org.hkijena.mcat.api.MCATDocumentation;
 import org.hkijena.mcat.extension.datatypes.HyperstackData;
+import org.hkijena.mcat.utils.TiffHyperstackReader;
 
 import ij.IJ;
 
@@ -37,4 +43,26 @@ public class HyperstackFromTifDataProvider extends FileDataProvider {
         return new HyperstackData(IJ.openImage(getFilePath().toString()));
     }
 
+    /**
+     * Creates a reader that loads only selected channels and frames of the file
+     *
+     * @return the reader or null if the file has to be loaded completely with get()
+     */
+    public TiffHyperstackReader createSelectiveReader() {
+        return TiffHyperstackReader.open(getFilePath());
+    }
+
+    /**
+     * Copies the file without loading it
+     *
+     * @param target the target file
+     */
+    public void copyTo(Path target) {
+        try {
+            Files.copy(getFilePath(), target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
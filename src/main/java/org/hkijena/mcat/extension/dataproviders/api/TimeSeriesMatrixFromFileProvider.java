@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.extension.dataproviders.api;
+
+import org.hkijena.mcat.api.MCATDocumentation;
+import org.hkijena.mcat.extension.datatypes.TimeSeriesMatrixData;
+
+/**
+ * Provides a {@link TimeSeriesMatrixData} that refers to a file. The file is not loaded into memory.
+ */
+@MCATDocumentation(name = "Time series matrix (*.f32)")
+public class TimeSeriesMatrixFromFileProvider extends FileDataProvider {
+
+    public TimeSeriesMatrixFromFileProvider() {
+        super();
+    }
+
+    public TimeSeriesMatrixFromFileProvider(TimeSeriesMatrixFromFileProvider other) {
+        super(other);
+    }
+
+    @Override
+    public TimeSeriesMatrixData get() {
+        return new TimeSeriesMatrixData(getFilePath());
+    }
+}
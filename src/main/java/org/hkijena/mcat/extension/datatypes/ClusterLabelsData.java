@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.extension.datatypes;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.hkijena.mcat.api.MCATData;
+import org.hkijena.mcat.api.MCATDocumentation;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+
+/**
+ * Contains the cluster of each pixel of a data set as image.
+ * The value of each pixel is the index of its cluster. Images with up to 256 clusters are 8-bit, otherwise 16-bit.
+ * The colors of the clusters are attached as lookup table, so the image is displayed with the cluster colors.
+ */
+@MCATDocumentation(name = "Cluster labels")
+public class ClusterLabelsData implements MCATData {
+
+    private final ImagePlus image;
+    private final ImageProcessor processor;
+
+    public ClusterLabelsData(ImagePlus image) {
+        this.image = image;
+        this.processor = image.getProcessor();
+    }
+
+    /**
+     * Creates an image where all pixels belong to the first cluster
+     *
+     * @param title  the image title
+     * @param width  the width
+     * @param height the height
+     * @param colors the RGB color of each cluster. Determines the bit depth.
+     * @return the data
+     */
+    public static ClusterLabelsData create(String title, int width, int height, List<Integer> colors) {
+        ImageProcessor processor;
+        if (colors.size() <= 256) {
+            processor = new ByteProcessor(width, height);
+        } else {
+            processor = new ShortProcessor(width, height);
+        }
+        processor.setLut(createLut(colors));
+        // Only the first 256 clusters of 16-bit images have their own color
+        processor.setMinAndMax(0, 255);
+        return new ClusterLabelsData(new ImagePlus(title, processor));
+    }
+
+    /**
+     * Creates a lookup table that maps the index of each cluster to its color
+     *
+     * @param colors the RGB color of each cluster
+     * @return the lookup table. Entries without cluster are black.
+     */
+    public static LUT createLut(List<Integer> colors) {
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        for (int i = 0; i < Math.min(256, colors.size()); i++) {
+            int color = colors.get(i);
+            reds[i] = (byte) (color >> 16);
+            greens[i] = (byte) (color >> 8);
+            blues[i] = (byte) color;
+        }
+        return new LUT(reds, greens, blues);
+    }
+
+    /**
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the index of the cluster of the pixel
+     */
+    public int getLabel(int x, int y) {
+        return processor.get(y * image.getWidth() + x);
+    }
+
+    /**
+     * Sets the cluster of a pixel. Can be called concurrently for different pixels.
+     *
+     * @param x     the x coordinate
+     * @param y     the y coordinate
+     * @param label the index of the cluster
+     */
+    public void setLabel(int x, int y, int label) {
+        processor.set(y * image.getWidth() + x, label);
+    }
+
+    @Override
+    public void saveTo(Path folder, Path fileName) {
+        IJ.save(image, folder.resolve(fileName).toString());
+    }
+
+    @Override
+    public long estimateSize() {
+        return (long) image.getWidth() * image.getHeight() * image.getBytesPerPixel();
+    }
+
+    public ImagePlus getImage() {
+        return image;
+    }
+}
@@ -43,6 +43,15 @@ public class DerivativeMatrixData implements MCATData {
     }
 
 
+    @Override
+    public long estimateSize() {
+        long size = 0;
+        for (double[] row : derivativeMatrix) {
+            size += 8L * row.length;
+        }
+        return size;
+    }
+
     @Override
     public void saveTo(Path folder, Path fileName) {
         try {
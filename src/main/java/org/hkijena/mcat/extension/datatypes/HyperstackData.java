@@ -37,6 +37,11 @@ public class HyperstackData implements MCATData {
         IJ.save(image, folder.resolve(fileName).toString());
     }
 
+    @Override
+    public long estimateSize() {
+        return (long) image.getWidth() * image.getHeight() * image.getStackSize() * image.getBytesPerPixel();
+    }
+
     public ImagePlus getImage() {
         return image;
     }
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.extension.datatypes;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hkijena.mcat.api.MCATData;
+import org.hkijena.mcat.api.MCATDocumentation;
+import org.hkijena.mcat.api.clustering.MCATKSelectionResult;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.encoders.EncoderUtil;
+import org.jfree.chart.encoders.ImageFormat;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.graphics2d.svg.SVGGraphics2D;
+import org.jfree.graphics2d.svg.SVGUtils;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Scores of clusterings with a range of k that help to choose the number of clusters.
+ * Saved as a table with one row per k and a plot of the SSE, the silhouette and the gap statistic over k.
+ */
+@MCATDocumentation(name = "K selection")
+public class KSelectionData implements MCATData {
+
+    public static final int AUTO_EXPORT_WIDTH = 400;
+    public static final int AUTO_EXPORT_HEIGHT = 400;
+
+    private final MCATKSelectionResult result;
+
+    public KSelectionData(MCATKSelectionResult result) {
+        this.result = result;
+    }
+
+    public MCATKSelectionResult getResult() {
+        return result;
+    }
+
+    public ResultsTable toTable() {
+        ResultsTable table = new ResultsTable();
+        for (int k = result.getMinK(); k <= result.getMaxK(); k++) {
+            table.incrementCounter();
+            int row = table.getCounter() - 1;
+            List<String> selectedBy = new ArrayList<>();
+            if (k == result.getGapK())
+                selectedBy.add("gap");
+            if (k == result.getSilhouetteK())
+                selectedBy.add("silhouette");
+            table.setValue("k", row, k);
+            table.setValue("SSE", row, result.getSquaredError(k));
+            table.setValue("silhouette", row, result.getSilhouette(k));
+            table.setValue("gap", row, result.getGap(k));
+            table.setValue("gapError", row, result.getGapError(k));
+            table.setValue("selectedBy", row, String.join(" ", selectedBy));
+        }
+        return table;
+    }
+
+    public List<JFreeChart> renderCharts() {
+        XYSeries squaredErrors = new XYSeries("SSE");
+        XYSeries silhouettes = new XYSeries("Silhouette");
+        XYSeries gaps = new XYSeries("Gap");
+        XYSeries lowerGaps = new XYSeries("Gap - standard error");
+        for (int k = result.getMinK(); k <= result.getMaxK(); k++) {
+            squaredErrors.add(k, result.getSquaredError(k));
+            if (!Double.isNaN(result.getSilhouette(k)))
+                silhouettes.add(k, result.getSilhouette(k));
+            gaps.add(k, result.getGap(k));
+            lowerGaps.add(k, result.getGap(k) - result.getGapError(k));
+        }
+
+        List<JFreeChart> charts = new ArrayList<>();
+        XYSeriesCollection dataset = new XYSeriesCollection();
+        dataset.addSeries(squaredErrors);
+        charts.add(ChartFactory.createXYLineChart("Sum of squared errors", "k", "SSE", dataset));
+
+        dataset = new XYSeriesCollection();
+        dataset.addSeries(silhouettes);
+        charts.add(ChartFactory.createXYLineChart("Silhouette (best k = " + result.getSilhouetteK() + ")", "k", "Mean silhouette", dataset));
+
+        dataset = new XYSeriesCollection();
+        dataset.addSeries(gaps);
+        dataset.addSeries(lowerGaps);
+        charts.add(ChartFactory.createXYLineChart("Gap statistic (best k = " + result.getGapK() + ")", "k", "Gap", dataset));
+        return charts;
+    }
+
+    private void renderToGraphics(Graphics2D graphics2D, List<JFreeChart> charts) {
+        int x = 0;
+        for (JFreeChart chart : charts) {
+            chart.draw(graphics2D, new Rectangle(x, 0, AUTO_EXPORT_WIDTH, AUTO_EXPORT_HEIGHT));
+            x += AUTO_EXPORT_WIDTH;
+        }
+    }
+
+    public void writeChartAsPNG(Path fileName) {
+        List<JFreeChart> charts = renderCharts();
+        BufferedImage image = new BufferedImage(charts.size() * AUTO_EXPORT_WIDTH, AUTO_EXPORT_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics2D = image.createGraphics();
+        renderToGraphics(graphics2D, charts);
+
+        try (BufferedOutputStream stream = new BufferedOutputStream(new FileOutputStream(fileName.toFile()))) {
+            EncoderUtil.writeBufferedImage(image, ImageFormat.PNG, stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void writeChartAsSVG(Path fileName) {
+        List<JFreeChart> charts = renderCharts();
+        SVGGraphics2D graphics2D = new SVGGraphics2D(charts.size() * AUTO_EXPORT_WIDTH, AUTO_EXPORT_HEIGHT);
+        renderToGraphics(graphics2D, charts);
+
+        try {
+            SVGUtils.writeToSVG(fileName.toFile(), graphics2D.getSVGElement());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void saveTo(Path folder, Path fileName) {
+        toTable().save(folder.resolve(fileName + ".csv").toString());
+        writeChartAsPNG(folder.resolve(fileName + ".png"));
+        writeChartAsSVG(folder.resolve(fileName + ".svg"));
+    }
+}
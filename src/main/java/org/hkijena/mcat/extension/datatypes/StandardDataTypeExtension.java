@@ -23,12 +23,15 @@ public class StandardDataTypeExtension {
     public static void register() {
         registerDataType("cluster-abundance", ClusterAbundanceData.class);
         registerDataType("cluster-centers", ClusterCentersData.class);
+        registerDataType("cluster-labels", ClusterLabelsData.class);
         registerDataType("derivative-matrix", DerivativeMatrixData.class);
         registerDataType("imageplus-hyperstack", HyperstackData.class);
         registerDataType("roi", ROIData.class);
         registerDataType("auc", AUCData.class);
         registerDataType("auc-plot", AUCPlotData.class);
+        registerDataType("k-selection", KSelectionData.class);
         registerDataType("time-derivative-plot", TimeDerivativePlotData.class);
+        registerDataType("time-series-matrix", TimeSeriesMatrixData.class);
     }
 
     private static void registerDataType(String id, Class<? extends MCATData> klass) {
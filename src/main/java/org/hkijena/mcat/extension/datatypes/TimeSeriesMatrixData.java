@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.extension.datatypes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.hkijena.mcat.api.MCATData;
+import org.hkijena.mcat.api.MCATDocumentation;
+import org.hkijena.mcat.api.MCATMappedTimeSeriesMatrix;
+
+import ij.ImagePlus;
+
+/**
+ * Contains the time series of all pixels of a preprocessed image, stored as a binary file that can be mapped by
+ * {@link MCATMappedTimeSeriesMatrix}.
+ * Created from an image by the preprocessing or from an existing file.
+ */
+@MCATDocumentation(name = "Time series matrix")
+public class TimeSeriesMatrixData implements MCATData {
+
+    private ImagePlus image;
+    private Path filePath;
+
+    /**
+     * @param image the image that is written by saveTo()
+     */
+    public TimeSeriesMatrixData(ImagePlus image) {
+        this.image = image;
+    }
+
+    /**
+     * @param filePath an existing file
+     */
+    public TimeSeriesMatrixData(Path filePath) {
+        this.filePath = filePath;
+    }
+
+    @Override
+    public void saveTo(Path folder, Path fileName) {
+        if (image != null) {
+            MCATMappedTimeSeriesMatrix.write(folder.resolve(fileName), image);
+        } else {
+            try {
+                Files.copy(filePath, folder.resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The image is shared with the preprocessed image, but is kept in memory until the file was written
+     */
+    @Override
+    public long estimateSize() {
+        if (image == null)
+            return 0;
+        return (long) image.getWidth() * image.getHeight() * image.getStackSize() * Float.BYTES;
+    }
+
+    /**
+     * @return the image or null if the data was created from a file
+     */
+    public ImagePlus getImage() {
+        return image;
+    }
+
+    /**
+     * @return the file or null if the data was created from an image
+     */
+    public Path getFilePath() {
+        return filePath;
+    }
+}
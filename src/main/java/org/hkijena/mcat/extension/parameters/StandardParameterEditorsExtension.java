@@ -17,6 +17,10 @@ import java.io.File;
 import java.nio.file.Path;
 
 import org.hkijena.mcat.api.MCATClusteringHierarchy;
+import org.hkijena.mcat.api.MCATDistanceMeasure;
+import org.hkijena.mcat.api.MCATKMeansEngine;
+import org.hkijena.mcat.api.MCATKMeansInitialization;
+import org.hkijena.mcat.api.MCATPreprocessingEngine;
 import org.hkijena.mcat.api.MCATDefaultDocumentation;
 import org.hkijena.mcat.api.registries.MCATUIParametertypeRegistry;
 import org.hkijena.mcat.extension.parameters.editors.BooleanParameterEditorUI;
@@ -80,6 +84,10 @@ public class StandardParameterEditorsExtension {
 
         // Register MCAT parameters
         registerParameterType(MCATClusteringHierarchy.class, EnumParameterEditorUI.class, "Clustering hierarchy", "Determines how data is organized for clustering");
+        registerParameterType(MCATKMeansEngine.class, EnumParameterEditorUI.class, "K-Means engine", "Determines which implementation of k-means clustering is used");
+        registerParameterType(MCATKMeansInitialization.class, EnumParameterEditorUI.class, "K-Means initialization", "Determines how the initial cluster centers are chosen");
+        registerParameterType(MCATDistanceMeasure.class, EnumParameterEditorUI.class, "Distance measure", "Determines how the distance between a time series and a cluster center is calculated");
+        registerParameterType(MCATPreprocessingEngine.class, EnumParameterEditorUI.class, "Preprocessing engine", "Determines how the preprocessing steps after registration are calculated");
 
         // Register generators
         registerParameterGenerator(byte.class, ByteParameterGenerator.class, "Generate 8-bit integral number sequence", "Generates 8-bit integer numbers");
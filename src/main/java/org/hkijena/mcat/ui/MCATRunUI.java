@@ -23,13 +23,16 @@ import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingWorker;
 
 import org.hkijena.mcat.api.MCATResult;
@@ -79,6 +82,31 @@ public class MCATRunUI extends MCATWorkbenchUIPanel {
             run.setOutputPath(outputFolderSelection.getPath());
             runButton.setEnabled(outputFolderSelection.getPath() != null);
         });
+
+        JSpinner threadCountSpinner = formPanel.addToForm(new JSpinner(new SpinnerNumberModel(run.getThreadCount(), 1,
+                        Math.max(run.getThreadCount(), Runtime.getRuntime().availableProcessors()), 1)),
+                new JLabel("Threads"),
+                null);
+        threadCountSpinner.addChangeListener(e -> run.setThreadCount((Integer) threadCountSpinner.getValue()));
+        JSpinner memoryBudgetSpinner = formPanel.addToForm(new JSpinner(new SpinnerNumberModel(
+                        (int) (run.getMemoryBudget() / 1024 / 1024), 1, Integer.MAX_VALUE, 256)),
+                new JLabel("Memory budget (MB)"),
+                null);
+        memoryBudgetSpinner.addChangeListener(e -> run.setMemoryBudget((Integer) memoryBudgetSpinner.getValue() * 1024L * 1024L));
+        JSpinner writeBehindSpinner = formPanel.addToForm(new JSpinner(new SpinnerNumberModel(
+                        (int) (run.getWriteBehindBufferSize() / 1024 / 1024), 0, Integer.MAX_VALUE, 256)),
+                new JLabel("Write-behind buffer (MB)"),
+                null);
+        writeBehindSpinner.addChangeListener(e -> run.setWriteBehindBufferSize((Integer) writeBehindSpinner.getValue() * 1024L * 1024L));
+        JSpinner seedSpinner = formPanel.addToForm(new JSpinner(new SpinnerNumberModel(
+                        (int) run.getSeed(), Integer.MIN_VALUE, Integer.MAX_VALUE, 1)),
+                new JLabel("Random seed"),
+                null);
+        seedSpinner.addChangeListener(e -> run.setSeed((Integer) seedSpinner.getValue()));
+        JCheckBox resumeCheckBox = formPanel.addToForm(new JCheckBox("Reuse results of earlier runs", run.isResume()),
+                new JLabel("Resume"),
+                null);
+        resumeCheckBox.addActionListener(e -> run.setResume(resumeCheckBox.isSelected()));
         formPanel.addVerticalGlue();
 
         setupPanel.add(formPanel, BorderLayout.CENTER);
@@ -177,7 +205,10 @@ public class MCATRunUI extends MCATWorkbenchUIPanel {
         }
 
         private void onStatus(MCATRun.Status status) {
-            publish(status.getCurrentTask());
+            if (status.getMetrics() != null)
+                publish(status.getCurrentTask() + " (" + status.getMetrics().toShortString() + ")");
+            else
+                publish(status.getCurrentTask());
             publish(status.getProgress());
         }
 
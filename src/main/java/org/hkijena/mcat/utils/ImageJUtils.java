@@ -12,12 +12,17 @@
  ******************************************************************************/
 package org.hkijena.mcat.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
 import ij.plugin.PlugIn;
 
 public class ImageJUtils {
@@ -62,4 +67,56 @@ public class ImageJUtils {
     public static String toParameterString(Object... parameters) {
         return Arrays.stream(parameters).map(Object::toString).collect(Collectors.joining(" "));
     }
+
+    /**
+     * Reads the header of a TIFF file without loading any pixels
+     *
+     * @param path the TIFF file
+     * @return one entry per image file directory. ImageJ stacks with contiguous planes have only one entry.
+     */
+    public static FileInfo[] readTiffHeader(Path path) {
+        Path absolutePath = path.toAbsolutePath();
+        TiffDecoder decoder = new TiffDecoder(absolutePath.getParent().toString() + File.separator, absolutePath.getFileName().toString());
+        try {
+            FileInfo[] info = decoder.getTiffInfo();
+            if (info == null || info.length == 0)
+                throw new IOException("No image found in " + path);
+            return info;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of planes stored in a TIFF file
+     *
+     * @param info the result of readTiffHeader()
+     * @return number of planes
+     */
+    public static int getTiffPlaneCount(FileInfo[] info) {
+        return info.length == 1 ? Math.max(1, info[0].nImages) : info.length;
+    }
+
+    /**
+     * Reads an integer property (e.g. "channels") from the image description that ImageJ writes into TIFF files
+     *
+     * @param info         a file info
+     * @param key          the property
+     * @param defaultValue returned if there is no such property
+     * @return the value
+     */
+    public static int getTiffDescriptionProperty(FileInfo info, String key, int defaultValue) {
+        if (info.description == null)
+            return defaultValue;
+        for (String line : info.description.split("\n")) {
+            if (line.startsWith(key + "=")) {
+                try {
+                    return Integer.parseInt(line.substring(key.length() + 1).trim());
+                } catch (NumberFormatException e) {
+                    return defaultValue;
+                }
+            }
+        }
+        return defaultValue;
+    }
 }
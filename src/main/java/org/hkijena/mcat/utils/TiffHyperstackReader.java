@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+/**
+ * Reads selected channels and frames of an uncompressed TIFF hyperstack without loading the other planes.
+ * Planes are expected in the order ImageJ writes them (channels, then slices, then frames).
+ * Only 8-bit, unsigned 16-bit and 32-bit float images with a single slice per frame are supported.
+ */
+public class TiffHyperstackReader {
+
+    private final Path path;
+    private final FileInfo[] info;
+    private final int channels;
+    private final int frames;
+    private final int planeBytes;
+
+    private TiffHyperstackReader(Path path, FileInfo[] info) {
+        this.path = path;
+        this.info = info;
+        this.channels = Math.max(1, ImageJUtils.getTiffDescriptionProperty(info[0], "channels", 1));
+        this.frames = ImageJUtils.getTiffPlaneCount(info) / channels;
+        this.planeBytes = info[0].width * info[0].height * info[0].getBytesPerPixel();
+    }
+
+    /**
+     * Reads the header of a TIFF file
+     *
+     * @param path the TIFF file
+     * @return the reader or null if the layout of the file is not supported
+     */
+    public static TiffHyperstackReader open(Path path) {
+        FileInfo[] info = ImageJUtils.readTiffHeader(path);
+        String reason = getUnsupportedReason(info);
+        if (reason != null) {
+            System.out.println("Reading the whole image " + path + ": " + reason);
+            return null;
+        }
+        return new TiffHyperstackReader(path, info);
+    }
+
+    /**
+     * Checks if the planes described by the header can be read by this class
+     *
+     * @param info the result of {@link ImageJUtils#readTiffHeader(Path)}
+     * @return null if the file is supported, otherwise the reason why it is not
+     */
+    public static String getUnsupportedReason(FileInfo[] info) {
+        FileInfo first = info[0];
+        if (first.fileType != FileInfo.GRAY8 && first.fileType != FileInfo.GRAY16_UNSIGNED && first.fileType != FileInfo.GRAY32_FLOAT)
+            return "unsupported pixel type";
+        int planes = ImageJUtils.getTiffPlaneCount(info);
+        int channels = Math.max(1, ImageJUtils.getTiffDescriptionProperty(first, "channels", 1));
+        if (ImageJUtils.getTiffDescriptionProperty(first, "slices", 1) != 1)
+            return "multiple slices per frame";
+        if (planes % channels != 0)
+            return "number of planes is not a multiple of the number of channels";
+        for (FileInfo fileInfo : info) {
+            if (fileInfo.compression > FileInfo.COMPRESSION_NONE)
+                return "compressed planes";
+            if (fileInfo.fileType != first.fileType || fileInfo.width != first.width || fileInfo.height != first.height ||
+                    fileInfo.intelByteOrder != first.intelByteOrder)
+                return "planes have different formats";
+            if (fileInfo.stripOffsets != null && fileInfo.stripLengths != null) {
+                for (int i = 1; i < fileInfo.stripOffsets.length; i++) {
+                    if (fileInfo.stripOffsets[i] != fileInfo.stripOffsets[i - 1] + fileInfo.stripLengths[i - 1])
+                        return "planes are not stored contiguously";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads one single-channel image per requested channel
+     *
+     * @param channelIndices the channels (starting with 1). Channels that are not requested are null in the result.
+     * @param firstFrame     the first frame (starting with 1)
+     * @param lastFrame      the last frame (inclusive)
+     * @return array with one entry per channel in the file
+     */
+    public ImagePlus[] read(int[] channelIndices, int firstFrame, int lastFrame) {
+        if (firstFrame < 1 || lastFrame > frames || firstFrame > lastFrame)
+            throw new IllegalArgumentException("Invalid frame range " + firstFrame + " - " + lastFrame + " for " + frames + " frames!");
+        FileInfo first = info[0];
+        ImageStack[] stacks = new ImageStack[channels];
+        for (int channel : channelIndices) {
+            if (channel < 1 || channel > channels)
+                throw new IllegalArgumentException("Invalid channel " + channel + " for " + channels + " channels!");
+            stacks[channel - 1] = new ImageStack(first.width, first.height);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(planeBytes).order(first.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int frame = firstFrame; frame <= lastFrame; frame++) {
+                for (int channel = 1; channel <= channels; channel++) {
+                    if (stacks[channel - 1] == null)
+                        continue;
+                    buffer.clear();
+                    long offset = getPlaneOffset((frame - 1) * channels + channel - 1);
+                    while (buffer.hasRemaining()) {
+                        if (fileChannel.read(buffer, offset + buffer.position()) < 0)
+                            throw new IOException("Unexpected end of file " + path);
+                    }
+                    buffer.flip();
+                    stacks[channel - 1].addSlice(null, toPixels(buffer));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        ImagePlus[] result = new ImagePlus[channels];
+        for (int i = 0; i < channels; i++) {
+            if (stacks[i] == null)
+                continue;
+            ImagePlus imp = new ImagePlus("C" + (i + 1) + "-" + getTitle(), stacks[i]);
+            imp.setDimensions(1, 1, stacks[i].getSize());
+            imp.setCalibration(createCalibration());
+            result[i] = imp;
+        }
+        return result;
+    }
+
+    private long getPlaneOffset(int plane) {
+        if (info.length == 1)
+            return info[0].getOffset() + (long) plane * (planeBytes + info[0].gapBetweenImages);
+        return info[plane].getOffset();
+    }
+
+    private Object toPixels(ByteBuffer buffer) {
+        int pixels = info[0].width * info[0].height;
+        switch (info[0].fileType) {
+            case FileInfo.GRAY8: {
+                byte[] result = new byte[pixels];
+                buffer.get(result);
+                return result;
+            }
+            case FileInfo.GRAY16_UNSIGNED: {
+                short[] result = new short[pixels];
+                buffer.asShortBuffer().get(result);
+                return result;
+            }
+            case FileInfo.GRAY32_FLOAT: {
+                float[] result = new float[pixels];
+                buffer.asFloatBuffer().get(result);
+                return result;
+            }
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private Calibration createCalibration() {
+        Calibration calibration = new Calibration();
+        calibration.pixelWidth = info[0].pixelWidth;
+        calibration.pixelHeight = info[0].pixelHeight;
+        calibration.pixelDepth = info[0].pixelDepth;
+        calibration.frameInterval = info[0].frameInterval;
+        calibration.setUnit(info[0].unit);
+        return calibration;
+    }
+
+    public String getTitle() {
+        return path.getFileName().toString();
+    }
+
+    public int getWidth() {
+        return info[0].width;
+    }
+
+    public int getHeight() {
+        return info[0].height;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.algorithms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+
+/**
+ * Compares the fused preprocessing engine with the steps of the ImageJ engine on a synthetic 32-bit stack
+ * and checks that its result does not depend on the number of threads
+ */
+public class MCATFusedPreprocessingKernelTest {
+
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 20;
+    private static final int FRAMES = 23;
+    private static final int DOWNSAMPLING_FACTOR = 4;
+    private static final float TOLERANCE = 1e-4f;
+
+    /**
+     * Creates a single-channel stack with one slice per frame, like the registered channel of interest
+     *
+     * @param hyperstack if the image is marked as hyperstack
+     */
+    static ImagePlus createImage(boolean hyperstack) {
+        Random random = new Random(1);
+        ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            float[] pixels = new float[WIDTH * HEIGHT];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = 100 + 20 * (float) Math.sin(i * 0.1 + frame * 0.3) + (float) random.nextGaussian();
+            }
+            stack.addSlice(null, pixels);
+        }
+        ImagePlus imp = new ImagePlus("synthetic", stack);
+        imp.setDimensions(1, 1, FRAMES);
+        imp.setOpenAsHyperStack(hyperstack);
+        return imp;
+    }
+
+    private static ImagePlus runImageJEngine(ImagePlus imp, Roi roi) {
+        imp = MCATPreprocessingAlgorithm.ztransform(imp);
+        imp = MCATPreprocessingAlgorithm.setOuterPixels(imp, roi);
+        imp = MCATPreprocessingAlgorithm.downsample(imp, DOWNSAMPLING_FACTOR);
+        return MCATPreprocessingAlgorithm.toTimeDerivativeImage(imp);
+    }
+
+    private static void assertSameImage(ImagePlus expected, ImagePlus actual) {
+        assertEquals("width", expected.getWidth(), actual.getWidth());
+        assertEquals("height", expected.getHeight(), actual.getHeight());
+        assertEquals("slices", expected.getStackSize(), actual.getStackSize());
+        for (int slice = 1; slice <= expected.getStackSize(); slice++) {
+            float[] expectedPixels = (float[]) expected.getStack().getProcessor(slice).convertToFloat().getPixels();
+            float[] actualPixels = (float[]) actual.getStack().getProcessor(slice).convertToFloat().getPixels();
+            assertArrayEquals("slice " + slice, expectedPixels, actualPixels, TOLERANCE);
+        }
+    }
+
+    private static void assertSameAsImageJEngine(boolean hyperstack, Roi roi) {
+        MCATFusedPreprocessingKernel kernel = new MCATFusedPreprocessingKernel(DOWNSAMPLING_FACTOR, roi, 1);
+        ImagePlus image = createImage(hyperstack);
+        ImagePlus fused = kernel.apply(image);
+        ImagePlus imageJ = runImageJEngine(createImage(hyperstack), roi);
+        assertEquals("downsampled frames", imageJ.getStackSize() + 1, kernel.getDownsampledFrameCount(image));
+        assertSameImage(imageJ, fused);
+    }
+
+    @Test
+    public void doesNotDependOnThreadCount() {
+        Roi roi = new Roi(3, 5, 15, 11);
+        ImagePlus expected = new MCATFusedPreprocessingKernel(DOWNSAMPLING_FACTOR, roi, 1).apply(createImage(false));
+        for (int threads : new int[]{3, 8}) {
+            ImagePlus actual = new MCATFusedPreprocessingKernel(DOWNSAMPLING_FACTOR, roi, threads).apply(createImage(false));
+            assertEquals("slices with " + threads + " threads", expected.getStackSize(), actual.getStackSize());
+            for (int slice = 1; slice <= expected.getStackSize(); slice++) {
+                assertArrayEquals("slice " + slice + " with " + threads + " threads", (float[]) expected.getStack().getPixels(slice),
+                        (float[]) actual.getStack().getPixels(slice), 0);
+            }
+        }
+    }
+
+    @Test
+    public void equalsImageJEngineWithoutRoi() {
+        assertSameAsImageJEngine(false, null);
+    }
+
+    @Test
+    public void equalsImageJEngineWithRoi() {
+        assertSameAsImageJEngine(false, new Roi(3, 5, 15, 11));
+    }
+
+    @Test
+    public void equalsImageJEngineForHyperstack() {
+        assertSameAsImageJEngine(true, null);
+    }
+
+    @Test
+    public void equalsImageJEngineForHyperstackWithRoi() {
+        assertSameAsImageJEngine(true, new Roi(3, 5, 15, 11));
+    }
+}
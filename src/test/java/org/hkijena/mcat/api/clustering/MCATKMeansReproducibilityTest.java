@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright by Dr. Bianca Hoffmann, Ruman Gerst, Dr. Zoltán Cseresnyés and Prof. Dr. Marc Thilo Figge
+ * 
+ * Research Group Applied Systems Biology - Head: Prof. Dr. Marc Thilo Figge
+ * https://www.leibniz-hki.de/en/applied-systems-biology.html
+ * HKI-Center for Systems Biology of Infection
+ * Leibniz Institute for Natural Product Research and Infection Biology - Hans Knöll Insitute (HKI)
+ * Adolf-Reichwein-Straße 23, 07745 Jena, Germany
+ * 
+ * The project code is licensed under BSD 2-Clause.
+ * See the LICENSE file provided with the code for the full license.
+ ******************************************************************************/
+package org.hkijena.mcat.api.clustering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.hkijena.mcat.api.MCATTimeSeriesMatrix;
+import org.junit.Test;
+
+/**
+ * Checks that the results of k-means, DTW k-means, the k selection and the PCA do not depend on the number of threads
+ * and that the bounds of {@link MCATHamerlyKMeans} do not change the result of {@link MCATLloydKMeans}.
+ * The synthetic matrix has more rows than {@link MCATKMeansUtils#BLOCK_SIZE}, so the rows are split into several blocks.
+ */
+public class MCATKMeansReproducibilityTest {
+
+    private static final int[] POOL_SIZES = {1, 3, 8};
+    private static final int ROWS = 10000;
+    private static final int COLUMNS = 16;
+    private static final int K = 4;
+    private static final int RESTARTS = 3;
+    private static final int MAX_ITERATIONS = 30;
+    private static final long SEED = 42;
+
+    private static final MCATTimeSeriesMatrix MATRIX = createMatrix();
+
+    /**
+     * Creates time series of four shapes with noise. The large offset makes the sums sensitive to the order of additions.
+     */
+    private static MCATTimeSeriesMatrix createMatrix() {
+        Random random = new Random(1);
+        double[][] rows = new double[ROWS][COLUMNS];
+        for (int row = 0; row < ROWS; row++) {
+            int shape = row % K;
+            for (int column = 0; column < COLUMNS; column++) {
+                rows[row][column] = 1e4 + Math.sin(column * (shape + 1) * 0.3) + 0.5 * random.nextGaussian();
+            }
+        }
+        return MCATTimeSeriesMatrix.fromRows(Collections.singletonMap("synthetic", rows), COLUMNS);
+    }
+
+    private static MCATKMeansResult run(MCATKMeansClusterer clusterer, int threads) {
+        return new MCATKMeansRestarts(clusterer, RESTARTS, threads, SEED).run(MATRIX, K);
+    }
+
+    private static void assertSameResult(String message, MCATKMeansResult expected, MCATKMeansResult actual) {
+        assertEquals(message + ": cost", expected.getCost(), actual.getCost(), 0);
+        assertEquals(message + ": number of centers", expected.getCenters().length, actual.getCenters().length);
+        for (int i = 0; i < expected.getCenters().length; i++) {
+            assertArrayEquals(message + ": center " + i, expected.getCenters()[i], actual.getCenters()[i], 0);
+        }
+    }
+
+    private static void assertIndependentOfPoolSize(String name, MCATKMeansClusterer clusterer) {
+        MCATKMeansResult expected = run(clusterer, POOL_SIZES[0]);
+        for (int i = 1; i < POOL_SIZES.length; i++) {
+            assertSameResult(name + " with " + POOL_SIZES[i] + " threads", expected, run(clusterer, POOL_SIZES[i]));
+        }
+    }
+
+    @Test
+    public void lloydDoesNotDependOnPoolSize() {
+        assertIndependentOfPoolSize("Lloyd", new MCATLloydKMeans(MAX_ITERATIONS));
+    }
+
+    @Test
+    public void kMeansParallelInitializationDoesNotDependOnPoolSize() {
+        assertIndependentOfPoolSize("Lloyd with k-means||", new MCATLloydKMeans(MAX_ITERATIONS, new MCATKMeansParallelInitializer()));
+    }
+
+    @Test
+    public void hamerlyDoesNotDependOnPoolSize() {
+        assertIndependentOfPoolSize("Hamerly", new MCATHamerlyKMeans(MAX_ITERATIONS));
+    }
+
+    @Test
+    public void miniBatchDoesNotDependOnPoolSize() {
+        assertIndependentOfPoolSize("Mini-batch", new MCATMiniBatchKMeans(1000, 50));
+    }
+
+    @Test
+    public void dtwDoesNotDependOnPoolSize() {
+        assertIndependentOfPoolSize("DTW", new MCATDTWKMeans(10, new MCATKMeansPlusPlusInitializer(), 3));
+    }
+
+    @Test
+    public void kSelectionDoesNotDependOnPoolSize() {
+        MCATKSelectionResult expected = runKSelection(POOL_SIZES[0]);
+        for (int i = 1; i < POOL_SIZES.length; i++) {
+            MCATKSelectionResult actual = runKSelection(POOL_SIZES[i]);
+            for (int k = expected.getMinK(); k <= expected.getMaxK(); k++) {
+                String message = "K selection with " + POOL_SIZES[i] + " threads, k=" + k;
+                assertEquals(message + ": squared error", expected.getSquaredError(k), actual.getSquaredError(k), 0);
+                assertEquals(message + ": silhouette", expected.getSilhouette(k), actual.getSilhouette(k), 0);
+                assertEquals(message + ": gap", expected.getGap(k), actual.getGap(k), 0);
+                assertEquals(message + ": gap error", expected.getGapError(k), actual.getGapError(k), 0);
+            }
+        }
+    }
+
+    private static MCATKSelectionResult runKSelection(int threads) {
+        MCATKSelection selection = new MCATKSelection(new MCATLloydKMeans(MAX_ITERATIONS), RESTARTS, SEED);
+        selection.setSampleSize(500);
+        selection.setReferenceCount(3);
+        selection.setReferenceSize(2000);
+        return MCATKMeansUtils.callInPool(threads, () -> selection.run(MATRIX, 2, K));
+    }
+
+    @Test
+    public void pcaDoesNotDependOnPoolSize() {
+        MCATPCAProjection expected = fitPCA(POOL_SIZES[0]);
+        for (int i = 1; i < POOL_SIZES.length; i++) {
+            MCATPCAProjection actual = fitPCA(POOL_SIZES[i]);
+            String message = "PCA with " + POOL_SIZES[i] + " threads";
+            assertEquals(message + ": explained variance", expected.getExplainedVariance(), actual.getExplainedVariance(), 0);
+            assertArrayEquals(message + ": mean", expected.getMean(), actual.getMean(), 0);
+            for (int component = 0; component < expected.getComponentCount(); component++) {
+                assertArrayEquals(message + ": component " + component, expected.getComponents()[component],
+                        actual.getComponents()[component], 0);
+            }
+        }
+    }
+
+    private static MCATPCAProjection fitPCA(int threads) {
+        return MCATKMeansUtils.callInPool(threads, () -> MCATPCAProjection.fit(MATRIX, 4, ROWS, new Well19937c(SEED)));
+    }
+
+    @Test
+    public void hamerlyEqualsLloyd() {
+        for (int threads : POOL_SIZES) {
+            assertSameResult("Hamerly with " + threads + " threads", run(new MCATLloydKMeans(MAX_ITERATIONS), threads),
+                    run(new MCATHamerlyKMeans(MAX_ITERATIONS), threads));
+        }
+    }
+}